@@ -0,0 +1,59 @@
+package com.ryanmitchener.batchdownload;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.content.LocalBroadcastManager;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+/**
+ * NOTES
+ * -------------------------------------------------------------------------------------------------
+ * + Requires Internet permission to use <uses-permission android:name="android.permission.INTERNET" />
+ * + Requires network state permission for Constraints <uses-permission android:name="android.permission.ACCESS_NETWORK_STATE" />
+ * + When creating a BroadcastReceiver, remember to unregister on onDestroy() so you do not get duplicate onReceive() calls
+ */
+
+
+// Android entry point for BatchDownload. Keeps the engine's files in the app's files folder, delivers listeners
+// added with addListener(listener) on the main thread, sends the ACTION_* broadcasts and checks Constraints against the
+// connectivity and battery of the device.
+public final class AndroidBatchDownload {
+    private static boolean initialized = false;
+
+    private AndroidBatchDownload() {}
+
+
+    // Returns the BatchDownload instance, setting it up for the app the first time
+    public static synchronized BatchDownload getInstance(Context context) {
+        BatchDownload batchDownload = BatchDownload.getInstance(context.getFilesDir());
+        if (!initialized) {
+            initialized = true;
+            batchDownload.setCallbackExecutor(new HandlerExecutor(new Handler(Looper.getMainLooper())));
+            batchDownload.setBroadcastListener(new BroadcastAdapter(batchDownload, LocalBroadcastManager.getInstance(context)));
+            batchDownload.setDeviceState(new AndroidDeviceState(context));
+        }
+        return batchDownload;
+    }
+}
@@ -0,0 +1,159 @@
+package com.ryanmitchener.batchdownload;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// DeviceState backed by the connectivity and battery broadcasts. The state is read when the broadcasts arrive and
+// cached, so the download threads never call into the system services. Needs the ACCESS_NETWORK_STATE permission.
+final class AndroidDeviceState extends BroadcastReceiver implements DeviceState {
+    private final Context context;
+    private final ConnectivityManager connectivityManager;
+    private volatile boolean connected = true;
+    private volatile boolean metered = false;
+    private volatile boolean charging = false;
+    private volatile int batteryLevel = -1;
+    private DeviceState.Listener listener = null;
+
+    AndroidDeviceState(Context context) {
+        this.context = context.getApplicationContext();
+        this.connectivityManager = (ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        updateNetwork();
+
+        // The battery broadcast is sticky so registering without a receiver returns the last one
+        Intent battery = this.context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            updateBattery(battery);
+        }
+    }
+
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+
+    @Override
+    public boolean isMetered() {
+        return metered;
+    }
+
+
+    @Override
+    public boolean isCharging() {
+        return charging;
+    }
+
+
+    @Override
+    public int getBatteryLevel() {
+        return batteryLevel;
+    }
+
+
+    // Registers for the broadcasts while there is a listener to tell
+    @Override
+    public synchronized void setListener(DeviceState.Listener listener) {
+        if (listener != null && this.listener == null) {
+            IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+            filter.addAction(Intent.ACTION_BATTERY_CHANGED);
+            filter.addAction(Intent.ACTION_POWER_CONNECTED);
+            filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+            Intent battery = context.registerReceiver(this, filter);
+            if (battery != null) {
+                updateBattery(battery);
+            }
+        } else if (listener == null && this.listener != null) {
+            context.unregisterReceiver(this);
+        }
+        this.listener = listener;
+    }
+
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent.getAction();
+        boolean changed;
+        if (ConnectivityManager.CONNECTIVITY_ACTION.equals(action)) {
+            changed = updateNetwork();
+        } else if (Intent.ACTION_BATTERY_CHANGED.equals(action)) {
+            changed = updateBattery(intent);
+        } else {
+            // Plugged in or out. The battery broadcast that follows has the details.
+            boolean wasCharging = charging;
+            charging = Intent.ACTION_POWER_CONNECTED.equals(action);
+            changed = charging != wasCharging;
+        }
+
+        DeviceState.Listener listener;
+        synchronized (this) {
+            listener = this.listener;
+        }
+        if (changed && listener != null) {
+            listener.onDeviceStateChanged();
+        }
+    }
+
+
+    // Reads the active network. Returns true if anything changed.
+    private boolean updateNetwork() {
+        NetworkInfo info = (connectivityManager != null) ? connectivityManager.getActiveNetworkInfo() : null;
+        boolean wasConnected = connected;
+        boolean wasMetered = metered;
+        connected = info != null && info.isConnected();
+        if (!connected) {
+            metered = false;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            metered = connectivityManager.isActiveNetworkMetered();
+        } else {
+            // Before Jelly Bean anything but wifi and ethernet is taken to be billed by the byte
+            int type = info.getType();
+            metered = type != ConnectivityManager.TYPE_WIFI && type != ConnectivityManager.TYPE_ETHERNET;
+        }
+        return connected != wasConnected || metered != wasMetered;
+    }
+
+
+    // Reads a battery broadcast. Returns true if the charging state or the level changed.
+    private boolean updateBattery(Intent intent) {
+        boolean wasCharging = charging;
+        int previousLevel = batteryLevel;
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        batteryLevel = (level >= 0 && scale > 0) ? level * 100 / scale : -1;
+        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        charging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0
+                || status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+        return charging != wasCharging || batteryLevel != previousLevel;
+    }
+}
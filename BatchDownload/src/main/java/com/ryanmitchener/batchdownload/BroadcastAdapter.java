@@ -0,0 +1,132 @@
+package com.ryanmitchener.batchdownload;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v4.content.LocalBroadcastManager;
+
+import java.util.List;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Listener that turns progress and events into the LocalBroadcastManager broadcasts BatchDownload has always sent.
+// Events without their own progress share one snapshot per delivery.
+class BroadcastAdapter implements DownloadListener {
+    private final BatchDownload downloader;
+    private final LocalBroadcastManager bm;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    BroadcastAdapter(BatchDownload downloader, LocalBroadcastManager bm) {
+        this.downloader = downloader;
+        this.bm = bm;
+    }
+
+
+    /**
+     * Listener Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public void onProgress(BatchDownload.Progress progress) {
+        sendBroadcast(BatchDownload.ACTION_PROGRESS, new Bundle(), progress);
+    }
+
+
+    @Override
+    public void onEvents(List<DownloadEvent> events) {
+        BatchDownload.Progress snapshot = null;
+        for (DownloadEvent event : events) {
+            BatchDownload.Progress progress = event.getProgress();
+            if (progress == null) {
+                if (snapshot == null) {
+                    snapshot = downloader.getProgress();
+                }
+                progress = snapshot;
+            }
+
+            Bundle extras = new Bundle();
+            if (event.getBatchId() != 0) {
+                extras.putInt(BatchDownload.EXTRA_BATCH_ID, event.getBatchId());
+            }
+            String type = event.getType();
+            if (type.equals(BatchDownload.ACTION_FILE_DOWNLOADED)) {
+                extras.putString(BatchDownload.EXTRA_FILENAME, event.getFile().getName());
+                extras.putString(BatchDownload.EXTRA_FILEPATH, event.getFile().getAbsolutePath());
+            } else if (type.equals(BatchDownload.ACTION_ERROR)) {
+                extras.putString(BatchDownload.EXTRA_ERROR_URL, event.getUrl());
+                extras.putInt(BatchDownload.EXTRA_ATTEMPTS, event.getAttempts());
+            }
+            sendBroadcast(type, extras, progress);
+        }
+    }
+
+
+    // Sends broadcast with the given progress
+    private void sendBroadcast(String type, Bundle extras, BatchDownload.Progress progress) {
+        extras.putLong(BatchDownload.EXTRA_BYTES_DOWNLOADED, progress.getBytesDownloaded());
+        extras.putLong(BatchDownload.EXTRA_BYTES_DECODED, progress.getBytesDecoded());
+        extras.putLong(BatchDownload.EXTRA_TOTAL_BYTES, progress.getTotalBytes());
+        extras.putInt(BatchDownload.EXTRA_ERROR_COUNT, progress.getErrorCount());
+        extras.putInt(BatchDownload.EXTRA_CONCURRENCY, progress.getConcurrency());
+        extras.putLong(BatchDownload.EXTRA_BYTES_PER_SECOND, progress.getBytesPerSecond());
+        extras.putLong(BatchDownload.EXTRA_RATE_LIMIT, progress.getRateLimit());
+        if (type.equals(BatchDownload.ACTION_COMPLETE) || type.equals(BatchDownload.ACTION_BATCH_COMPLETE)) {
+            extras.putInt(BatchDownload.EXTRA_FILES_REMAINING, 0);
+        } else {
+            extras.putInt(BatchDownload.EXTRA_FILES_REMAINING, progress.getFilesRemaining());
+        }
+
+        // Add the progress of each request that is currently downloading
+        if (type.equals(BatchDownload.ACTION_PROGRESS)) {
+            List<BatchDownload.RequestProgress> requests = progress.getRequests();
+            int count = requests.size();
+            String[] urls = new String[count];
+            long[] bytesDownloaded = new long[count];
+            long[] totalBytes = new long[count];
+            int[] attempts = new int[count];
+            long[] bytesExtracted = new long[count];
+            for (int i = 0; i < count; i++) {
+                BatchDownload.RequestProgress requestProgress = requests.get(i);
+                urls[i] = requestProgress.getUrl();
+                bytesDownloaded[i] = requestProgress.getBytesDownloaded();
+                totalBytes[i] = requestProgress.getTotalBytes();
+                attempts[i] = requestProgress.getAttempts();
+                bytesExtracted[i] = requestProgress.getBytesExtracted();
+            }
+            extras.putStringArray(BatchDownload.EXTRA_REQUEST_URLS, urls);
+            extras.putLongArray(BatchDownload.EXTRA_REQUEST_BYTES_DOWNLOADED, bytesDownloaded);
+            extras.putLongArray(BatchDownload.EXTRA_REQUEST_TOTAL_BYTES, totalBytes);
+            extras.putIntArray(BatchDownload.EXTRA_REQUEST_ATTEMPTS, attempts);
+            extras.putLongArray(BatchDownload.EXTRA_REQUEST_BYTES_EXTRACTED, bytesExtracted);
+        }
+        Intent intent = new Intent(type);
+        intent.putExtras(extras);
+        bm.sendBroadcast(intent);
+    }
+}
@@ -0,0 +1,531 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Unpacks a zip, tar or tar.gz archive while it is still being downloaded. The archive is read from the data file
+// as it grows, on a thread of its own, so decompression overlaps with the network and the bytes are usually still
+// in the page cache when they are read. The format is detected from the first bytes of the archive.
+final class ArchiveExtractor implements Runnable {
+    private final static int BUFFER_SIZE = 16 * 1024;
+    private final static int TAR_BLOCK_SIZE = 512;
+
+    // Tar entry types
+    private final static byte TAR_FILE = '0';
+    private final static byte TAR_FILE_OLD = 0;
+    private final static byte TAR_CONTIGUOUS_FILE = '7';
+    private final static byte TAR_DIRECTORY = '5';
+    private final static byte TAR_GNU_LONG_NAME = 'L';
+    private final static byte TAR_PAX_HEADER = 'x';
+
+    private final File source;
+    private final File folder;
+
+    // Bytes of the source written so far and whether it is complete. Guarded by this.
+    private long available = 0;
+    private boolean complete = false;
+    private boolean aborted = false;
+    private boolean done = false;
+    private Exception error = null;
+
+    private volatile long bytesRead = 0;
+    private volatile int entries = 0;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    ArchiveExtractor(File source, File folder) {
+        this.source = source;
+        this.folder = folder;
+    }
+
+
+    /**
+     * Download Side
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Tells the extractor the first length bytes of the source are written
+    synchronized void written(long length) {
+        available = length;
+        notifyAll();
+    }
+
+
+    // Tells the extractor the source is complete at length bytes
+    synchronized void complete(long length) {
+        available = length;
+        complete = true;
+        notifyAll();
+    }
+
+
+    // Stops the extraction. Entries already written are left in place.
+    synchronized void abort() {
+        aborted = true;
+        notifyAll();
+    }
+
+
+    // Waits for the extraction to finish, throwing the error that stopped it
+    void await() throws Exception {
+        synchronized (this) {
+            while (!done) {
+                wait();
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+
+    // Returns the number of archive bytes read so far
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+
+    // Returns the number of entries extracted so far
+    int getEntries() {
+        return entries;
+    }
+
+
+    /**
+     * Extraction
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public void run() {
+        Exception error = null;
+        InputStream in = null;
+        try {
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Could not create " + folder + ".");
+            }
+            in = new BufferedInputStream(new GrowingFileInputStream(), BUFFER_SIZE);
+            extract(in);
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            Utils.closeQuietly(in);
+            synchronized (this) {
+                this.error = error;
+                done = true;
+                notifyAll();
+            }
+        }
+    }
+
+
+    // Detects the format of an archive and extracts it
+    private void extract(InputStream in) throws IOException {
+        byte[] magic = peek(in, 4);
+        if (magic.length >= 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+            extractZip(in);
+        } else if (magic.length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+            extractTar(new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE));
+        } else {
+            extractTar(in);
+        }
+    }
+
+
+    private void extractZip(InputStream in) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            File target = resolve(entry.getName());
+            if (entry.isDirectory()) {
+                makeDirectory(target);
+            } else {
+                write(zip, target, -1);
+            }
+            entries++;
+        }
+    }
+
+
+    // Reads ustar and GNU tar archives, including long names from GNU and pax headers. Links and special files are
+    // skipped.
+    private void extractTar(InputStream in) throws IOException {
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        String longName = null;
+        boolean first = true;
+        while (true) {
+            if (!readBlock(in, header)) {
+                if (first) {
+                    throw new IOException("Unsupported archive format.");
+                }
+                return;
+            }
+
+            // Two empty blocks mark the end of the archive. One is enough to stop.
+            if (isEmpty(header)) {
+                return;
+            }
+            if (!hasValidChecksum(header)) {
+                throw new IOException(first ? "Unsupported archive format." : "Corrupt tar header.");
+            }
+            first = false;
+
+            byte type = header[156];
+            long size = parseNumber(header, 124, 12);
+            long padding = (TAR_BLOCK_SIZE - (size % TAR_BLOCK_SIZE)) % TAR_BLOCK_SIZE;
+
+            if (type == TAR_GNU_LONG_NAME) {
+                longName = trimNul(new String(readFully(in, size), "UTF-8"));
+                skip(in, padding);
+                continue;
+            }
+            if (type == TAR_PAX_HEADER) {
+                String path = parsePaxPath(readFully(in, size));
+                if (path != null) {
+                    longName = path;
+                }
+                skip(in, padding);
+                continue;
+            }
+
+            String name = (longName != null) ? longName : parseName(header);
+            longName = null;
+            if (type == TAR_FILE || type == TAR_FILE_OLD || type == TAR_CONTIGUOUS_FILE) {
+                write(in, resolve(name), size);
+                entries++;
+            } else if (type == TAR_DIRECTORY) {
+                makeDirectory(resolve(name));
+                entries++;
+            } else {
+                skip(in, size);
+            }
+            skip(in, padding);
+        }
+    }
+
+
+    /**
+     * Helpers
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns the file an entry is extracted to, refusing names that would escape the folder. An entry for the folder
+    // itself, like the "./" many tar archives start with, is allowed.
+    private File resolve(String name) throws IOException {
+        File target = new File(folder, name);
+        String root = folder.getCanonicalPath();
+        String path = target.getCanonicalPath();
+        if (!path.equals(root) && !path.startsWith(root + File.separator)) {
+            throw new IOException("Archive entry is outside the extract folder: " + name);
+        }
+        return target;
+    }
+
+
+    private static void makeDirectory(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory + ".");
+        }
+    }
+
+
+    // Writes length bytes of an entry to a file, or everything up to the end of the stream if length is -1
+    private static void write(InputStream in, File target, long length) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null) {
+            makeDirectory(parent);
+        }
+        OutputStream os = new FileOutputStream(target);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            while (length < 0 || remaining > 0) {
+                int max = (length < 0) ? buffer.length : (int) Math.min(buffer.length, remaining);
+                int bytesRead = in.read(buffer, 0, max);
+                if (bytesRead == -1) {
+                    if (length < 0) {
+                        break;
+                    }
+                    throw new EOFException("Archive entry is truncated: " + target.getName());
+                }
+                os.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+        } finally {
+            Utils.closeQuietly(os);
+        }
+    }
+
+
+    // Returns up to length bytes from the start of a stream without consuming them
+    private static byte[] peek(InputStream in, int length) throws IOException {
+        in.mark(length);
+        byte[] bytes = new byte[length];
+        int count = 0;
+        int bytesRead;
+        while (count < length && (bytesRead = in.read(bytes, count, length - count)) != -1) {
+            count += bytesRead;
+        }
+        in.reset();
+        if (count == length) {
+            return bytes;
+        }
+        byte[] shorter = new byte[count];
+        System.arraycopy(bytes, 0, shorter, 0, count);
+        return shorter;
+    }
+
+
+    // Reads one tar block, returning false at the end of the stream
+    private static boolean readBlock(InputStream in, byte[] block) throws IOException {
+        int count = 0;
+        int bytesRead;
+        while (count < block.length && (bytesRead = in.read(block, count, block.length - count)) != -1) {
+            count += bytesRead;
+        }
+        if (count == 0) {
+            return false;
+        }
+        if (count < block.length) {
+            throw new EOFException("Tar archive is truncated.");
+        }
+        return true;
+    }
+
+
+    private static byte[] readFully(InputStream in, long length) throws IOException {
+        if (length < 0 || length > BUFFER_SIZE * 4) {
+            throw new IOException("Tar header is too large.");
+        }
+        byte[] bytes = new byte[(int) length];
+        int count = 0;
+        while (count < bytes.length) {
+            int bytesRead = in.read(bytes, count, bytes.length - count);
+            if (bytesRead == -1) {
+                throw new EOFException("Tar archive is truncated.");
+            }
+            count += bytesRead;
+        }
+        return bytes;
+    }
+
+
+    private static void skip(InputStream in, long length) throws IOException {
+        byte[] buffer = null;
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                // Some streams can not skip, so read instead
+                if (buffer == null) {
+                    buffer = new byte[BUFFER_SIZE];
+                }
+                int bytesRead = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                if (bytesRead == -1) {
+                    throw new EOFException("Tar archive is truncated.");
+                }
+                skipped = bytesRead;
+            }
+            length -= skipped;
+        }
+    }
+
+
+    private static boolean isEmpty(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    // Checks the header checksum, which is the sum of the header bytes with the checksum field read as spaces
+    private static boolean hasValidChecksum(byte[] header) {
+        long expected;
+        try {
+            expected = parseNumber(header, 148, 8);
+        } catch (IOException e) {
+            return false;
+        }
+        long sum = 0;
+        for (int i = 0; i < header.length; i++) {
+            sum += (i >= 148 && i < 156) ? ' ' : (header[i] & 0xFF);
+        }
+        return sum == expected;
+    }
+
+
+    // Parses a numeric header field written in octal, or in base-256 when the high bit of the first byte is set
+    private static long parseNumber(byte[] header, int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value == 0) {
+                    continue;
+                }
+                break;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Corrupt tar header.");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+
+    // Returns the name of a tar entry, joining the ustar prefix if there is one
+    private static String parseName(byte[] header) throws IOException {
+        String name = parseString(header, 0, 100);
+        boolean ustar = header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r';
+        if (ustar) {
+            String prefix = parseString(header, 345, 155);
+            if (prefix.length() > 0) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+
+    private static String parseString(byte[] header, int offset, int length) throws IOException {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, "UTF-8");
+    }
+
+
+    // Finds the path in the records of a pax header. Each record is "<length> <key>=<value>\n".
+    private static String parsePaxPath(byte[] records) throws IOException {
+        int position = 0;
+        while (position < records.length) {
+            int space = position;
+            while (space < records.length && records[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(records, position, space - position, "UTF-8"));
+            } catch (NumberFormatException e) {
+                throw new IOException("Corrupt pax header.");
+            }
+            if (length <= 0 || position + length > records.length) {
+                throw new IOException("Corrupt pax header.");
+            }
+            String record = new String(records, space + 1, position + length - space - 2, "UTF-8");
+            if (record.startsWith("path=")) {
+                return record.substring(5);
+            }
+            position += length;
+        }
+        return null;
+    }
+
+
+    private static String trimNul(String value) {
+        int end = value.indexOf('\0');
+        return (end >= 0) ? value.substring(0, end) : value;
+    }
+
+
+    // Reads the source as it is written, blocking until more bytes arrive or the source is complete
+    private class GrowingFileInputStream extends InputStream {
+        private RandomAccessFile file = null;
+        private long position = 0;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long end;
+            synchronized (ArchiveExtractor.this) {
+                while (position >= available && !complete && !aborted) {
+                    try {
+                        ArchiveExtractor.this.wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (aborted) {
+                    throw new InterruptedIOException("Extraction aborted.");
+                }
+                end = available;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            if (file == null) {
+                file = new RandomAccessFile(source, "r");
+            }
+            file.seek(position);
+            int bytesRead = file.read(buffer, offset, (int) Math.min(length, end - position));
+            if (bytesRead > 0) {
+                position += bytesRead;
+                ArchiveExtractor.this.bytesRead = position;
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,2801 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+// Class for downloading files concurrently on multiple threads. The engine is plain Java; on Android it is set up
+// through AndroidBatchDownload, which adds main thread delivery and the broadcasts.
+public class BatchDownload {
+    // Misc variables
+    private final StripedCounter total_downloaded = new StripedCounter();
+    private final StripedCounter total_decoded = new StripedCounter();
+    private final StripedCounter total_bytes = new StripedCounter();
+    private final AtomicInteger error_count = new AtomicInteger();
+    private final AtomicInteger files_remaining = new AtomicInteger();
+    final Set<Request> activeRequests = Collections.newSetFromMap(new ConcurrentHashMap<Request, Boolean>());
+    private final Set<Request> retrying = Collections.newSetFromMap(new ConcurrentHashMap<Request, Boolean>());
+    private final Set<Batch> batches = Collections.newSetFromMap(new ConcurrentHashMap<Batch, Boolean>());
+
+    // Destination paths of the requests being downloaded. Only requests for the same url may share a path.
+    private final Map<String, List<Request>> claimedDestinations = new HashMap<String, List<Request>>();
+    private final AtomicInteger nextBatchId = new AtomicInteger();
+
+    // Runs the progress updates, retry backoffs and listener timing on one thread
+    private final ScheduledThreadPoolExecutor progressExecutor = new ScheduledThreadPoolExecutor(1, Threads.factory("BatchDownload-progress", false));
+    private final EventDispatcher dispatcher = new EventDispatcher(this, progressExecutor);
+    private volatile Executor callbackExecutor = progressExecutor;
+    private DownloadListener broadcastListener = null;
+    private boolean broadcastsEnabled = true;
+
+    // File/folder variables
+    private static String CACHE_PATH;
+    private static String DEFAULT_PATH;
+    static File cache;
+    private Journal journal;
+    volatile DownloadCache downloadCache = null;
+
+    // Thread pool/work queue variables
+    final DownloadQueue downloadWorkQueue;
+    private final BlockingQueue<Runnable> sizeWorkQueue;
+    final DownloaderThreadPoolExecutor downloadThreadPool;
+    private final SizeCalculatorThreadPoolExecutor sizeThreadPool;
+
+    // Archives are extracted on threads of their own while their download threads keep writing
+    private final ThreadPoolExecutor extractThreadPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), Threads.factory("BatchDownload-extract", false));
+
+    // Stopped requests are interrupted on threads of their own. Closing a connection that is blocked in a read can
+    // wait for the read to return, which must not hold up the thread that cancelled or paused.
+    private final ThreadPoolExecutor stopThreadPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_TIME, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), Threads.factory("BatchDownload-stop", false));
+    private final static int CORE_POOL_SIZE = 4;
+    private final static int MAX_POOL_SIZE = 5;
+    private final static int KEEP_ALIVE_TIME = 10;
+    volatile Config config = new Config.Builder().build();
+    private volatile ConcurrencyController concurrencyController = null;
+    private volatile boolean cancelling = false;
+    private final RateLimiter rateLimiter = new RateLimiter(0);
+    private final ConcurrentHashMap<String, RateLimiter> hostRateLimiters = new ConcurrentHashMap<String, RateLimiter>();
+    private final ThroughputMeter throughput = new ThroughputMeter();
+    private final static int PROGRESS_INTERVAL = 32;
+    private final static int HOUSEKEEPING_INTERVAL = 500;
+    private final static int MIN_LISTENER_INTERVAL = 16;
+    private final static int DEFAULT_LISTENER_INTERVAL = 100;
+    private final static int JOURNAL_SYNC_INTERVAL = 1000;
+    private long lastJournalSync = 0;
+    final static int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    final static long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private volatile long segmentThreshold = 0;
+    volatile int segmentCount = CORE_POOL_SIZE;
+    private final static int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    final static long TRANSFER_CANCELLED = -1;
+    volatile Transport transport = new UrlConnectionTransport(config.connectTimeout, config.readTimeout);
+    private volatile boolean customTransport = false;
+    private volatile BufferPool bufferPool = new BufferPool(DEFAULT_BUFFER_SIZE, config.getMaxThreads());
+
+    // Null while metrics are disabled, so the download path only reads this field
+    volatile MetricsRecorder metrics = null;
+    private ScheduledFuture<?> metricsExport = null;
+    private boolean sizeCalculated = false;
+
+    // Requests whose Constraints are not met wait in deferred until the device state changes. Changes are let settle
+    // for CONSTRAINT_SETTLE_DELAY so a flapping network does not start and stop the downloads, then every request
+    // that may run is queued in one go.
+    private volatile DeviceState deviceState = null;
+    private volatile boolean deviceMetered = false;
+    private final List<Request> deferred = new ArrayList<Request>();
+    private final AtomicBoolean releasePending = new AtomicBoolean();
+    private final static int CONSTRAINT_SETTLE_DELAY = 2000;
+    private final DeviceState.Listener deviceStateListener = new DeviceState.Listener() {
+        @Override
+        public void onDeviceStateChanged() {
+            progressExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    evaluateConstraints();
+                }
+            });
+        }
+    };
+
+    // Broadcast Intent Actions
+    public final static String ACTION_CALCULATING = "com.ryanmitchener.batchdownload.ACTION_CALCULATING";
+    public final static String ACTION_PROGRESS = "com.ryanmitchener.batchdownload.ACTION_PROGRESS";
+    public final static String ACTION_ERROR = "com.ryanmitchener.batchdownload.ACTION_ERROR";
+    public final static String ACTION_FILE_DOWNLOADED = "com.ryanmitchener.batchdownload.ACTION_FILE_DOWNLOADED";
+    public final static String ACTION_COMPLETE = "com.ryanmitchener.batchdownload.ACTION_COMPLETE";
+    public final static String ACTION_CANCELLED = "com.ryanmitchener.batchdownload.ACTION_CANCELLED";
+    public final static String ACTION_BATCH_COMPLETE = "com.ryanmitchener.batchdownload.ACTION_BATCH_COMPLETE";
+    public final static String ACTION_BATCH_CANCELLED = "com.ryanmitchener.batchdownload.ACTION_BATCH_CANCELLED";
+
+    // Broadcast Intent extras
+    public final static String EXTRA_BYTES_DOWNLOADED = "com.ryanmitchener.batchdownload.EXTRA_TOTAL_DOWNLOADED";
+    public final static String EXTRA_TOTAL_BYTES = "com.ryanmitchener.batchdownload.EXTRA_TOTAL_BYTES";
+    public final static String EXTRA_BYTES_DECODED = "com.ryanmitchener.batchdownload.EXTRA_BYTES_DECODED";
+    public final static String EXTRA_ERROR_COUNT = "com.ryanmitchener.batchdownload.EXTRA_ERROR_COUNT";
+    public final static String EXTRA_FILES_REMAINING = "com.ryanmitchener.batchdownload.FILES_REMAINING";
+    public final static String EXTRA_CONCURRENCY = "com.ryanmitchener.batchdownload.EXTRA_CONCURRENCY";
+    public final static String EXTRA_BYTES_PER_SECOND = "com.ryanmitchener.batchdownload.EXTRA_BYTES_PER_SECOND";
+    public final static String EXTRA_RATE_LIMIT = "com.ryanmitchener.batchdownload.EXTRA_RATE_LIMIT";
+    public final static String EXTRA_FILENAME = "com.ryanmitchener.batchdownload.EXTRA_FILENAME";  // Only available in ACTION_FILE_DOWNLOADED
+    public final static String EXTRA_FILEPATH = "com.ryanmitchener.batchdownload.EXTRA_FILEPATH";  // Only available in ACTION_FILE_DOWNLOADED
+    public final static String EXTRA_ERROR_URL = "com.ryanmitchener.batchdownload.EXTRA_ERROR_URL";  // Only available in ACTION_ERROR
+    public final static String EXTRA_ATTEMPTS = "com.ryanmitchener.batchdownload.EXTRA_ATTEMPTS";  // Only available in ACTION_ERROR
+    public final static String EXTRA_REQUEST_URLS = "com.ryanmitchener.batchdownload.EXTRA_REQUEST_URLS";  // Only available in ACTION_PROGRESS
+    public final static String EXTRA_REQUEST_BYTES_DOWNLOADED = "com.ryanmitchener.batchdownload.EXTRA_REQUEST_BYTES_DOWNLOADED";  // Only available in ACTION_PROGRESS
+    public final static String EXTRA_REQUEST_TOTAL_BYTES = "com.ryanmitchener.batchdownload.EXTRA_REQUEST_TOTAL_BYTES";  // Only available in ACTION_PROGRESS
+    public final static String EXTRA_REQUEST_ATTEMPTS = "com.ryanmitchener.batchdownload.EXTRA_REQUEST_ATTEMPTS";  // Only available in ACTION_PROGRESS
+    public final static String EXTRA_REQUEST_BYTES_EXTRACTED = "com.ryanmitchener.batchdownload.EXTRA_REQUEST_BYTES_EXTRACTED";  // Only available in ACTION_PROGRESS
+    public final static String EXTRA_BATCH_ID = "com.ryanmitchener.batchdownload.EXTRA_BATCH_ID";  // Only available in ACTION_FILE_DOWNLOADED, ACTION_ERROR and the ACTION_BATCH actions
+
+    // Create Singleton pattern
+    private final static BatchDownload sInstance = new BatchDownload();
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Constructor width list of DownloadRequests
+    private BatchDownload() {
+        this.downloadWorkQueue = new DownloadQueue();
+        this.downloadWorkQueue.setMaxPerHost(config.maxConnectionsPerHost);
+        this.downloadWorkQueue.setSmallestFirst(config.smallestFirst);
+        this.downloadThreadPool = new DownloaderThreadPoolExecutor(config.corePoolSize, config.getMaxThreads(), config.keepAliveTime, TimeUnit.SECONDS, downloadWorkQueue);
+        this.sizeWorkQueue = new LinkedBlockingQueue<Runnable>();
+        this.sizeThreadPool = new SizeCalculatorThreadPoolExecutor(config.corePoolSize, config.maxPoolSize, config.keepAliveTime, TimeUnit.SECONDS, sizeWorkQueue);
+        updateThreadFactories();
+    }
+
+
+    // Singleton pattern instance. The first call sets the folder that holds the cache, the journal and downloads
+    // without a download folder; later calls return the same instance and ignore it. On Android use
+    // AndroidBatchDownload.getInstance(context) instead.
+    public static synchronized BatchDownload getInstance(File folder) {
+        // If BatchDownload hasn't been initialized, initialize it.
+        if (DEFAULT_PATH == null) {
+            // Create the cache directory
+            DEFAULT_PATH = folder.getAbsolutePath() + "/";
+            CACHE_PATH = DEFAULT_PATH + "com.ryanmitchener.batchdownload.cache/";
+            cache = new File(CACHE_PATH);
+            sInstance.journal = new Journal(new File(DEFAULT_PATH + "com.ryanmitchener.batchdownload.journal"));
+            sInstance.updateDownloadCache();
+
+            if (!cache.exists()) {
+                cache.mkdirs();
+            }
+        }
+
+        // Return singleton
+        return sInstance;
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Add a request as a batch of its own
+    public Batch add(Request request) {
+        ArrayList<Request> requests = new ArrayList<Request>(1);
+        requests.add(request);
+        return add(requests);
+    }
+
+
+    // Add a list of requests as one batch. Every batch shares the same download threads.
+    public Batch add(ArrayList<Request> requests) {
+        // Send calculating size broadcast
+        if (!isRunning()) {
+            dispatcher.post(DownloadEvent.calculating());
+        }
+
+        // So we don't post additional runnables when progress updater is already running
+        boolean alreadyRunning = isRunning();
+
+        // Populate thread pool
+        Batch batch = new Batch(nextBatchId.incrementAndGet());
+        batch.requests.addAll(requests);
+        batch.remaining.set(requests.size());
+        batches.add(batch);
+        files_remaining.addAndGet(requests.size());
+        for (Request request : requests) {
+            request.batch = batch;
+            enqueue(request);
+        }
+        syncJournal(true);
+
+        // Start progress updater
+        if (!alreadyRunning) {
+            progressExecutor.execute(new ProgressUpdateTask());
+        }
+
+        // An empty batch is complete straight away
+        batch.checkFinished();
+        return batch;
+    }
+
+
+    // Add requests pulled lazily from an iterator as one batch. At most window requests are queued, running or
+    // paused at a time and the next ones are pulled as earlier ones finish, so memory stays flat however long the
+    // iterator is. The iterator is read by one thread at a time, first the caller and then the download threads, and
+    // is closed once it runs out if it is Closeable. Progress only counts the requests pulled so far, and restore()
+    // brings back the pulled requests that had not finished rather than the rest of the iterator. An exception
+    // thrown by the iterator is sent with ACTION_ERROR and ends the batch once the pulled requests are done.
+    public Batch add(Iterator<Request> requests, int window) {
+        checkWindow(window);
+
+        // Send calculating size broadcast
+        if (!isRunning()) {
+            dispatcher.post(DownloadEvent.calculating());
+        }
+        boolean alreadyRunning = isRunning();
+
+        // The first window is pulled straight away and the rest as requests finish
+        Batch batch = new Batch(nextBatchId.incrementAndGet(), new RequestStream(requests, window));
+        batches.add(batch);
+        batch.checkFinished();
+        syncJournal(true);
+
+        // Start progress updater
+        if (!alreadyRunning) {
+            progressExecutor.execute(new ProgressUpdateTask());
+        }
+        return batch;
+    }
+
+
+    // Streams a manifest file as one batch, pulling at most window requests at a time like add(Iterator, int).
+    // Each line is a url or a JSON object like {"url": "...", "filename": "a", "folder": "/path", "priority": 1,
+    // "size": 1024, "sha256": "...", "extract": "/path"} where only "url" is required and "md5" or "crc32c" may be
+    // given instead of "sha256". Requests without a folder go to downloadFolder, or the default folder if it is null.
+    // Blank lines and lines starting with # are skipped and a line that can not be read is sent with ACTION_ERROR.
+    public Batch addManifest(File manifest, File downloadFolder, int window) throws IOException {
+        checkWindow(window);
+        return add(new ManifestReader(manifest, downloadFolder), window);
+    }
+
+
+    private static void checkWindow(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("The window must hold at least one request.");
+        }
+    }
+
+
+    // Pulls requests from the stream of a batch until its window is full or the stream runs out. Pulling stops for
+    // good once the batch is cancelled and until it is resumed while it is paused.
+    private void feed(Batch batch) {
+        RequestStream stream = batch.stream;
+        if (!stream.startFeeding()) {
+            return;
+        }
+        int handled = 1;
+        do {
+            pull(batch);
+            handled = stream.stopFeeding(handled);
+        } while (handled != 0);
+    }
+
+
+    // One round of feed()
+    private void pull(Batch batch) {
+        RequestStream stream = batch.stream;
+        while (!batch.paused) {
+            if (batch.cancelled) {
+                stream.close();
+                return;
+            }
+
+            Request request;
+            try {
+                request = stream.next();
+            } catch (ManifestReader.MalformedLineException e) {
+                // Only this line is lost. The event names its url, or its line if no url could be read from it.
+                String url = e.getUrl();
+                reportStreamError(batch, (url != null) ? url : "line " + e.getLineNumber(), e);
+                continue;
+            } catch (RuntimeException e) {
+                stream.close();
+                reportStreamError(batch, null, e);
+                return;
+            }
+            if (request == null) {
+                return;
+            }
+
+            // Counted before it is queued so the batch can not finish in between
+            request.batch = batch;
+            batch.remaining.incrementAndGet();
+            files_remaining.incrementAndGet();
+            enqueue(request);
+        }
+    }
+
+
+    // Counts an entry a stream could not turn into a request and sends the ERROR broadcast
+    private void reportStreamError(Batch batch, String url, Exception e) {
+        error_count.incrementAndGet();
+        batch.errors.incrementAndGet();
+        dispatcher.post(DownloadEvent.error(batch.id, url, 0, e));
+        e.printStackTrace();
+    }
+
+
+    // Queues the download of a request along with the HEAD request for its size if one is needed
+    private void enqueue(Request request) {
+        // Journal the request so the batch can be restored if the process is killed. Restored requests keep their id.
+        Config config = this.config;
+        if (config.journal && request.journalId == 0) {
+            try {
+                String folder = (request.downloadFolder != null) ? request.downloadFolder.getAbsolutePath() : null;
+                request.journalId = journal.add(request.url, request.filename, folder, request.priority);
+                if (request.expectedSize >= 0 || request.checksumAlgorithm != null) {
+                    journal.verification(request.journalId, request.expectedSize, request.checksumAlgorithm, request.expectedChecksum);
+                }
+                if (request.extractFolder != null) {
+                    journal.extraction(request.journalId, request.extractFolder.getAbsolutePath());
+                }
+                Constraints constraints = request.getEffectiveConstraints();
+                if (constraints != null) {
+                    journalConstraints(request, constraints);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // A url that is already queued in this batch is fetched once and copied to every destination
+        request.finished.set(false);
+        if (addDuplicate(request)) {
+            return;
+        }
+
+        request.started = false;
+        request.attempts.set(0);
+        request.sizeCounted.set(false);
+        schedule(request);
+
+        // When sizes come from the GET responses only a limited number of queued requests of each batch are
+        // prefetched with HEAD
+        if (!config.sizeFromResponse || request.batch.headRequests.incrementAndGet() <= config.headPrefetch) {
+            sizeThreadPool.execute(new SizeCalculateTask(this, request));
+        }
+    }
+
+
+    // Queues the download task of a request, or defers it if its constraints are not met
+    private void schedule(Request request) {
+        if (!meetsConstraints(request)) {
+            defer(request);
+            return;
+        }
+        request.held = false;
+        request.queuedAt = (metrics != null) ? System.nanoTime() : 0;
+        request.queuedTask = new DownloaderTask(this, request);
+        downloadThreadPool.execute(request.queuedTask);
+    }
+
+
+    // Attaches a request to the queued request for the same url. Returns false if no other request has that url.
+    private boolean addDuplicate(Request request) {
+        Map<String, Request> inFlight = request.batch.inFlight;
+        synchronized (inFlight) {
+            Request primary = inFlight.get(request.url);
+            if (primary == null) {
+                inFlight.put(request.url, request);
+                return false;
+            }
+            primary.duplicates.add(request);
+            return true;
+        }
+    }
+
+
+    // Removes a finished request from the queued urls and returns the requests that were waiting on it
+    private List<Request> takeDuplicates(Request request) {
+        Map<String, Request> inFlight = request.batch.inFlight;
+        synchronized (inFlight) {
+            if (inFlight.get(request.url) == request) {
+                inFlight.remove(request.url);
+            }
+            List<Request> duplicates = request.duplicates;
+            request.duplicates = new ArrayList<Request>();
+            return duplicates;
+        }
+    }
+
+
+    // Adds the size of a request to the total the first time it is learned from either the HEAD or the GET response
+    void countSize(Request request) {
+        long length = request.contentLength;
+        if (length > 0 && request.sizeCounted.compareAndSet(false, true)) {
+            total_bytes.add(length);
+            request.batch.totalBytes.add(length);
+        }
+    }
+
+
+    // Checks if a batch was interrupted before it finished, for example because the process was killed
+    public boolean hasPendingBatch() {
+        File file = journal.getFile();
+        return file.exists() && file.length() > 0;
+    }
+
+
+    // Adds the unfinished requests of a batch that was interrupted before it finished. Files that were partly
+    // downloaded continue where they stopped. Returns the restored batch or null if there was nothing to restore.
+    public Batch restore() {
+        List<Journal.Entry> entries;
+        try {
+            entries = journal.restore();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+
+        ArrayList<Request> requests = new ArrayList<Request>(entries.size());
+        for (Journal.Entry entry : entries) {
+            File folder = (entry.downloadFolder != null) ? new File(entry.downloadFolder) : null;
+            Request request = new Request(entry.url, entry.filename, folder);
+            request.priority = entry.priority;
+            request.journalId = entry.id;
+            request.expectedSize = entry.expectedSize;
+            request.setExpectedChecksum(entry.checksumAlgorithm, entry.expectedChecksum);
+            if (entry.extractFolder != null) {
+                request.extractFolder = new File(entry.extractFolder);
+            }
+            if (entry.constrained) {
+                request.constraints = new Constraints.Builder()
+                        .setUnmeteredOnly(entry.unmeteredOnly)
+                        .setChargingOnly(entry.chargingOnly)
+                        .setMinBatteryLevel(entry.minBatteryLevel)
+                        .setMaxMeteredBytes(entry.maxMeteredBytes)
+                        .build();
+            }
+            requests.add(request);
+        }
+        return add(requests);
+    }
+
+
+    // Records the progress of running requests and forces the journal to disk. Unless forced this happens at most
+    // once per JOURNAL_SYNC_INTERVAL so the fsyncs are batched.
+    private void syncJournal(boolean force) {
+        long now = System.currentTimeMillis();
+        if (journal == null || (!force && now - lastJournalSync < JOURNAL_SYNC_INTERVAL)) {
+            return;
+        }
+        lastJournalSync = now;
+        try {
+            for (Request request : activeRequests) {
+                long bytes = request.bytesDownloaded.get();
+                if (request.journalId != 0 && bytes != request.journaledBytes) {
+                    journal.progress(request.journalId, bytes);
+                    request.journaledBytes = bytes;
+                }
+            }
+            journal.sync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    // Changes the priority of a request. Requests with a higher priority are downloaded first.
+    // Returns true if the request was still waiting in the queue and has been moved.
+    public boolean setPriority(Request request, int priority) {
+        request.priority = priority;
+        DownloadQueue.Task task = request.queuedTask;
+        return task != null && downloadWorkQueue.update(task, priority, request.contentLength);
+    }
+
+
+    // Moves a queued request to the front of the queue
+    public boolean bump(Request request) {
+        return setPriority(request, Request.PRIORITY_HIGHEST);
+    }
+
+
+    // Cancels a single request. A queued request is dropped and a running one is interrupted, leaving the other
+    // requests and the threads alone. Requests for the same url in the batch are cancelled with it.
+    // Returns false if the request was not added or has already finished.
+    public boolean cancel(Request request) {
+        if (request.batch == null || request.finished.get()) {
+            return false;
+        }
+        request.cancelled = true;
+        if (!removeDuplicate(request)) {
+            stop(request);
+        }
+        checkIdle(0);
+        return true;
+    }
+
+
+    // Cancels a batch. Its queued requests are dropped and its running requests are interrupted while the other
+    // batches carry on. Sends ACTION_BATCH_CANCELLED once every request of the batch has stopped.
+    private void cancel(Batch batch) {
+        if (batch.cancelled) {
+            return;
+        }
+        batch.cancelled = true;
+        for (Request request : batch.getRequests()) {
+            stop(request);
+        }
+        for (Request request : batch.takeParked()) {
+            onCancelled(request);
+        }
+        batch.checkFinished();
+    }
+
+
+    // Cancels every batch. The threads are kept for the next batch. Sends ACTION_CANCELLED once every running
+    // request has stopped.
+    public void cancel() {
+        cancelling = true;
+        sizeWorkQueue.clear();
+        for (Batch batch : batches) {
+            cancel(batch);
+        }
+        checkIdle(0);
+    }
+
+
+    // Pauses a batch. Its queued requests are put aside and its running requests are interrupted, keeping their
+    // partial files so they continue where they stopped when the batch is resumed.
+    private void pause(Batch batch) {
+        synchronized (batch.parked) {
+            if (batch.paused || batch.cancelled) {
+                return;
+            }
+            batch.paused = true;
+        }
+        for (Request request : batch.getRequests()) {
+            stop(request);
+        }
+    }
+
+
+    // Queues the requests of a paused batch again
+    private void resume(Batch batch) {
+        List<Request> parked;
+        synchronized (batch.parked) {
+            if (!batch.paused) {
+                return;
+            }
+            batch.paused = false;
+            parked = batch.takeParked();
+        }
+
+        // Start progress updater if the pool went idle while the batch was paused
+        if (!isRunning()) {
+            progressExecutor.execute(new ProgressUpdateTask());
+        }
+        for (Request request : parked) {
+            schedule(request);
+        }
+
+        // A streamed batch goes on pulling
+        batch.checkFinished();
+    }
+
+
+    // Takes a request out of the queue or interrupts the threads working on it. Interrupted requests are handled
+    // by onStopped() once their task notices.
+    private void stop(Request request) {
+        DownloadQueue.Task task = request.queuedTask;
+        boolean parked;
+        synchronized (request.batch.parked) {
+            parked = request.batch.parked.remove(request);
+        }
+        synchronized (deferred) {
+            parked |= deferred.remove(request);
+        }
+        if (parked || retrying.remove(request) || (task != null && downloadWorkQueue.remove(task))) {
+            onStopped(request);
+        } else {
+            interrupt(request);
+        }
+    }
+
+
+    // Interrupts the threads working on a request without waiting for them to notice
+    private void interrupt(final Request request) {
+        stopThreadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                request.interruptWorkers();
+            }
+        });
+    }
+
+
+    // Handles a request whose task was stopped by a cancel, a pause or its constraints no longer being met
+    void onStopped(Request request) {
+        if (request.isCancelled()) {
+            onCancelled(request);
+        } else {
+            park(request);
+        }
+    }
+
+
+    // Stops counting a cancelled request along with the duplicates of its url. A cancelled request is never continued,
+    // so its partial file is thrown away.
+    private void onCancelled(Request request) {
+        PartialDownload partial = request.partial;
+        if (partial != null) {
+            partial.reset();
+        }
+        finishRequest(request);
+        journalOutcome(request, false);
+        for (Request duplicate : takeDuplicates(request)) {
+            finishRequest(duplicate);
+            journalOutcome(duplicate, false);
+        }
+        request.batch.checkFinished();
+    }
+
+
+    // Puts a request of a paused batch aside until the batch is resumed. Its bytes are uncounted because they
+    // are counted again from the partial file when it continues. Queues it again if the batch was already resumed.
+    private void park(Request request) {
+        uncount(request);
+        releaseDestination(request);
+        Batch batch = request.batch;
+        synchronized (batch.parked) {
+            if (batch.paused) {
+                batch.parked.add(request);
+                return;
+            }
+        }
+        schedule(request);
+    }
+
+
+    // Takes a request that stopped before finishing out of the progress. The next attempt counts its partial file again.
+    private void uncount(Request request) {
+        // A retried request is uncounted before it stops again, so only the first call takes its bytes off
+        if (!activeRequests.remove(request)) {
+            return;
+        }
+        addDownloaded(request, -request.bytesDownloaded.get());
+        addDecoded(request, -request.bytesDecoded.get());
+    }
+
+
+    // Removes a request waiting on another request for the same url. Returns false if it is not waiting.
+    private boolean removeDuplicate(Request request) {
+        Map<String, Request> inFlight = request.batch.inFlight;
+        synchronized (inFlight) {
+            Request primary = inFlight.get(request.url);
+            if (primary == null || primary == request || !primary.duplicates.remove(request)) {
+                return false;
+            }
+        }
+        finishRequest(request);
+        journalOutcome(request, false);
+        request.batch.checkFinished();
+        return true;
+    }
+
+
+    // Sends ACTION_COMPLETE, or ACTION_CANCELLED after cancel(), and resets the counters once nothing is queued,
+    // paused, deferred or running other than the given number of tasks
+    private void checkIdle(int running) {
+        if (downloadThreadPool.getActiveCount() != running || !downloadWorkQueue.isEmpty() || !retrying.isEmpty()) {
+            return;
+        }
+        synchronized (deferred) {
+            if (!deferred.isEmpty()) {
+                return;
+            }
+        }
+        for (Batch batch : batches) {
+            if (batch.paused && !batch.cancelled) {
+                return;
+            }
+        }
+        boolean cancelled = cancelling;
+        cancelling = false;
+        resetVars();
+        dispatcher.post(DownloadEvent.finished(cancelled, getProgress()));
+    }
+
+
+    // Downloads files of at least thresholdBytes over several connections at once. Pass 0 to disable.
+    // Only applies to files whose size is known from the HEAD request and whose server accepts Range requests.
+    public void setSegmentedDownloads(long thresholdBytes, int segments) {
+        segmentThreshold = thresholdBytes;
+        segmentCount = segments;
+    }
+
+
+    // Sets the size in bytes of the buffers used to copy downloads to disk. Downloads already running keep their buffers.
+    public void setBufferSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive.");
+        }
+        bufferPool = new BufferPool(bytes, config.getMaxThreads());
+    }
+
+
+    // Applies a new thread pool configuration. Running downloads are not interrupted; the pools grow or shrink as tasks finish.
+    public void setConfig(Config config) {
+        Config previous = this.config;
+        this.config = config;
+
+        // The default transport is rebuilt with the new timeouts. A custom transport brings its own.
+        if (!customTransport && (config.connectTimeout != previous.connectTimeout || config.readTimeout != previous.readTimeout)) {
+            Transport old = transport;
+            transport = new UrlConnectionTransport(config.connectTimeout, config.readTimeout);
+            old.shutdown();
+        }
+        updateDownloadCache();
+        bufferPool = new BufferPool(bufferPool.getBufferSize(), config.getMaxThreads());
+        concurrencyController = config.adaptive ? new ConcurrencyController(config.minConcurrency, config.maxConcurrency, config.corePoolSize) : null;
+        resize(downloadThreadPool, getDownloadConcurrency(), config.getMaxThreads());
+        resize(sizeThreadPool, config.corePoolSize, config.maxPoolSize);
+        downloadWorkQueue.setMaxPerHost(config.maxConnectionsPerHost);
+        downloadWorkQueue.setSmallestFirst(config.smallestFirst);
+        downloadThreadPool.setKeepAliveTime(config.keepAliveTime, TimeUnit.SECONDS);
+        sizeThreadPool.setKeepAliveTime(config.keepAliveTime, TimeUnit.SECONDS);
+        if (config.virtualThreads != previous.virtualThreads) {
+            updateThreadFactories();
+        }
+    }
+
+
+    // Creates the pool threads as virtual or platform threads to match the configuration. Threads that are already
+    // running keep going and are replaced as the pools recycle them.
+    private void updateThreadFactories() {
+        boolean virtual = config.virtualThreads;
+        downloadThreadPool.setThreadFactory(Threads.factory("BatchDownload-download", virtual));
+        sizeThreadPool.setThreadFactory(Threads.factory("BatchDownload-size", virtual));
+        extractThreadPool.setThreadFactory(Threads.factory("BatchDownload-extract", virtual));
+        stopThreadPool.setThreadFactory(Threads.factory("BatchDownload-stop", virtual));
+    }
+
+
+    // Creates or drops the download cache to match the configuration
+    private void updateDownloadCache() {
+        if (DEFAULT_PATH == null) {
+            return;
+        }
+        DownloadCache current = downloadCache;
+        if (config.cacheSize < 0) {
+            downloadCache = null;
+        } else if (current == null || current.getMaxBytes() != config.cacheSize) {
+            downloadCache = new DownloadCache(new File(DEFAULT_PATH + "com.ryanmitchener.batchdownload.store/"), config.cacheSize);
+        }
+    }
+
+
+    // Returns the current configuration
+    public Config getConfig() {
+        return config;
+    }
+
+
+    // Returns the number of downloads that run at the same time
+    public int getDownloadConcurrency() {
+        ConcurrencyController controller = concurrencyController;
+        return (controller != null) ? controller.getConcurrency() : config.corePoolSize;
+    }
+
+
+    // Lets the adaptive controller grow or shrink the download pool based on the throughput it measured
+    private void adjustConcurrency() {
+        ConcurrencyController controller = concurrencyController;
+        if (controller == null) {
+            return;
+        }
+        int concurrency = controller.update(System.nanoTime(), total_downloaded.sum());
+        if (concurrency != downloadThreadPool.getCorePoolSize()) {
+            // Threads above the maximum exit when they finish their current task, so shrink both sizes
+            resize(downloadThreadPool, concurrency, concurrency);
+        }
+    }
+
+
+    // Resizes a thread pool, ordering the calls so the core size never exceeds the maximum
+    private static void resize(ThreadPoolExecutor pool, int corePoolSize, int maxPoolSize) {
+        if (corePoolSize > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(maxPoolSize);
+            pool.setCorePoolSize(corePoolSize);
+        } else {
+            pool.setCorePoolSize(corePoolSize);
+            pool.setMaximumPoolSize(maxPoolSize);
+        }
+    }
+
+
+    // Adds a listener that gets progress and events on the callback executor at most every 100ms. That is the main
+    // thread on Android and the engine's progress thread otherwise.
+    public void addListener(DownloadListener listener) {
+        addListener(listener, callbackExecutor, DEFAULT_LISTENER_INTERVAL);
+    }
+
+
+    // Adds a listener that gets progress and events on an executor at most once per interval. Events that happen
+    // in between are delivered together. On Android wrap a Handler in a HandlerExecutor.
+    public void addListener(DownloadListener listener, Executor executor, long intervalMillis) {
+        dispatcher.addListener(listener, executor, Math.max(MIN_LISTENER_INTERVAL, intervalMillis));
+    }
+
+
+    // Sets where addListener(listener) delivers. Listeners already added keep their executor.
+    public void setCallbackExecutor(Executor executor) {
+        callbackExecutor = (executor != null) ? executor : progressExecutor;
+    }
+
+
+    public void removeListener(DownloadListener listener) {
+        dispatcher.removeListener(listener);
+    }
+
+
+    // Turns the ACTION_* broadcasts on or off. They are on by default on Android; apps that only use listeners can
+    // turn them off to save building an Intent for every event. Does nothing on a plain JVM.
+    public synchronized void setBroadcastsEnabled(boolean enabled) {
+        broadcastsEnabled = enabled;
+        if (broadcastListener == null) {
+            return;
+        }
+        if (enabled) {
+            dispatcher.addListener(broadcastListener, progressExecutor, PROGRESS_INTERVAL);
+        } else {
+            dispatcher.removeListener(broadcastListener);
+        }
+    }
+
+
+    // Installs the listener that sends the broadcasts. It runs on the progress thread so building the Intents does
+    // not load the main thread. Called by the Android adapter.
+    synchronized void setBroadcastListener(DownloadListener listener) {
+        if (broadcastListener != null) {
+            dispatcher.removeListener(broadcastListener);
+        }
+        broadcastListener = listener;
+        setBroadcastsEnabled(broadcastsEnabled);
+    }
+
+
+    // Limits the combined download rate of every batch in bytes per second, for example to leave room for other
+    // traffic on a metered network. Takes effect immediately. Pass 0 for no limit.
+    public void setRateLimit(long bytesPerSecond) {
+        rateLimiter.setRate(bytesPerSecond);
+    }
+
+
+    // Returns the global rate limit in bytes per second or 0 if unlimited
+    public long getRateLimit() {
+        return rateLimiter.getRate();
+    }
+
+
+    // Limits the combined download rate from a single host in bytes per second. Pass 0 for no limit.
+    public void setHostRateLimit(String host, long bytesPerSecond) {
+        host = host.toLowerCase(Locale.US);
+        if (bytesPerSecond == 0) {
+            hostRateLimiters.remove(host);
+            return;
+        }
+        RateLimiter limiter = hostRateLimiters.get(host);
+        if (limiter != null) {
+            limiter.setRate(bytesPerSecond);
+        } else {
+            hostRateLimiters.put(host, new RateLimiter(bytesPerSecond));
+        }
+    }
+
+
+    // Keeps a read within the global, batch and host rate limits by sleeping off the longest of their waits.
+    // No lock is held while sleeping so the other workers keep reading.
+    private void throttle(Request request, int bytes) {
+        long now = System.nanoTime();
+        long wait = rateLimiter.reserve(bytes, now);
+        wait = Math.max(wait, request.batch.rateLimiter.reserve(bytes, now));
+        if (!hostRateLimiters.isEmpty()) {
+            RateLimiter limiter = hostRateLimiters.get(request.getHost());
+            if (limiter != null) {
+                wait = Math.max(wait, limiter.reserve(bytes, now));
+            }
+        }
+        try {
+            RateLimiter.sleep(wait);
+        } catch (InterruptedException e) {
+            // Leave the interrupt for transfer() to notice
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // Sends a request through the transport, recording the latency for the adaptive concurrency controller
+    Transport.Response execute(String method, String url, Map<String, String> headers) throws IOException {
+        long start = System.nanoTime();
+        Transport.Response response = transport.execute(method, url, headers);
+        long elapsed = System.nanoTime() - start;
+        ConcurrencyController controller = concurrencyController;
+        if (controller != null) {
+            controller.recordLatency(elapsed / 1000000);
+        }
+        MetricsRecorder metrics = this.metrics;
+        if (metrics != null) {
+            metrics.recordResponse(response, elapsed);
+        }
+        return response;
+    }
+
+
+    // Sets the transport used to send requests. Defaults to UrlConnectionTransport.
+    public void setTransport(Transport transport) {
+        Transport previous = this.transport;
+        this.transport = transport;
+        customTransport = true;
+        if (previous != transport) {
+            previous.shutdown();
+        }
+    }
+
+
+    // Returns the connection statistics of the current transport
+    public Transport.Stats getTransportStats() {
+        return transport.getStats();
+    }
+
+
+    // Records where the time of each download goes: queue wait, DNS, connect, TLS, time to first byte, reading,
+    // writing and finishing, along with throughput per host and how busy the download threads are. Enabling again
+    // starts over. Disabled by default, in which case the download path takes no timestamps for it.
+    public synchronized void setMetricsEnabled(boolean enabled) {
+        metrics = enabled ? new MetricsRecorder() : null;
+    }
+
+
+    public boolean isMetricsEnabled() {
+        return metrics != null;
+    }
+
+
+    // Returns a snapshot of the metrics recorded since they were enabled, or null if they are disabled
+    public DownloadMetrics getMetrics() {
+        MetricsRecorder metrics = this.metrics;
+        return (metrics != null) ? metrics.snapshot(throughput.getBytesPerSecond(), getDownloadConcurrency()) : null;
+    }
+
+
+    // Hands a snapshot to exporter every intervalMillis on the progress thread while metrics are enabled, for example
+    // a JsonMetricsExporter. Replaces the previous exporter. Pass null to stop exporting.
+    public synchronized void setMetricsExporter(final MetricsExporter exporter, long intervalMillis) {
+        if (metricsExport != null) {
+            metricsExport.cancel(false);
+            metricsExport = null;
+        }
+        if (exporter == null) {
+            return;
+        }
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("The export interval must be positive.");
+        }
+        metricsExport = progressExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                DownloadMetrics snapshot = getMetrics();
+                if (snapshot == null) {
+                    return;
+                }
+                // An exception would cancel the schedule, so a failing exporter only loses this snapshot
+                try {
+                    exporter.export(snapshot);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+    // Sets where the network and power state for Constraints comes from and listens to its changes. Replaces the
+    // previous source. Without one, constraints are not checked and every request runs.
+    public synchronized void setDeviceState(DeviceState state) {
+        DeviceState previous = deviceState;
+        if (previous != null) {
+            previous.setListener(null);
+        }
+        deviceState = state;
+        if (state != null) {
+            state.setListener(deviceStateListener);
+        }
+        deviceStateListener.onDeviceStateChanged();
+    }
+
+
+    public DeviceState getDeviceState() {
+        return deviceState;
+    }
+
+
+    // Returns the number of requests waiting for their constraints to be met
+    public int getDeferredCount() {
+        synchronized (deferred) {
+            return deferred.size();
+        }
+    }
+
+
+    // Checks if the device allows a request to run now
+    boolean meetsConstraints(Request request) {
+        Constraints constraints = request.getEffectiveConstraints();
+        DeviceState state = deviceState;
+        return constraints == null || state == null || constraints.isMet(state, request.batch.meteredBytes.sum());
+    }
+
+
+    // Puts a request aside until its constraints are met. It is queued again right away if the device changed while
+    // it was being put aside.
+    void defer(Request request) {
+        request.held = true;
+        synchronized (deferred) {
+            deferred.add(request);
+        }
+        if (meetsConstraints(request)) {
+            scheduleRelease();
+        }
+    }
+
+
+    // Stops the running requests whose constraints are no longer met, for example when wifi is lost or a batch has
+    // used up its metered bytes. Their partial files are kept and they are deferred once their tasks notice.
+    private void holdUnmetRequests() {
+        for (Request request : activeRequests) {
+            if (!request.held && !meetsConstraints(request)) {
+                request.held = true;
+                interrupt(request);
+            }
+        }
+    }
+
+
+    // Reacts to a change of the device state. Runs on the progress thread.
+    private void evaluateConstraints() {
+        DeviceState state = deviceState;
+        deviceMetered = state != null && state.isMetered();
+        holdUnmetRequests();
+        scheduleRelease();
+    }
+
+
+    // Releases the deferred requests once the device state has settled, unless a release is already waiting
+    private void scheduleRelease() {
+        if (!releasePending.compareAndSet(false, true)) {
+            return;
+        }
+        progressExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                releasePending.set(false);
+                releaseDeferred();
+            }
+        }, CONSTRAINT_SETTLE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+
+    // Queues every deferred request whose constraints are met at once, so the radio wakes up for one burst instead
+    // of once per request
+    private void releaseDeferred() {
+        List<Request> released = new ArrayList<Request>();
+        synchronized (deferred) {
+            Iterator<Request> iterator = deferred.iterator();
+            while (iterator.hasNext()) {
+                Request request = iterator.next();
+                if (meetsConstraints(request)) {
+                    iterator.remove();
+                    released.add(request);
+                }
+            }
+        }
+        if (released.isEmpty()) {
+            return;
+        }
+
+        // Start progress updater if the pool went idle while everything was deferred
+        if (!isRunning()) {
+            progressExecutor.execute(new ProgressUpdateTask());
+        }
+        for (Request request : released) {
+            schedule(request);
+        }
+    }
+
+
+    // Records the constraints of a request in the journal so a restored request keeps them
+    private void journalConstraints(Request request, Constraints constraints) throws IOException {
+        if (constraints == null) {
+            journal.constraints(request.journalId, false, false, 0, -1);
+        } else {
+            journal.constraints(request.journalId, constraints.unmeteredOnly, constraints.chargingOnly, constraints.minBatteryLevel, constraints.maxMeteredBytes);
+        }
+    }
+
+
+    // Checks if the downloader is running or waiting to retry a request
+    public boolean isRunning() {
+        return downloadThreadPool.getActiveCount() > 0 || !retrying.isEmpty();
+    }
+
+
+    // Reset variables
+    private void resetVars() {
+        sizeCalculated = false;
+        error_count.set(0);
+        files_remaining.set(0);
+        total_downloaded.reset();
+        total_decoded.reset();
+        total_bytes.reset();
+        throughput.reset();
+        if (journal != null) {
+            journal.clear();
+        }
+        activeRequests.clear();
+        ConcurrencyController controller = concurrencyController;
+        if (controller != null) {
+            controller.reset();
+        }
+
+        // Clear the cache folder, keeping partial downloads that can be resumed
+        PartialDownload.clean(cache);
+    }
+
+
+    // Reads the current progress without blocking the download threads. The counters are read one after another while
+    // the downloads keep running, so the values are approximate and may not add up exactly until the batch is idle.
+    public Progress getProgress() {
+        ArrayList<RequestProgress> requests = new ArrayList<RequestProgress>(activeRequests.size());
+        for (Request request : activeRequests) {
+            requests.add(new RequestProgress(request));
+        }
+        return new Progress(total_downloaded.sum(), total_decoded.sum(), total_bytes.sum(), error_count.get(), files_remaining.get(), getDownloadConcurrency(), throughput.getBytesPerSecond(), rateLimiter.getRate(), requests);
+    }
+
+
+    // Counts downloaded bytes towards the total, the batch and the request
+    void addDownloaded(Request request, long bytes) {
+        total_downloaded.add(bytes);
+        request.batch.downloaded.add(bytes);
+        request.bytesDownloaded.addAndGet(bytes);
+    }
+
+
+    // Counts decoded bytes towards the total and the batch
+    void addDecoded(Request request, long bytes) {
+        total_decoded.add(bytes);
+        request.batch.decoded.add(bytes);
+        request.bytesDecoded.addAndGet(bytes);
+    }
+
+
+    // Marks a request as no longer downloading and counts it as finished, once
+    private void finishRequest(Request request) {
+        if (request.finished.compareAndSet(false, true)) {
+            releaseDestination(request);
+            activeRequests.remove(request);
+            files_remaining.decrementAndGet();
+            request.batch.remaining.decrementAndGet();
+            if (request.batch.stream != null) {
+                request.batch.stream.release(request);
+            }
+        }
+    }
+
+
+    /**
+     * Progress Checker
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Samples the download rate of all batches and of each batch
+    private void measureThroughput() {
+        long now = System.nanoTime();
+        throughput.update(now, total_downloaded.sum());
+        for (Batch batch : batches) {
+            batch.throughput.update(now, batch.downloaded.sum());
+        }
+    }
+
+
+    // Runs at an interval, keeping the controllers and the journal up to date and telling listeners about the
+    // progress. Ticks at the rate of the fastest listener, or only for the housekeeping if nobody is listening.
+    private class ProgressUpdateTask implements Runnable {
+        @Override
+        public void run() {
+            if (isRunning()) {
+                adjustConcurrency();
+                if (deviceState != null) {
+                    holdUnmetRequests();
+                }
+                syncJournal(false);
+                measureThroughput();
+                if (sizeCalculated || config.sizeFromResponse) {
+                    dispatcher.progressChanged();
+                }
+                long interval = dispatcher.getMinInterval();
+                progressExecutor.schedule(this, (interval > 0) ? Math.min(interval, HOUSEKEEPING_INTERVAL) : HOUSEKEEPING_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+
+    /**
+     * Downloader
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Copies a response body into a file channel starting at position through a pooled direct buffer, decoding it
+    // on the way if it is compressed. Bytes are counted as they come off the wire and again once decoded. Writes at
+    // most limit decoded bytes, or until the end of the stream if limit is -1. The decoded bytes are added to checksum
+    // and handed to extractor if they are not null. Returns the number of bytes written or TRANSFER_CANCELLED if the
+    // thread was interrupted by a cancel or a pause.
+    long transfer(Request request, Transport.Response response, FileChannel channel, long position, long limit, Checksum checksum, ArchiveExtractor extractor) throws IOException {
+        InputStream decoded = ContentDecoder.wrap(new WireCountingInputStream(request, response.getBody()), response.getHeader("Content-Encoding"));
+        ReadableByteChannel source = Channels.newChannel(decoded);
+        BufferPool pool = bufferPool;
+        ByteBuffer buffer;
+        try {
+            buffer = pool.acquire();
+        } catch (InterruptedException e) {
+            ContentDecoder.release(decoded);
+            return TRANSFER_CANCELLED;
+        }
+
+        // Reads and writes are only timed while metrics are enabled
+        MetricsRecorder metrics = this.metrics;
+        long readNanos = 0;
+        long writeNanos = 0;
+        try {
+            long transferred = 0;
+            while (limit < 0 || transferred < limit) {
+                buffer.clear();
+                if (limit >= 0 && limit - transferred < buffer.capacity()) {
+                    buffer.limit((int) (limit - transferred));
+                }
+                long readStart = (metrics != null) ? System.nanoTime() : 0;
+                int bytesRead = source.read(buffer);
+                if (metrics != null) {
+                    readNanos += System.nanoTime() - readStart;
+                }
+                if (bytesRead == -1) {
+                    break;
+                }
+
+                // Stop the transfer if the request was cancelled or paused. The thread is interrupted in the background,
+                // so the request is checked as well.
+                if (Thread.currentThread().isInterrupted() || request.isStopped()) {
+                    return TRANSFER_CANCELLED;
+                }
+
+                buffer.flip();
+                if (checksum != null) {
+                    checksum.update(buffer);
+                }
+                long writeStart = (metrics != null) ? System.nanoTime() : 0;
+                try {
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                } catch (ClosedChannelException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // The disk failed rather than the network, for example because it is full
+                    throw new LocalIOException(e);
+                }
+                if (metrics != null) {
+                    writeNanos += System.nanoTime() - writeStart;
+                }
+                if (extractor != null) {
+                    extractor.written(position);
+                }
+                transferred += bytesRead;
+                addDecoded(request, bytesRead);
+            }
+            if (metrics != null) {
+                metrics.recordTransfer(request.getHost(), transferred, readNanos, writeNanos);
+            }
+            return transferred;
+        } catch (ClosedByInterruptException e) {
+            // The channels close themselves when the thread is interrupted during a read or write
+            return TRANSFER_CANCELLED;
+        } finally {
+            pool.release(buffer);
+            ContentDecoder.release(decoded);
+        }
+    }
+
+
+    // Runs the transfer loop for a response that belongs to no batch, counting its bytes towards a batch that is never
+    // added. Package-private so TransferBenchmark measures the loop downloads use instead of a copy of it.
+    long transfer(String url, Transport.Response response, FileChannel channel, long position, Checksum checksum) throws IOException {
+        Request request = new Request(url);
+        request.batch = new Batch(0);
+        return transfer(request, response, channel, position, -1, checksum, null);
+    }
+
+
+    // Counts the bytes of a response body as they come off the wire, before any decoding
+    private class WireCountingInputStream extends FilterInputStream {
+        private final Request request;
+
+        WireCountingInputStream(Request request, InputStream in) {
+            super(in);
+            this.request = request;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                addDownloaded(request, 1);
+                countMetered(request, 1);
+                throttle(request, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead > 0) {
+                addDownloaded(request, bytesRead);
+                countMetered(request, bytesRead);
+                throttle(request, bytesRead);
+            }
+            return bytesRead;
+        }
+    }
+
+
+    // Counts bytes received over a metered network towards the cap of the batch, stopping the request as soon as the
+    // cap is reached rather than at the next progress tick
+    private void countMetered(Request request, int bytes) {
+        if (!deviceMetered) {
+            return;
+        }
+        StripedCounter meteredBytes = request.batch.meteredBytes;
+        meteredBytes.add(bytes);
+        Constraints constraints = request.getEffectiveConstraints();
+        if (constraints != null && constraints.maxMeteredBytes >= 0 && !request.held && meteredBytes.sum() >= constraints.maxMeteredBytes) {
+            request.held = true;
+            request.interruptWorkers();
+        }
+    }
+
+
+    // Checks if a request should be split into segments based on the HEAD response from SizeCalculateTask
+    // Requests with a checksum or an extract folder are not split since the segments arrive out of order and could not
+    // be hashed or extracted as they are written.
+    boolean shouldSegment(Request request) {
+        return request.checksumAlgorithm == null && request.extractFolder == null && segmentThreshold > 0 && segmentCount > 1 && request.acceptsRanges && request.contentLength >= segmentThreshold;
+    }
+
+
+    // Gets the filename for a request
+    private String getFilename(Request request) {
+        String filename = Utils.decodePercent(request.url);
+        filename = filename.substring(filename.lastIndexOf("/") + 1);
+        if (request.filename != null) {
+            // Keep the extension of the url, if it has one
+            int dot = filename.lastIndexOf(".");
+            String extension = (dot >= 0) ? filename.substring(dot) : "";
+            filename = request.filename + extension;
+        }
+        return filename;
+    }
+
+
+    // Returns the file a request is downloaded to
+    private File getDestination(Request request, String filename) {
+        if (request.downloadFolder != null) {
+            return new File(request.downloadFolder, filename);
+        }
+        return new File(DEFAULT_PATH, filename);
+    }
+
+
+    // Picks the file a request is downloaded to and holds it until the request finishes. If a different url is
+    // already being downloaded to that path a number is added to the name, so "a.zip" becomes "a-1.zip". Requests of
+    // other batches downloading the same url to the same path share it, each with a partial download slot of its own.
+    File claimDestination(Request request) {
+        synchronized (claimedDestinations) {
+            if (request.destination != null) {
+                return request.destination;
+            }
+            File destination = getDestination(request, getFilename(request));
+            File candidate = destination;
+            List<Request> holders;
+            for (int i = 1; (holders = claimedDestinations.get(candidate.getPath())) != null; i++) {
+                if (holders.get(0).url.equals(request.url)) {
+                    break;
+                }
+                candidate = numberedFile(destination, i);
+            }
+            if (holders == null) {
+                holders = new ArrayList<Request>(1);
+                claimedDestinations.put(candidate.getPath(), holders);
+            }
+            request.partialSlot = freeSlot(holders);
+            holders.add(request);
+            request.destination = candidate;
+            return candidate;
+        }
+    }
+
+
+    // Returns the lowest partial download slot none of the holders of a destination uses
+    private static int freeSlot(List<Request> holders) {
+        int slot = 0;
+        for (int i = 0; i < holders.size(); i++) {
+            if (holders.get(i).partialSlot == slot) {
+                slot++;
+                i = -1;
+            }
+        }
+        return slot;
+    }
+
+
+    // Lets another url use the destination of a request that finished or was put aside
+    private void releaseDestination(Request request) {
+        synchronized (claimedDestinations) {
+            File destination = request.destination;
+            if (destination == null) {
+                return;
+            }
+            request.destination = null;
+            List<Request> holders = claimedDestinations.get(destination.getPath());
+            if (holders != null && holders.remove(request) && holders.isEmpty()) {
+                claimedDestinations.remove(destination.getPath());
+            }
+        }
+    }
+
+
+    // Adds a number to a filename before its extension
+    private static File numberedFile(File file, int number) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            return new File(file.getParentFile(), name.substring(0, dot) + "-" + number + name.substring(dot));
+        }
+        return new File(file.getParentFile(), name + "-" + number);
+    }
+
+
+    // Checks the length of a downloaded file against the Content-Length of the response and the expected size and
+    // checksum of the request. The partial file is thrown away on a mismatch so the retry starts over.
+    void verify(Request request, PartialDownload partial, long length, Checksum checksum, boolean checkContentLength) throws Exception {
+        // The connection closed before the whole body arrived. Decoded bodies are longer than their Content-Length.
+        if (checkContentLength && partial.getTotalLength() >= 0 && length != partial.getTotalLength()) {
+            partial.reset();
+            throw new BadHTTPResponseException();
+        }
+        if (request.expectedSize >= 0 && length != request.expectedSize) {
+            partial.reset();
+            throw new FailedVerificationException("size " + length + ", expected " + request.expectedSize);
+        }
+        if (checksum != null) {
+            String actual = checksum.toHex();
+            if (!actual.equalsIgnoreCase(request.expectedChecksum)) {
+                partial.reset();
+                throw new FailedVerificationException(request.checksumAlgorithm + " " + actual + ", expected " + request.expectedChecksum);
+            }
+        }
+    }
+
+
+    // Moves a finished download out of the cache folder and sends the FILE_DOWNLOADED broadcast
+    void moveToDestination(Request request, PartialDownload partial, File movedFile) throws Exception {
+        if (request.downloadFolder != null && !request.downloadFolder.isDirectory()) {
+            throw new NotADirectoryException();
+        }
+
+        // Rename the file into place. Across filesystems this falls back to a copy that is renamed into place.
+        try {
+            Utils.move(partial.getDataFile(), movedFile);
+        } catch (IOException e) {
+            throw new FailedFileWriteException();
+        }
+        partial.finish();
+
+        // Remember the validators so the next batch can revalidate the file instead of downloading it again
+        DownloadCache downloadCache = this.downloadCache;
+        if (downloadCache != null) {
+            try {
+                downloadCache.put(request.url, request.etag, request.lastModified, movedFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        onFileDownloaded(request, movedFile);
+    }
+
+
+    // Finishes a request whose file the server reported as not modified. The file is left alone if it is still
+    // in place, otherwise it is restored from the copy in the download cache.
+    void completeFromCache(Request request, DownloadCache downloadCache, DownloadCache.Entry cached, PartialDownload partial, File destination) throws Exception {
+        request.contentLength = cached.getLength();
+        countSize(request);
+        addDownloaded(request, cached.getLength());
+        addDecoded(request, cached.getLength());
+        if (cached.isCurrent(destination)) {
+            if (request.extractFolder != null) {
+                extract(request, destination);
+            }
+            onFileDownloaded(request, destination);
+            return;
+        }
+
+        partial.reset();
+        boolean copied;
+        try {
+            copied = downloadCache.copyTo(cached, partial.getDataFile());
+        } catch (IOException e) {
+            throw new LocalIOException(e);
+        }
+        if (!copied) {
+            throw new FailedFileWriteException();
+        }
+        if (request.extractFolder != null) {
+            extract(request, partial.getDataFile());
+        }
+        moveToDestination(request, partial, destination);
+    }
+
+
+    // Starts extracting a file that is being downloaded. written is the number of bytes already on disk.
+    ArchiveExtractor startExtraction(Request request, File source, long written) {
+        ArchiveExtractor extractor = new ArchiveExtractor(source, request.extractFolder);
+        extractor.written(written);
+        request.extractor = extractor;
+        extractThreadPool.execute(extractor);
+        return extractor;
+    }
+
+
+    // Extracts a file that is already complete on this thread
+    private void extract(Request request, File source) throws Exception {
+        ArchiveExtractor extractor = new ArchiveExtractor(source, request.extractFolder);
+        extractor.complete(source.length());
+        request.extractor = extractor;
+        extractor.run();
+        awaitExtraction(extractor);
+    }
+
+
+    // Waits for an extraction to finish. Archive errors are not retried since the bytes were already verified
+    // or, without a checksum, would most likely come back the same.
+    void awaitExtraction(ArchiveExtractor extractor) throws Exception {
+        try {
+            extractor.await();
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FailedExtractionException(e);
+        }
+    }
+
+
+    // Marks a request and the duplicates of its url as done and sends a FILE_DOWNLOADED broadcast for each
+    private void onFileDownloaded(Request request, File file) {
+        finishRequest(request);
+        journalOutcome(request, true);
+        sendFileDownloaded(request, file);
+
+        for (Request duplicate : takeDuplicates(request)) {
+            try {
+                File destination = claimDestination(duplicate);
+                if (!destination.equals(file)) {
+                    if (duplicate.downloadFolder != null && !duplicate.downloadFolder.isDirectory()) {
+                        throw new NotADirectoryException();
+                    }
+                    Utils.copyAtomically(file, destination);
+                }
+                finishRequest(duplicate);
+                journalOutcome(duplicate, true);
+                sendFileDownloaded(duplicate, destination);
+            } catch (Exception e) {
+                finishRequest(duplicate);
+                reportError(duplicate, e);
+            }
+        }
+        request.batch.checkFinished();
+    }
+
+
+    // Records in the journal that a request finished or failed so it is not restored
+    private void journalOutcome(Request request, boolean done) {
+        if (request.journalId == 0) {
+            return;
+        }
+        try {
+            if (done) {
+                journal.done(request.journalId);
+            } else {
+                journal.failed(request.journalId);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    // Sends the FILE_DOWNLOADED event
+    private void sendFileDownloaded(Request request, File file) {
+        MetricsRecorder metrics = this.metrics;
+        if (metrics != null) {
+            metrics.requestCompleted();
+        }
+        dispatcher.post(DownloadEvent.fileDownloaded(request.batch.id, request.url, file));
+    }
+
+
+    // Counts a failed request and sends the ERROR broadcast
+    void onError(Request request, Exception e) {
+        if (scheduleRetry(request, e)) {
+            return;
+        }
+        finishRequest(request);
+        reportError(request, e);
+        for (Request duplicate : takeDuplicates(request)) {
+            finishRequest(duplicate);
+            reportError(duplicate, e);
+        }
+        request.batch.checkFinished();
+    }
+
+
+    // Queues a failed request again after a backoff if the failure may be transient. The wait happens on the progress
+    // thread so no download thread is held. Returns false if the request has failed for good.
+    private boolean scheduleRetry(Request request, Exception e) {
+        boolean retryable;
+        long retryAfter = 0;
+        if (e instanceof BadHTTPResponseException) {
+            BadHTTPResponseException badResponse = (BadHTTPResponseException) e;
+            retryable = RetryPolicy.isRetryable(badResponse.responseCode);
+            retryAfter = RetryPolicy.parseRetryAfter(badResponse.retryAfter, System.currentTimeMillis());
+        } else if (e instanceof FailedVerificationException) {
+            // Corrupted in transit, so another attempt may get the right bytes
+            retryable = true;
+        } else {
+            retryable = RetryPolicy.isRetryable(e);
+        }
+
+        // Transient network and server failures can mean there are too many connections
+        ConcurrencyController controller = concurrencyController;
+        if (controller != null && retryable && !(e instanceof FailedVerificationException)) {
+            controller.recordError();
+        }
+        long delay = retryable ? config.retryPolicy.getDelay(request.attempts.get(), retryAfter) : -1;
+        if (delay < 0 || request.isCancelled()) {
+            return false;
+        }
+
+        MetricsRecorder metrics = this.metrics;
+        if (metrics != null) {
+            metrics.requestRetried();
+        }
+        uncount(request);
+        retrying.add(request);
+        progressExecutor.schedule(new RetryTask(request), delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+
+    // Queues a request again once its backoff has passed, unless it was cancelled or paused in the meantime
+    private class RetryTask implements Runnable {
+        private final Request request;
+
+        RetryTask(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            // stop() has already handled the request if it is no longer waiting
+            if (!retrying.remove(request)) {
+                return;
+            }
+            if (request.isStopped()) {
+                onStopped(request);
+            } else {
+                schedule(request);
+            }
+        }
+    }
+
+
+    // Counts an error, records it in the journal and sends the ERROR broadcast
+    private void reportError(Request request, Exception e) {
+        MetricsRecorder metrics = this.metrics;
+        if (metrics != null) {
+            metrics.requestFailed();
+        }
+        error_count.incrementAndGet();
+        request.batch.errors.incrementAndGet();
+        journalOutcome(request, false);
+        dispatcher.post(DownloadEvent.error(request.batch.id, request.url, request.attempts.get(), e));
+        e.printStackTrace();
+    }
+
+
+    // Extension of ThreadPoolExecutor for download tasks
+    class DownloaderThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor {
+        public DownloaderThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, DownloadQueue workQueue) {
+            super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+        }
+
+        // Always goes through the work queue so every task is subject to the per-host limits. ThreadPoolExecutor
+        // would otherwise hand tasks straight to new threads while the pool is below its core size.
+        @Override
+        public void execute(Runnable command) {
+            if (isShutdown()) {
+                getRejectedExecutionHandler().rejectedExecution(command, this);
+                return;
+            }
+            getQueue().offer(command);
+            if (getPoolSize() < getCorePoolSize()) {
+                prestartCoreThread();
+            }
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+            downloadWorkQueue.release(r);
+
+            // If current thread is the last in the pool and nothing is waiting on a host limit
+            checkIdle(1);
+        }
+    }
+
+
+    /**
+     * Size Calculator
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Extension of ThreadPoolExecutor for size request tasks
+    private class SizeCalculatorThreadPoolExecutor extends ThreadPoolExecutor {
+        public SizeCalculatorThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
+            super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+        }
+
+        @Override
+        protected void afterExecute(Runnable r, Throwable t) {
+            super.afterExecute(r, t);
+
+            // If current thread is the last in the pool
+            if (sizeThreadPool.getActiveCount() == 1) {
+                sizeCalculated = true;
+            }
+        }
+    }
+
+
+    /**
+     * Container Classes
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Container class for requests
+    public static class Request {
+        // Priorities
+        public final static int PRIORITY_DEFAULT = 0;
+        public final static int PRIORITY_HIGHEST = Integer.MAX_VALUE;
+
+        // Checksum algorithms
+        public final static String CHECKSUM_SHA256 = Checksum.SHA256;
+        public final static String CHECKSUM_MD5 = Checksum.MD5;
+        public final static String CHECKSUM_CRC32C = Checksum.CRC32C;
+
+        String url = null;
+        private String filename = null;
+        File downloadFolder = null;
+
+        // Filled in by SizeCalculateTask from the HEAD response
+        volatile long contentLength = -1;
+        volatile boolean acceptsRanges = false;
+        volatile String validator = null;
+        volatile String etag = null;
+        volatile String lastModified = null;
+
+        // Bytes downloaded by this request so far
+        final AtomicLong bytesDownloaded = new AtomicLong();
+        private String host = null;
+
+        // Higher priorities are downloaded first
+        volatile int priority = PRIORITY_DEFAULT;
+
+        // What the downloaded file is checked against before it is moved into place
+        private long expectedSize = -1;
+        private String checksumAlgorithm = null;
+        private String expectedChecksum = null;
+
+        // Folder the archive is unpacked into while it downloads, and the extraction of the current attempt
+        File extractFolder = null;
+        private volatile ArchiveExtractor extractor = null;
+
+        // What the device must allow before the request runs, or null to follow its batch. Held while it is stopped
+        // or deferred because they are not met.
+        private volatile Constraints constraints = null;
+        private volatile boolean held = false;
+
+        // The task waiting in the download queue, used to reorder it, and when it was queued if metrics are enabled
+        volatile DownloadQueue.Task queuedTask = null;
+        volatile long queuedAt = 0;
+        volatile boolean started = false;
+
+        // Id in the journal, or 0 if the request is not journaled
+        private volatile long journalId = 0;
+        private volatile long journaledBytes = 0;
+        private final AtomicBoolean sizeCounted = new AtomicBoolean();
+
+        // Requests for the same url added while this one was queued. Guarded by the batch's inFlight map.
+        private List<Request> duplicates = new ArrayList<Request>();
+
+        // The file the request is being downloaded to, claimed so no other url uses it at the same time, the slot of its
+        // partial download among the requests sharing that file, and the partial download of its last attempt
+        private volatile File destination = null;
+        volatile int partialSlot = 0;
+        volatile PartialDownload partial = null;
+
+        // The batch the request was added in and the threads currently working on it
+        private volatile Batch batch = null;
+        private volatile boolean cancelled = false;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final ArrayList<Thread> workers = new ArrayList<Thread>(1);
+        private final ArrayList<Transport.Response> responses = new ArrayList<Transport.Response>(1);
+        final AtomicLong bytesDecoded = new AtomicLong();
+        final AtomicInteger attempts = new AtomicInteger();
+
+        public Request(String url) {
+            this.url = url;
+        }
+
+        public Request(String url, String filename) {
+            this.url = url;
+            this.filename = filename;
+        }
+
+        public Request(String url, String filename, File downloadFolder) {
+            this.url = url;
+            this.filename = filename;
+            this.downloadFolder = downloadFolder;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public File getDownloadFolder() {
+            return downloadFolder;
+        }
+
+        // Sets the priority before the request is added. Use BatchDownload.setPriority() once it has been added.
+        public void setPriority(int priority) {
+            this.priority = priority;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        // Sets the checksum the downloaded file must have, given in hex. The checksum is computed as the file is
+        // written and a mismatch is retried. Requests with a checksum are never split into segments.
+        public void setExpectedChecksum(String algorithm, String hex) {
+            if (algorithm == null || hex == null) {
+                checksumAlgorithm = null;
+                expectedChecksum = null;
+                return;
+            }
+            Checksum.create(algorithm);
+            checksumAlgorithm = algorithm;
+            expectedChecksum = hex.trim();
+        }
+
+        // Sets the size in bytes the downloaded file must have, or -1 to not check it
+        public void setExpectedSize(long bytes) {
+            expectedSize = bytes;
+        }
+
+        public long getExpectedSize() {
+            return expectedSize;
+        }
+
+        public String getChecksumAlgorithm() {
+            return checksumAlgorithm;
+        }
+
+        public String getExpectedChecksum() {
+            return expectedChecksum;
+        }
+
+        // Unpacks the file into a folder while it downloads. Zip, tar and tar.gz archives are detected from their
+        // contents. FILE_DOWNLOADED is sent once the archive is extracted. Pass null to not extract.
+        public void setExtractFolder(File folder) {
+            extractFolder = folder;
+        }
+
+        public File getExtractFolder() {
+            return extractFolder;
+        }
+
+        // Sets the network and power conditions the request waits for before it is added, overriding those of its
+        // batch. Pass null to follow the batch.
+        public void setConstraints(Constraints constraints) {
+            this.constraints = constraints;
+        }
+
+        public Constraints getConstraints() {
+            return constraints;
+        }
+
+        // Checks if the request is waiting for its constraints to be met
+        public boolean isDeferred() {
+            return held;
+        }
+
+        // Returns the number of times the request has been tried
+        public int getAttempts() {
+            return attempts.get();
+        }
+
+        // Returns the batch the request was added in, or null if it has not been added
+        public Batch getBatch() {
+            return batch;
+        }
+
+        // Registers a thread working on the request so cancelling its batch can interrupt it
+        synchronized void attachWorker(Thread thread) {
+            workers.add(thread);
+        }
+
+        // Unregisters a thread once its task is done so it is not interrupted while running another task
+        synchronized void detachWorker(Thread thread) {
+            workers.remove(thread);
+        }
+
+        // Registers an open response so a stop can abort it. Aborts it straight away if the request was stopped
+        // while it was being sent.
+        synchronized void attachResponse(Transport.Response response) {
+            responses.add(response);
+            if (isStopped()) {
+                response.abort();
+            }
+        }
+
+        synchronized void detachResponse(Transport.Response response) {
+            responses.remove(response);
+        }
+
+        // Interrupts every thread working on the request and aborts its responses. Interrupting alone would leave a
+        // thread blocked on a socket read until the read timeout.
+        synchronized void interruptWorkers() {
+            for (Thread thread : workers) {
+                thread.interrupt();
+            }
+            for (Transport.Response response : responses) {
+                response.abort();
+            }
+        }
+
+        // Checks if the request or its batch was cancelled
+        public boolean isCancelled() {
+            return cancelled || (batch != null && batch.cancelled);
+        }
+
+        // Checks if the request was cancelled, its batch paused or it is held for its constraints
+        boolean isStopped() {
+            return isCancelled() || held || (batch != null && batch.paused);
+        }
+
+        // Returns the constraints of the request, or those of its batch if it has none
+        Constraints getEffectiveConstraints() {
+            Constraints own = constraints;
+            return (own != null || batch == null) ? own : batch.constraints;
+        }
+
+        // Returns a new checksum for the expected checksum, or null if there is none
+        Checksum newChecksum() {
+            return (checksumAlgorithm != null) ? Checksum.create(checksumAlgorithm) : null;
+        }
+
+        // Returns the host of the url, used to schedule requests fairly across hosts
+        String getHost() {
+            if (host == null) {
+                try {
+                    host = new URL(url).getHost().toLowerCase(Locale.US);
+                } catch (MalformedURLException e) {
+                    host = "";
+                }
+            }
+            return host;
+        }
+    }
+
+
+    // Handle for a group of requests added together. Each batch has its own progress, errors, completion and
+    // cancellation while every batch shares the same download threads.
+    public class Batch {
+        private final int id;
+        private final List<Request> requests = new ArrayList<Request>();
+        private final StripedCounter downloaded = new StripedCounter();
+        private final StripedCounter decoded = new StripedCounter();
+        private final StripedCounter totalBytes = new StripedCounter();
+        private final AtomicInteger errors = new AtomicInteger();
+        private final AtomicInteger remaining = new AtomicInteger();
+        private final AtomicInteger headRequests = new AtomicInteger();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean cancelled = false;
+        private volatile boolean paused = false;
+        private final RateLimiter rateLimiter = new RateLimiter(0);
+        private final ThroughputMeter throughput = new ThroughputMeter();
+
+        // Constraints of the requests that have none of their own, and the bytes received over metered networks
+        private volatile Constraints constraints = null;
+        private final StripedCounter meteredBytes = new StripedCounter();
+
+        // Requests put aside while the batch is paused. Also guards the paused flag.
+        private final List<Request> parked = new ArrayList<Request>();
+
+        // Queued urls of this batch, used to fetch a url added twice only once
+        private final Map<String, Request> inFlight = new HashMap<String, Request>();
+
+        // Where the requests of a streamed batch come from, or null if they were all added up front
+        private final RequestStream stream;
+
+        private Batch(int id) {
+            this(id, null);
+        }
+
+        private Batch(int id, RequestStream stream) {
+            this.id = id;
+            this.stream = stream;
+        }
+
+        // Returns the id sent in EXTRA_BATCH_ID
+        public int getId() {
+            return id;
+        }
+
+        // Returns a copy of the requests of the batch. A streamed batch only returns the requests it has pulled that
+        // have not finished yet.
+        public List<Request> getRequests() {
+            if (stream != null) {
+                return stream.getRequests();
+            }
+            synchronized (requests) {
+                return new ArrayList<Request>(requests);
+            }
+        }
+
+        // Reads the progress of this batch. Like BatchDownload.getProgress() the values are approximate while it runs.
+        public Progress getProgress() {
+            ArrayList<RequestProgress> running = new ArrayList<RequestProgress>();
+            for (Request request : activeRequests) {
+                if (request.batch == this) {
+                    running.add(new RequestProgress(request));
+                }
+            }
+            return new Progress(downloaded.sum(), decoded.sum(), totalBytes.sum(), errors.get(), remaining.get(), getDownloadConcurrency(), throughput.getBytesPerSecond(), rateLimiter.getRate(), running);
+        }
+
+        // Checks if every request of the batch has finished, failed or been cancelled
+        public boolean isFinished() {
+            return finished.get();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Cancels the batch without touching the other batches
+        public void cancel() {
+            if (!finished.get()) {
+                BatchDownload.this.cancel(this);
+                checkIdle(0);
+            }
+        }
+
+        // Stops the batch without losing the bytes downloaded so far. The threads move on to the other batches.
+        public void pause() {
+            BatchDownload.this.pause(this);
+        }
+
+        // Continues a paused batch
+        public void resume() {
+            BatchDownload.this.resume(this);
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+
+        // Limits the download rate of this batch in bytes per second on top of the global and host limits.
+        // Takes effect immediately. Pass 0 for no limit.
+        public void setRateLimit(long bytesPerSecond) {
+            rateLimiter.setRate(bytesPerSecond);
+        }
+
+        public long getRateLimit() {
+            return rateLimiter.getRate();
+        }
+
+        // Sets the network and power conditions for the requests of the batch that have none of their own. Running
+        // requests that no longer meet them are stopped and deferred, keeping their partial files. Pass null to lift
+        // them.
+        public void setConstraints(Constraints constraints) {
+            this.constraints = constraints;
+            if (journal != null) {
+                try {
+                    for (Request request : getRequests()) {
+                        if (request.journalId != 0 && request.constraints == null) {
+                            journalConstraints(request, constraints);
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            deviceStateListener.onDeviceStateChanged();
+        }
+
+        public Constraints getConstraints() {
+            return constraints;
+        }
+
+        // Returns the bytes received while the network was metered, which is what setMaxMeteredBytes() is checked against
+        public long getMeteredBytes() {
+            return meteredBytes.sum();
+        }
+
+        // Takes the requests put aside while paused
+        private List<Request> takeParked() {
+            synchronized (parked) {
+                List<Request> taken = new ArrayList<Request>(parked);
+                parked.clear();
+                return taken;
+            }
+        }
+
+        // Sends ACTION_BATCH_COMPLETE or ACTION_BATCH_CANCELLED once no request of the batch is left. A streamed batch
+        // first pulls requests into the room that was freed and is only done once its stream has run out.
+        private void checkFinished() {
+            if (stream != null) {
+                feed(this);
+                if (!stream.isDrained()) {
+                    return;
+                }
+            }
+            if (remaining.get() == 0) {
+                sendFinished();
+            }
+        }
+
+        // Sends the broadcast for the end of the batch, once
+        private void sendFinished() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            batches.remove(this);
+            dispatcher.post(DownloadEvent.batchFinished(id, cancelled, getProgress()));
+        }
+    }
+
+
+    // Thread pool configuration. Create one with Config.Builder and apply it with setConfig().
+    public static class Config {
+        private final int corePoolSize;
+        private final int maxPoolSize;
+        private final int keepAliveTime;
+        private final boolean adaptive;
+        private final int minConcurrency;
+        private final int maxConcurrency;
+        private final int maxConnectionsPerHost;
+        private final boolean smallestFirst;
+        final boolean sizeFromResponse;
+        private final int headPrefetch;
+        final boolean compression;
+        private final boolean journal;
+        private final long cacheSize;
+        private final int connectTimeout;
+        private final int readTimeout;
+        private final RetryPolicy retryPolicy;
+        private final boolean virtualThreads;
+
+        private Config(Builder builder) {
+            this.corePoolSize = builder.corePoolSize;
+            this.maxPoolSize = builder.maxPoolSize;
+            this.keepAliveTime = builder.keepAliveTime;
+            this.adaptive = builder.adaptive;
+            this.minConcurrency = builder.minConcurrency;
+            this.maxConcurrency = builder.maxConcurrency;
+            this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+            this.smallestFirst = builder.smallestFirst;
+            this.sizeFromResponse = builder.sizeFromResponse;
+            this.headPrefetch = builder.headPrefetch;
+            this.compression = builder.compression;
+            this.journal = builder.journal;
+            this.cacheSize = builder.cacheSize;
+            this.connectTimeout = builder.connectTimeout;
+            this.readTimeout = builder.readTimeout;
+            this.retryPolicy = new RetryPolicy(builder.maxAttempts, builder.retryBaseDelay, builder.retryMaxDelay);
+            this.virtualThreads = builder.virtualThreads && Threads.isVirtualSupported();
+        }
+
+        public int getCorePoolSize() {
+            return corePoolSize;
+        }
+
+        public int getMaxPoolSize() {
+            return maxPoolSize;
+        }
+
+        public int getKeepAliveTime() {
+            return keepAliveTime;
+        }
+
+        public boolean isAdaptive() {
+            return adaptive;
+        }
+
+        public int getMaxConnectionsPerHost() {
+            return maxConnectionsPerHost;
+        }
+
+        public boolean isSmallestFirst() {
+            return smallestFirst;
+        }
+
+        public boolean isSizeFromResponse() {
+            return sizeFromResponse;
+        }
+
+        public int getHeadPrefetch() {
+            return headPrefetch;
+        }
+
+        public boolean isCompression() {
+            return compression;
+        }
+
+        public boolean isJournal() {
+            return journal;
+        }
+
+        public long getCacheSize() {
+            return cacheSize;
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout;
+        }
+
+        public int getReadTimeout() {
+            return readTimeout;
+        }
+
+        public int getMaxAttempts() {
+            return retryPolicy.getMaxAttempts();
+        }
+
+        // Returns true only if virtual threads were asked for and this JVM has them
+        public boolean isVirtualThreads() {
+            return virtualThreads;
+        }
+
+        // The most download threads this configuration can use
+        int getMaxThreads() {
+            return adaptive ? Math.max(maxPoolSize, maxConcurrency) : maxPoolSize;
+        }
+
+
+        // Builder for Config
+        public static class Builder {
+            private int corePoolSize = CORE_POOL_SIZE;
+            private int maxPoolSize = MAX_POOL_SIZE;
+            private int keepAliveTime = KEEP_ALIVE_TIME;
+            private boolean adaptive = false;
+            private int minConcurrency = 1;
+            private int maxConcurrency = MAX_POOL_SIZE;
+            private int maxConnectionsPerHost = 0;
+            private boolean smallestFirst = false;
+            private boolean sizeFromResponse = false;
+            private int headPrefetch = 0;
+            private boolean compression = true;
+            private boolean journal = true;
+            private long cacheSize = -1;
+            private int connectTimeout = 15000;
+            private int readTimeout = 30000;
+            private int maxAttempts = 3;
+            private long retryBaseDelay = 1000;
+            private long retryMaxDelay = 30000;
+            private boolean virtualThreads = false;
+
+            // Number of downloads that run at the same time. The work queue is unbounded so this is the effective concurrency.
+            public Builder setCorePoolSize(int corePoolSize) {
+                this.corePoolSize = corePoolSize;
+                return this;
+            }
+
+            public Builder setMaxPoolSize(int maxPoolSize) {
+                this.maxPoolSize = maxPoolSize;
+                return this;
+            }
+
+            // Seconds idle threads above the core size are kept alive
+            public Builder setKeepAliveTime(int seconds) {
+                this.keepAliveTime = seconds;
+                return this;
+            }
+
+            // Lets the number of concurrent downloads float between min and max based on measured throughput and
+            // latency, starting from the core pool size
+            public Builder setAdaptive(int minConcurrency, int maxConcurrency) {
+                this.adaptive = true;
+                this.minConcurrency = minConcurrency;
+                this.maxConcurrency = maxConcurrency;
+                return this;
+            }
+
+            // Most downloads that run at once against a single host. Queued work is handed out round-robin across
+            // hosts either way. 0 means no limit.
+            public Builder setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+                this.maxConnectionsPerHost = maxConnectionsPerHost;
+                return this;
+            }
+
+            // Downloads requests of equal priority smallest first once their size is known from the HEAD request,
+            // so the first files finish sooner
+            public Builder setSmallestFirst(boolean smallestFirst) {
+                this.smallestFirst = smallestFirst;
+                return this;
+            }
+
+            // Takes the size of each request from the Content-Length of its GET response instead of a separate HEAD
+            // request, halving the number of requests in a batch. The total grows as downloads start and ACTION_PROGRESS
+            // is sent right away. Up to headPrefetch requests per batch are still sent a HEAD request while they wait in
+            // the queue, which is what smallest-first ordering and segmented downloads rely on.
+            public Builder setSizeFromResponse(int headPrefetch) {
+                this.sizeFromResponse = true;
+                this.headPrefetch = headPrefetch;
+                return this;
+            }
+
+            // Asks for gzip or deflate compressed responses and decodes them while writing. Range requests always ask
+            // for the raw bytes. When disabled, identity is requested so the platform does not compress on its own.
+            public Builder setCompression(boolean compression) {
+                this.compression = compression;
+                return this;
+            }
+
+            // Records every request in an on-disk journal so an interrupted batch can be continued with restore()
+            public Builder setJournal(boolean journal) {
+                this.journal = journal;
+                return this;
+            }
+
+            // Remembers the validators of finished downloads so a later batch sends conditional requests and skips
+            // files that have not changed. Copies of up to maxBytes of files are kept to restore destinations that
+            // were deleted. Pass 0 to keep only the validators or -1 to disable the cache.
+            public Builder setCacheSize(long maxBytes) {
+                this.cacheSize = maxBytes;
+                return this;
+            }
+
+            // Timeouts in milliseconds for the default transport. A stalled connection fails the request after
+            // readMillis without data. 0 waits forever.
+            public Builder setTimeouts(int connectMillis, int readMillis) {
+                this.connectTimeout = connectMillis;
+                this.readTimeout = readMillis;
+                return this;
+            }
+
+            // Tries a request up to maxAttempts times when it fails with a network error, a 5xx, a 408 or a 429.
+            // Waits start at baseDelayMillis and double up to maxDelayMillis. Pass 1 to disable retries.
+            public Builder setRetry(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+                this.maxAttempts = maxAttempts;
+                this.retryBaseDelay = baseDelayMillis;
+                this.retryMaxDelay = maxDelayMillis;
+                return this;
+            }
+
+            // Runs downloads on virtual threads on JVMs that have them (Java 21 and later) and on platform threads
+            // everywhere else, including Android. The pool sizes still limit how many downloads run at once, but a
+            // download blocked on the network, a rate limit or a full buffer pool no longer holds a platform thread,
+            // so batches of tens of thousands of urls can use pools in the thousands.
+            public Builder setVirtualThreads(boolean virtualThreads) {
+                this.virtualThreads = virtualThreads;
+                return this;
+            }
+
+            public Config build() {
+                if (corePoolSize < 1 || maxPoolSize < corePoolSize || keepAliveTime < 0) {
+                    throw new IllegalArgumentException("Pool sizes must be positive and the core size can not exceed the max size.");
+                }
+                if (headPrefetch < 0) {
+                    throw new IllegalArgumentException("HEAD prefetch can not be negative.");
+                }
+                if (maxConnectionsPerHost < 0) {
+                    throw new IllegalArgumentException("Max connections per host can not be negative.");
+                }
+                if (adaptive && (minConcurrency < 1 || maxConcurrency < minConcurrency)) {
+                    throw new IllegalArgumentException("Adaptive concurrency needs 1 <= min <= max.");
+                }
+                if (maxAttempts < 1 || retryBaseDelay < 0 || retryMaxDelay < retryBaseDelay) {
+                    throw new IllegalArgumentException("Retry needs at least 1 attempt and 0 <= base delay <= max delay.");
+                }
+                if (connectTimeout < 0 || readTimeout < 0) {
+                    throw new IllegalArgumentException("Timeouts can not be negative.");
+                }
+                if (cacheSize < -1) {
+                    throw new IllegalArgumentException("Cache size must be -1, 0 or positive.");
+                }
+                return new Config(this);
+            }
+        }
+    }
+
+
+    // Network and power conditions a request waits for before it runs. Create one with Constraints.Builder and set
+    // it on a request or a batch. Only checked once a DeviceState is set.
+    public static class Constraints {
+        private final boolean unmeteredOnly;
+        private final boolean chargingOnly;
+        private final int minBatteryLevel;
+        private final long maxMeteredBytes;
+
+        private Constraints(Builder builder) {
+            this.unmeteredOnly = builder.unmeteredOnly;
+            this.chargingOnly = builder.chargingOnly;
+            this.minBatteryLevel = builder.minBatteryLevel;
+            this.maxMeteredBytes = builder.maxMeteredBytes;
+        }
+
+        public boolean isUnmeteredOnly() {
+            return unmeteredOnly;
+        }
+
+        public boolean isChargingOnly() {
+            return chargingOnly;
+        }
+
+        public int getMinBatteryLevel() {
+            return minBatteryLevel;
+        }
+
+        public long getMaxMeteredBytes() {
+            return maxMeteredBytes;
+        }
+
+        // Checks the constraints against the device and the bytes the batch has received over metered networks.
+        // Nothing runs while the device is offline. An unknown battery level does not hold a request back.
+        boolean isMet(DeviceState state, long meteredBytes) {
+            if (!state.isConnected()) {
+                return false;
+            }
+            boolean metered = state.isMetered();
+            if (metered && (unmeteredOnly || (maxMeteredBytes >= 0 && meteredBytes >= maxMeteredBytes))) {
+                return false;
+            }
+            boolean charging = state.isCharging();
+            if (chargingOnly && !charging) {
+                return false;
+            }
+            if (minBatteryLevel > 0 && !charging) {
+                int level = state.getBatteryLevel();
+                if (level >= 0 && level < minBatteryLevel) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+
+        // Builder for Constraints
+        public static class Builder {
+            private boolean unmeteredOnly = false;
+            private boolean chargingOnly = false;
+            private int minBatteryLevel = 0;
+            private long maxMeteredBytes = -1;
+
+            // Only downloads over networks that are not billed by the byte, such as wifi
+            public Builder setUnmeteredOnly(boolean unmeteredOnly) {
+                this.unmeteredOnly = unmeteredOnly;
+                return this;
+            }
+
+            // Only downloads while the device is plugged in
+            public Builder setChargingOnly(boolean chargingOnly) {
+                this.chargingOnly = chargingOnly;
+                return this;
+            }
+
+            // Waits while the battery is below percent and the device is not plugged in. Pass 0 to ignore the battery.
+            public Builder setMinBatteryLevel(int percent) {
+                this.minBatteryLevel = percent;
+                return this;
+            }
+
+            // Stops downloading over metered networks once the batch has received maxBytes over them. The rest waits
+            // for an unmetered network. Pass -1 for no cap.
+            public Builder setMaxMeteredBytes(long maxBytes) {
+                this.maxMeteredBytes = maxBytes;
+                return this;
+            }
+
+            public Constraints build() {
+                if (minBatteryLevel < 0 || minBatteryLevel > 100) {
+                    throw new IllegalArgumentException("Battery level must be between 0 and 100.");
+                }
+                if (maxMeteredBytes < -1) {
+                    throw new IllegalArgumentException("Metered byte cap must be -1, 0 or positive.");
+                }
+                return new Constraints(this);
+            }
+        }
+    }
+
+
+    // Progress of the whole batch as read at one moment. Each value is current on its own but they are not read
+    // together, so for example getBytesDownloaded() may already include a file that getFilesRemaining() still counts.
+    public static class Progress {
+        private final long bytesDownloaded;
+        private final long bytesDecoded;
+        private final long totalBytes;
+        private final int errorCount;
+        private final int filesRemaining;
+        private final int concurrency;
+        private final long bytesPerSecond;
+        private final long rateLimit;
+        private final List<RequestProgress> requests;
+
+        Progress(long bytesDownloaded, long bytesDecoded, long totalBytes, int errorCount, int filesRemaining, int concurrency, long bytesPerSecond, long rateLimit, List<RequestProgress> requests) {
+            this.bytesDownloaded = bytesDownloaded;
+            this.bytesDecoded = bytesDecoded;
+            this.totalBytes = totalBytes;
+            this.errorCount = errorCount;
+            this.filesRemaining = filesRemaining;
+            this.concurrency = concurrency;
+            this.bytesPerSecond = bytesPerSecond;
+            this.rateLimit = rateLimit;
+            this.requests = Collections.unmodifiableList(requests);
+        }
+
+        // Bytes received on the wire. Compares with getTotalBytes(), which comes from the same Content-Length headers.
+        public long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        // Bytes written to disk after decompression
+        public long getBytesDecoded() {
+            return bytesDecoded;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        public int getFilesRemaining() {
+            return filesRemaining;
+        }
+
+        // Number of downloads allowed to run at the same time
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        // Measured download rate over the last second or so
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        // Rate limit in bytes per second, or 0 if unlimited
+        public long getRateLimit() {
+            return rateLimit;
+        }
+
+        // Progress of the requests that are currently downloading
+        public List<RequestProgress> getRequests() {
+            return requests;
+        }
+    }
+
+
+    // Snapshot of the progress of a single request
+    public static class RequestProgress {
+        private final String url;
+        private final long bytesDownloaded;
+        private final long totalBytes;
+        private final int attempts;
+        private final long bytesExtracted;
+        private final int entriesExtracted;
+
+        RequestProgress(Request request) {
+            this.url = request.url;
+            this.bytesDownloaded = request.bytesDownloaded.get();
+            this.totalBytes = request.contentLength;
+            this.attempts = request.attempts.get();
+            ArchiveExtractor extractor = request.extractor;
+            this.bytesExtracted = (extractor != null) ? extractor.getBytesRead() : 0;
+            this.entriesExtracted = (extractor != null) ? extractor.getEntries() : 0;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public long getBytesDownloaded() {
+            return bytesDownloaded;
+        }
+
+        // Returns -1 if the size is not known yet
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        // Number of times the request has been tried, including the current attempt
+        public int getAttempts() {
+            return attempts;
+        }
+
+        // Bytes of the archive read by the extraction so far, comparable to getBytesDownloaded()
+        public long getBytesExtracted() {
+            return bytesExtracted;
+        }
+
+        public int getEntriesExtracted() {
+            return entriesExtracted;
+        }
+    }
+
+
+    /**
+     * Exception Classes
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Exception for the specified download folder not being a directory
+    static class NotADirectoryException extends Exception {
+        @Override
+        public String getMessage() {
+            return "The download folder specified is not a directory.";
+        }
+    }
+
+
+    // Exception for the URL replying with a response the download can not use
+    static class BadHTTPResponseException extends Exception {
+        private final int responseCode;
+        private final String retryAfter;
+
+        // For a response that was cut short
+        BadHTTPResponseException() {
+            this(null);
+        }
+
+        // Keeps the response code and Retry-After header so the failure can be classified for a retry
+        BadHTTPResponseException(Transport.Response response) {
+            this.responseCode = (response != null) ? response.getResponseCode() : -1;
+            this.retryAfter = (response != null) ? response.getHeader("Retry-After") : null;
+        }
+
+        @Override
+        public String getMessage() {
+            if (responseCode > 0) {
+                return "The URL has replied with a bad response (" + responseCode + ").";
+            }
+            return "The URL has replied with a bad response.";
+        }
+    }
+
+
+    // Exception for a downloaded file not matching the expected size or checksum of its request
+    private class FailedVerificationException extends Exception {
+        private final String mismatch;
+
+        FailedVerificationException(String mismatch) {
+            this.mismatch = mismatch;
+        }
+
+        @Override
+        public String getMessage() {
+            return "The download failed verification (" + mismatch + ").";
+        }
+    }
+
+
+    // Exception for a downloaded archive that could not be extracted
+    private class FailedExtractionException extends Exception {
+        FailedExtractionException(Exception cause) {
+            super(cause);
+        }
+
+        @Override
+        public String getMessage() {
+            return "The download failed to be extracted (" + getCause().getMessage() + ").";
+        }
+    }
+
+
+    // Exception for not being able to move download to download folder
+    private class FailedFileWriteException extends Exception {
+        @Override
+        public String getMessage() {
+            return "The download failed to be written to the requested folder.";
+        }
+    }
+}
\ No newline at end of file
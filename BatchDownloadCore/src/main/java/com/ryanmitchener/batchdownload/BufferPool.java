@@ -0,0 +1,80 @@
+package com.ryanmitchener.batchdownload;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Bounded pool of reusable direct buffers so the read/write loop does not allocate per download or per chunk
+final class BufferPool {
+    private final int bufferSize;
+    private final int capacity;
+    private final LinkedBlockingQueue<ByteBuffer> buffers = new LinkedBlockingQueue<ByteBuffer>();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Size in bytes of every buffer in the pool
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+
+    // Takes a buffer from the pool, allocating one if the pool has not reached its capacity yet.
+    // Waits for a buffer to be released once every buffer is in use.
+    ByteBuffer acquire() throws InterruptedException {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        if (allocated.incrementAndGet() <= capacity) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        allocated.decrementAndGet();
+        return buffers.take();
+    }
+
+
+    // Returns a buffer to the pool
+    void release(ByteBuffer buffer) {
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+}
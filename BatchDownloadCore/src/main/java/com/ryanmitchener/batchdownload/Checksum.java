@@ -0,0 +1,135 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Checksum computed over the bytes as they are written so a download is verified without reading it back.
+// Supports the MessageDigest algorithms and CRC32C, which the platform does not provide before API 26.
+final class Checksum {
+    // Algorithms
+    final static String SHA256 = "SHA-256";
+    final static String MD5 = "MD5";
+    final static String CRC32C = "CRC32C";
+
+    // Reflected Castagnoli polynomial
+    private final static int CRC32C_POLYNOMIAL = 0x82F63B78;
+    private final static int[] CRC32C_TABLE = new int[256];
+    private final static int BUFFER_SIZE = 16 * 1024;
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = ((crc & 1) != 0) ? (crc >>> 1) ^ CRC32C_POLYNOMIAL : crc >>> 1;
+            }
+            CRC32C_TABLE[i] = crc;
+        }
+    }
+
+    private final MessageDigest digest;
+    private int crc = 0xFFFFFFFF;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    private Checksum(MessageDigest digest) {
+        this.digest = digest;
+    }
+
+
+    // Creates a checksum for an algorithm, throwing IllegalArgumentException if it is not supported
+    static Checksum create(String algorithm) {
+        if (CRC32C.equalsIgnoreCase(algorithm)) {
+            return new Checksum(null);
+        }
+        try {
+            return new Checksum(MessageDigest.getInstance(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm);
+        }
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Adds the remaining bytes of a buffer without moving its position
+    void update(ByteBuffer buffer) {
+        if (digest != null) {
+            digest.update(buffer.duplicate());
+            return;
+        }
+        int crc = this.crc;
+        for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+            crc = (crc >>> 8) ^ CRC32C_TABLE[(crc ^ buffer.get(i)) & 0xFF];
+        }
+        this.crc = crc;
+    }
+
+
+    // Adds the first length bytes of a file, used for the part a resumed download already has on disk
+    void update(File file, long length) throws IOException {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long remaining = length;
+            int bytesRead;
+            while (remaining > 0 && (bytesRead = is.read(bytes, 0, (int) Math.min(bytes.length, remaining))) != -1) {
+                buffer.clear();
+                buffer.limit(bytesRead);
+                update(buffer);
+                remaining -= bytesRead;
+            }
+        } finally {
+            Utils.closeQuietly(is);
+        }
+    }
+
+
+    // Returns the checksum in lower case hex. CRC32C is written big-endian as 8 digits.
+    String toHex() {
+        if (digest != null) {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : digest.digest()) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        }
+        return String.format(Locale.US, "%08x", ~crc);
+    }
+}
@@ -0,0 +1,161 @@
+package com.ryanmitchener.batchdownload;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Hill climbing controller for the number of concurrent downloads. Every sample interval it compares the
+// aggregate throughput with the previous interval: keeps moving in the same direction while throughput improves,
+// reverses when it drops, and backs off when throughput is flat, connection latency climbs or requests fail with
+// transient errors, since extra connections that add nothing only add load.
+final class ConcurrencyController {
+    private final static long SAMPLE_INTERVAL_NANOS = 2000000000L;
+    private final static double TOLERANCE = 0.05;
+    private final static double LATENCY_LIMIT = 2.0;
+
+    private final int min;
+    private final int max;
+    private int concurrency;
+    private int direction = 1;
+
+    // Throughput sampling
+    private long lastSampleTime = -1;
+    private long lastBytes = 0;
+    private double lastThroughput = -1;
+
+    // Connection latency, recorded by the download threads
+    private final AtomicLong latencyTotal = new AtomicLong();
+    private final AtomicLong latencyCount = new AtomicLong();
+    private double baselineLatency = -1;
+
+    // Transient failures such as timeouts or 503 responses, recorded by the download threads
+    private final AtomicInteger errors = new AtomicInteger();
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    ConcurrencyController(int min, int max, int initial) {
+        this.min = min;
+        this.max = max;
+        this.concurrency = Math.max(min, Math.min(max, initial));
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Records the time from opening a connection to receiving the response code
+    void recordLatency(long millis) {
+        latencyTotal.addAndGet(millis);
+        latencyCount.incrementAndGet();
+    }
+
+
+    // Records a request that failed in a way more connections could have caused, such as a timeout or a 503
+    void recordError() {
+        errors.incrementAndGet();
+    }
+
+
+    // Returns the current concurrency
+    synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+
+    // Samples the total bytes downloaded and returns the concurrency to use from now on
+    synchronized int update(long now, long totalBytes) {
+        if (lastSampleTime < 0 || totalBytes < lastBytes) {
+            // First sample of a batch
+            lastSampleTime = now;
+            lastBytes = totalBytes;
+            return concurrency;
+        }
+        long elapsed = now - lastSampleTime;
+        if (elapsed < SAMPLE_INTERVAL_NANOS) {
+            return concurrency;
+        }
+
+        double throughput = (totalBytes - lastBytes) / (double) elapsed;
+        double latency = takeAverageLatency();
+        int failed = errors.getAndSet(0);
+        lastSampleTime = now;
+        lastBytes = totalBytes;
+
+        if (failed > 0) {
+            // The server or the network is turning requests away
+            direction = -1;
+        } else if (lastThroughput >= 0) {
+            if (latency > 0 && baselineLatency > 0 && latency > baselineLatency * LATENCY_LIMIT) {
+                // Connections are queueing up somewhere, so back off
+                direction = -1;
+            } else if (throughput > lastThroughput * (1 + TOLERANCE)) {
+                // The last move helped, keep going
+            } else if (throughput < lastThroughput * (1 - TOLERANCE)) {
+                direction = -direction;
+            } else {
+                // No difference, prefer fewer connections
+                direction = -1;
+            }
+        }
+        if (latency > 0 && (baselineLatency < 0 || latency < baselineLatency)) {
+            baselineLatency = latency;
+        }
+        lastThroughput = throughput;
+
+        // Bounce off the limits
+        int next = concurrency + direction;
+        if (next < min || next > max) {
+            direction = -direction;
+            next = concurrency + direction;
+        }
+        concurrency = Math.max(min, Math.min(max, next));
+        return concurrency;
+    }
+
+
+    // Starts sampling from scratch for a new batch, keeping the concurrency that was learned
+    synchronized void reset() {
+        lastSampleTime = -1;
+        lastBytes = 0;
+        lastThroughput = -1;
+        direction = 1;
+        takeAverageLatency();
+        errors.set(0);
+    }
+
+
+    // Returns the average latency since the last call or -1 if no connections were made
+    private double takeAverageLatency() {
+        long count = latencyCount.getAndSet(0);
+        long total = latencyTotal.getAndSet(0);
+        return (count > 0) ? total / (double) count : -1;
+    }
+}
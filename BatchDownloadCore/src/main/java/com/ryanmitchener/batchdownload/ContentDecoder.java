@@ -0,0 +1,97 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Negotiates and decodes compressed response bodies. Brotli is not offered since the platform has no decoder for it.
+final class ContentDecoder {
+    // Value of the Accept-Encoding header for requests that may be compressed
+    final static String ACCEPT_ENCODING = "gzip, deflate";
+
+    // Value of the Accept-Encoding header for Range requests, whose offsets only make sense on the raw bytes
+    final static String IDENTITY = "identity";
+
+    private ContentDecoder() {}
+
+
+    // Checks if a Content-Encoding header means the body is compressed
+    static boolean isEncoded(String contentEncoding) {
+        return contentEncoding != null && !contentEncoding.trim().isEmpty() && !IDENTITY.equalsIgnoreCase(contentEncoding.trim());
+    }
+
+
+    // Wraps a body in a streaming decoder for its Content-Encoding
+    static InputStream wrap(InputStream in, String contentEncoding) throws IOException {
+        if (!isEncoded(contentEncoding)) {
+            return in;
+        }
+        String encoding = contentEncoding.trim().toLowerCase(Locale.US);
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GzipDecoder(in);
+        }
+        if (encoding.equals("deflate")) {
+            return new DeflateDecoder(in);
+        }
+        throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+    }
+
+
+    // Frees the native inflater of a decoder without closing the body underneath, which the transport still owns
+    static void release(InputStream decoded) {
+        if (decoded instanceof GzipDecoder) {
+            ((GzipDecoder) decoded).release();
+        } else if (decoded instanceof DeflateDecoder) {
+            ((DeflateDecoder) decoded).release();
+        }
+    }
+
+
+    // gzip decoder that can free its inflater without closing the stream it reads from
+    private static class GzipDecoder extends GZIPInputStream {
+        GzipDecoder(InputStream in) throws IOException {
+            super(in, 8192);
+        }
+
+        void release() {
+            inf.end();
+        }
+    }
+
+
+    // zlib decoder for the deflate encoding that can free its inflater without closing the stream it reads from
+    private static class DeflateDecoder extends InflaterInputStream {
+        DeflateDecoder(InputStream in) {
+            super(in);
+        }
+
+        void release() {
+            inf.end();
+        }
+    }
+}
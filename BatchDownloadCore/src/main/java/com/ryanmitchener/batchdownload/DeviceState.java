@@ -0,0 +1,48 @@
+package com.ryanmitchener.batchdownload;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Tells BatchDownload about the network and power so requests with Constraints wait until theirs are met. Set one
+// with BatchDownload.setDeviceState(); on Android AndroidBatchDownload sets one up. Tests can pass a fake. The getters
+// are called from the download threads and should return cached values, and the listener must be called whenever
+// any of them changes since nothing else wakes the deferred requests.
+public interface DeviceState {
+    boolean isConnected();
+
+    // Returns true if the active network is billed by the byte, such as cellular
+    boolean isMetered();
+
+    boolean isCharging();
+
+    // Returns the battery level from 0 to 100, or -1 if it is unknown
+    int getBatteryLevel();
+
+    // Sets the listener to call on changes, or null to stop calling it
+    void setListener(Listener listener);
+
+
+    interface Listener {
+        void onDeviceStateChanged();
+    }
+}
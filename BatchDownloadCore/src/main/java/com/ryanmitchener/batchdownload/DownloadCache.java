@@ -0,0 +1,425 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Cache of finished downloads keyed by url. Each entry keeps the validators of the response so it can be revalidated
+// with a conditional GET, the destination the file was moved to, and optionally a copy of the content stored under
+// its SHA-256 hash so urls with identical content share one copy. Copies are evicted least recently used first.
+class DownloadCache {
+    // File extensions
+    private final static String ENTRY_EXTENSION = ".entry";
+    private final static String BLOB_EXTENSION = ".blob";
+    private final static String TEMP_EXTENSION = ".tmp";
+
+    // Entry keys
+    private final static String KEY_URL = "url";
+    private final static String KEY_ETAG = "etag";
+    private final static String KEY_LAST_MODIFIED = "lastModified";
+    private final static String KEY_LENGTH = "length";
+    private final static String KEY_HASH = "hash";
+    private final static String KEY_DESTINATION = "destination";
+    private final static String KEY_DESTINATION_MODIFIED = "destinationModified";
+
+    // Entries without a copy only cost a small file each but are still limited
+    private final static int MAX_ENTRIES = 4096;
+    private final static int BUFFER_SIZE = 16 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+    // Entries by the key of their url, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final HashMap<String, Integer> blobReferences = new HashMap<String, Integer>();
+    private long blobBytes = 0;
+    private boolean loaded = false;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    DownloadCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+
+    // Returns the number of bytes of copies the cache may hold
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+
+    /**
+     * Lookup
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns the entry for a url if either the destination file is unchanged since it was downloaded or a copy of
+    // the content is stored. Returns null if there is nothing that a 304 response could be served from.
+    synchronized Entry get(String url, File destination) {
+        load();
+        Entry entry = entries.get(PartialDownload.keyFor(url));
+        if (entry == null || !entry.url.equals(url)) {
+            return null;
+        }
+        if (entry.isCurrent(destination) || (entry.hash != null && getBlobFile(entry.hash).isFile())) {
+            // Touch the entry so it survives the next load in the same LRU position
+            entry.file.setLastModified(System.currentTimeMillis());
+            return entry;
+        }
+        return null;
+    }
+
+
+    // Writes the content of an entry to a file. Returns false if the copy was evicted in the meantime.
+    boolean copyTo(Entry entry, File target) throws IOException {
+        if (entry.hash == null) {
+            return false;
+        }
+        File blob = getBlobFile(entry.hash);
+        try {
+            Utils.copy(blob, target);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Storing
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Records a finished download. Nothing is stored without a validator since it could never be revalidated.
+    // The content is copied into the cache if it fits, hashing it on the way so identical content is stored once.
+    void put(String url, String etag, String lastModified, File destination) throws IOException {
+        if (etag == null && lastModified == null) {
+            return;
+        }
+        long length = destination.length();
+        String hash = null;
+        if (maxBytes > 0 && length <= maxBytes) {
+            hash = storeBlob(destination);
+        }
+
+        String key = PartialDownload.keyFor(url);
+        Entry entry = new Entry(new File(directory, key + ENTRY_EXTENSION), url);
+        entry.etag = etag;
+        entry.lastModified = lastModified;
+        entry.length = length;
+        entry.hash = hash;
+        entry.destination = destination.getAbsolutePath();
+        entry.destinationModified = destination.lastModified();
+        entry.save();
+
+        synchronized (this) {
+            load();
+            // Retain the new copy first in case the content did not change and the old entry refers to the same blob
+            if (hash != null) {
+                retainBlob(hash, length);
+            }
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                releaseBlob(previous.hash, previous.length);
+            }
+            trim();
+        }
+    }
+
+
+    // Copies a file into the blob store under its SHA-256 hash and returns the hash
+    private String storeBlob(File source) throws IOException {
+        directory.mkdirs();
+        File temp = File.createTempFile("blob", TEMP_EXTENSION, directory);
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        InputStream is = null;
+        OutputStream os = null;
+        try {
+            is = new FileInputStream(source);
+            os = new FileOutputStream(temp);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+                os.write(buffer, 0, bytesRead);
+            }
+        } catch (IOException e) {
+            Utils.closeQuietly(os);
+            temp.delete();
+            throw e;
+        } finally {
+            Utils.closeQuietly(is);
+            Utils.closeQuietly(os);
+        }
+
+        // Keep the existing copy if the same content is already stored
+        String hash = toHex(digest.digest());
+        File blob = getBlobFile(hash);
+        if (blob.isFile() || !temp.renameTo(blob)) {
+            temp.delete();
+        }
+        return hash;
+    }
+
+
+    /**
+     * Eviction
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Counts a reference to a blob
+    private void retainBlob(String hash, long length) {
+        Integer references = blobReferences.get(hash);
+        if (references == null) {
+            blobBytes += length;
+            blobReferences.put(hash, 1);
+        } else {
+            blobReferences.put(hash, references + 1);
+        }
+    }
+
+
+    // Drops a reference to a blob, deleting it once nothing refers to it
+    private void releaseBlob(String hash, long length) {
+        if (hash == null) {
+            return;
+        }
+        Integer references = blobReferences.get(hash);
+        if (references == null) {
+            return;
+        }
+        if (references > 1) {
+            blobReferences.put(hash, references - 1);
+            return;
+        }
+        blobReferences.remove(hash);
+        blobBytes -= length;
+        getBlobFile(hash).delete();
+    }
+
+
+    // Evicts the least recently used entries until the copies fit in maxBytes
+    private void trim() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext() && (blobBytes > maxBytes || entries.size() > MAX_ENTRIES)) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            entry.file.delete();
+            releaseBlob(entry.hash, entry.length);
+        }
+    }
+
+
+    // Loads the entries on first use, ordered by when they were last used, and removes unreferenced blobs
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        ArrayList<Entry> loadedEntries = new ArrayList<Entry>();
+        for (File file : files) {
+            if (file.getName().endsWith(ENTRY_EXTENSION)) {
+                Entry entry = Entry.load(file);
+                if (entry != null) {
+                    loadedEntries.add(entry);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        Collections.sort(loadedEntries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                long lhs = a.file.lastModified();
+                long rhs = b.file.lastModified();
+                return (lhs < rhs) ? -1 : ((lhs == rhs) ? 0 : 1);
+            }
+        });
+        for (Entry entry : loadedEntries) {
+            if (entry.hash != null && !getBlobFile(entry.hash).isFile()) {
+                entry.hash = null;
+            }
+            entries.put(PartialDownload.keyFor(entry.url), entry);
+            if (entry.hash != null) {
+                retainBlob(entry.hash, entry.length);
+            }
+        }
+
+        // Remove copies no entry refers to and temporary files left by a process that was killed
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_EXTENSION)) {
+                file.delete();
+            } else if (name.endsWith(BLOB_EXTENSION) && !blobReferences.containsKey(name.substring(0, name.length() - BLOB_EXTENSION.length()))) {
+                file.delete();
+            }
+        }
+        trim();
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns the file a blob is stored in
+    private File getBlobFile(String hash) {
+        return new File(directory, hash + BLOB_EXTENSION);
+    }
+
+
+    // Converts a hash to lower case hex
+    private static String toHex(byte[] hash) {
+        StringBuilder builder = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+            builder.append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+
+    // A url downloaded by a previous batch
+    static class Entry {
+        private final File file;
+        private final String url;
+        private String etag = null;
+        private String lastModified = null;
+        private long length = -1;
+        private String hash = null;
+        private String destination = null;
+        private long destinationModified = 0;
+
+        private Entry(File file, String url) {
+            this.file = file;
+            this.url = url;
+        }
+
+        // Returns the length of the content
+        long getLength() {
+            return length;
+        }
+
+        // Adds the headers that turn a GET into a conditional GET
+        void addConditionalHeaders(Map<String, String> headers) {
+            if (etag != null) {
+                headers.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                headers.put("If-Modified-Since", lastModified);
+            }
+        }
+
+        // Checks if a destination file is still the one this entry was downloaded to and has not been touched since
+        boolean isCurrent(File file) {
+            return destination != null && destination.equals(file.getAbsolutePath()) && file.isFile()
+                    && file.length() == length && file.lastModified() == destinationModified;
+        }
+
+        // Loads an entry, returning null if it is unreadable
+        private static Entry load(File file) {
+            Properties properties = new Properties();
+            InputStream is = null;
+            try {
+                is = new FileInputStream(file);
+                properties.load(is);
+                String url = properties.getProperty(KEY_URL);
+                if (url == null) {
+                    return null;
+                }
+                Entry entry = new Entry(file, url);
+                entry.etag = properties.getProperty(KEY_ETAG);
+                entry.lastModified = properties.getProperty(KEY_LAST_MODIFIED);
+                entry.length = Long.parseLong(properties.getProperty(KEY_LENGTH, "-1"));
+                entry.hash = properties.getProperty(KEY_HASH);
+                entry.destination = properties.getProperty(KEY_DESTINATION);
+                entry.destinationModified = Long.parseLong(properties.getProperty(KEY_DESTINATION_MODIFIED, "0"));
+                return entry;
+            } catch (Exception e) {
+                return null;
+            } finally {
+                Utils.closeQuietly(is);
+            }
+        }
+
+        // Saves the entry to disk
+        private void save() throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty(KEY_URL, url);
+            if (etag != null) {
+                properties.setProperty(KEY_ETAG, etag);
+            }
+            if (lastModified != null) {
+                properties.setProperty(KEY_LAST_MODIFIED, lastModified);
+            }
+            properties.setProperty(KEY_LENGTH, String.valueOf(length));
+            if (hash != null) {
+                properties.setProperty(KEY_HASH, hash);
+            }
+            if (destination != null) {
+                properties.setProperty(KEY_DESTINATION, destination);
+            }
+            properties.setProperty(KEY_DESTINATION_MODIFIED, String.valueOf(destinationModified));
+            file.getParentFile().mkdirs();
+            OutputStream os = new FileOutputStream(file);
+            try {
+                properties.store(os, null);
+            } finally {
+                Utils.closeQuietly(os);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.File;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Something that happened to a request, a batch or the downloader. The type is one of the BatchDownload.ACTION_*
+// constants, matching the broadcast that is sent for it.
+public final class DownloadEvent {
+    private final String type;
+    private final int batchId;
+    private final String url;
+    private final File file;
+    private final int attempts;
+    private final Exception error;
+    private final BatchDownload.Progress progress;
+
+    private DownloadEvent(String type, int batchId, String url, File file, int attempts, Exception error, BatchDownload.Progress progress) {
+        this.type = type;
+        this.batchId = batchId;
+        this.url = url;
+        this.file = file;
+        this.attempts = attempts;
+        this.error = error;
+        this.progress = progress;
+    }
+
+
+    /**
+     * Factories
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Sizes are being calculated for a new run
+    static DownloadEvent calculating() {
+        return new DownloadEvent(BatchDownload.ACTION_CALCULATING, 0, null, null, 0, null, null);
+    }
+
+
+    // A request finished and its file is in place
+    static DownloadEvent fileDownloaded(int batchId, String url, File file) {
+        return new DownloadEvent(BatchDownload.ACTION_FILE_DOWNLOADED, batchId, url, file, 0, null, null);
+    }
+
+
+    // A request failed for good
+    static DownloadEvent error(int batchId, String url, int attempts, Exception error) {
+        return new DownloadEvent(BatchDownload.ACTION_ERROR, batchId, url, null, attempts, error, null);
+    }
+
+
+    // Every request of a batch finished or the batch was cancelled
+    static DownloadEvent batchFinished(int batchId, boolean cancelled, BatchDownload.Progress progress) {
+        return new DownloadEvent(cancelled ? BatchDownload.ACTION_BATCH_CANCELLED : BatchDownload.ACTION_BATCH_COMPLETE, batchId, null, null, 0, null, progress);
+    }
+
+
+    // Nothing is left to download, either because everything finished or because of cancel()
+    static DownloadEvent finished(boolean cancelled, BatchDownload.Progress progress) {
+        return new DownloadEvent(cancelled ? BatchDownload.ACTION_CANCELLED : BatchDownload.ACTION_COMPLETE, 0, null, null, 0, null, progress);
+    }
+
+
+    /**
+     * Getters
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns one of the BatchDownload.ACTION_* constants
+    public String getType() {
+        return type;
+    }
+
+    // Returns 0 for events that do not belong to a batch
+    public int getBatchId() {
+        return batchId;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    // Only set for ACTION_FILE_DOWNLOADED
+    public File getFile() {
+        return file;
+    }
+
+    // Only set for ACTION_ERROR
+    public int getAttempts() {
+        return attempts;
+    }
+
+    // Only set for ACTION_ERROR
+    public Exception getError() {
+        return error;
+    }
+
+    // Progress when the event happened. Only set for the batch and completion events; the batch events carry the
+    // progress of their batch.
+    public BatchDownload.Progress getProgress() {
+        return progress;
+    }
+}
@@ -0,0 +1,298 @@
+package com.ryanmitchener.batchdownload;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Snapshot of where the time of the downloads went since metrics were enabled with
+// BatchDownload.setMetricsEnabled(). Phase timings are distributions over every attempt in microseconds, so a slow
+// batch can be pinned on the queue, DNS, connecting, TLS, the server (time to first byte and reading) or the disk
+// (writing and finishing). Throughput per host is a distribution over every transfer in bytes per second.
+public final class DownloadMetrics {
+    // Time a download task waited in the download queue for a thread and a host slot
+    public final static String PHASE_QUEUE = "queue";
+
+    // Connection setup. Only reported by transports that can tell, such as PooledTransport, and only for requests
+    // that opened a new connection.
+    public final static String PHASE_DNS = "dns";
+    public final static String PHASE_CONNECT = "connect";
+    public final static String PHASE_TLS = "tls";
+
+    // From sending the request to receiving the response headers, less any connection setup
+    public final static String PHASE_FIRST_BYTE = "first_byte";
+
+    // Time blocked reading the response body, including waits for rate limits
+    public final static String PHASE_READ = "read";
+
+    // Time spent writing the body to disk
+    public final static String PHASE_WRITE = "write";
+
+    // Verifying, waiting for extraction and moving the file into place
+    public final static String PHASE_FINISH = "finish";
+
+    // A whole attempt on a download thread, from taking the task to handing the thread back
+    public final static String PHASE_ATTEMPT = "attempt";
+
+    private final long elapsedMillis;
+    private final long bytes;
+    private final long bytesPerSecond;
+    private final long requestsCompleted;
+    private final long requestsFailed;
+    private final long retries;
+    private final int concurrency;
+    private final double averageBusyWorkers;
+    private final Map<String, Distribution> phases;
+    private final Map<String, Distribution> hostThroughput;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    DownloadMetrics(long elapsedMillis, long bytes, long bytesPerSecond, long requestsCompleted, long requestsFailed, long retries, int concurrency, double averageBusyWorkers, Map<String, Distribution> phases, Map<String, Distribution> hostThroughput) {
+        this.elapsedMillis = elapsedMillis;
+        this.bytes = bytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.requestsCompleted = requestsCompleted;
+        this.requestsFailed = requestsFailed;
+        this.retries = retries;
+        this.concurrency = concurrency;
+        this.averageBusyWorkers = averageBusyWorkers;
+        this.phases = Collections.unmodifiableMap(phases);
+        this.hostThroughput = Collections.unmodifiableMap(hostThroughput);
+    }
+
+
+    /**
+     * Getters
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns the time since metrics were enabled
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+
+    // Returns the bytes written by all transfers since metrics were enabled
+    public long getBytes() {
+        return bytes;
+    }
+
+
+    // Returns the current download rate, the same one sent in EXTRA_BYTES_PER_SECOND
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+
+    // Returns the bytes written per second averaged over the time since metrics were enabled
+    public long getAverageBytesPerSecond() {
+        return (elapsedMillis > 0) ? bytes * 1000 / elapsedMillis : 0;
+    }
+
+
+    public long getRequestsCompleted() {
+        return requestsCompleted;
+    }
+
+
+    public long getRequestsFailed() {
+        return requestsFailed;
+    }
+
+
+    // Returns the number of failed attempts that were tried again
+    public long getRetries() {
+        return retries;
+    }
+
+
+    // Returns the number of downloads allowed to run at the same time when the snapshot was taken
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+
+    // Returns the average number of download threads that were working since metrics were enabled. A task's time is
+    // counted once it finishes, so long downloads still running are not included yet.
+    public double getAverageBusyWorkers() {
+        return averageBusyWorkers;
+    }
+
+
+    // Returns the average busy workers as a fraction of the current concurrency. Close to 1 means the pool is the
+    // bottleneck; well below 1 with work queued means the per-host limits or retries are holding downloads back.
+    public double getWorkerUtilization() {
+        return (concurrency > 0) ? Math.min(1, averageBusyWorkers / concurrency) : 0;
+    }
+
+
+    // Returns the distribution of a phase in microseconds, keyed by the PHASE_* constants
+    public Distribution getPhase(String phase) {
+        return phases.get(phase);
+    }
+
+
+    // Returns every phase in the order they happen
+    public Map<String, Distribution> getPhases() {
+        return phases;
+    }
+
+
+    // Returns the throughput of transfers in bytes per second per host. Once 256 hosts are tracked the rest are
+    // counted under "other".
+    public Map<String, Distribution> getHostThroughput() {
+        return hostThroughput;
+    }
+
+
+    /**
+     * JSON
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns the snapshot as a JSON object
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"elapsed_ms\":").append(elapsedMillis);
+        json.append(",\"bytes\":").append(bytes);
+        json.append(",\"bytes_per_second\":").append(bytesPerSecond);
+        json.append(",\"average_bytes_per_second\":").append(getAverageBytesPerSecond());
+        json.append(",\"requests_completed\":").append(requestsCompleted);
+        json.append(",\"requests_failed\":").append(requestsFailed);
+        json.append(",\"retries\":").append(retries);
+        json.append(",\"concurrency\":").append(concurrency);
+        json.append(",\"average_busy_workers\":").append(String.format(Locale.US, "%.3f", averageBusyWorkers));
+        json.append(",\"worker_utilization\":").append(String.format(Locale.US, "%.3f", getWorkerUtilization()));
+        json.append(",\"phases_us\":");
+        appendDistributions(json, phases);
+        json.append(",\"host_bytes_per_second\":");
+        appendDistributions(json, hostThroughput);
+        json.append('}');
+        return json.toString();
+    }
+
+
+    private static void appendDistributions(StringBuilder json, Map<String, Distribution> distributions) {
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Distribution> entry : distributions.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            appendString(json, entry.getKey());
+            json.append(':');
+            entry.getValue().appendJson(json);
+        }
+        json.append('}');
+    }
+
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+
+    /**
+     * Distribution
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Distribution of recorded values. Percentiles are accurate to within 12.5%; the count, mean and max are exact.
+    public static final class Distribution {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Distribution(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.sum = sum;
+            long total = 0;
+            for (long bucket : counts) {
+                total += bucket;
+            }
+            this.count = total;
+            this.max = (total > 0) ? max : 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean() {
+            return (count > 0) ? sum / count : 0;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        // Returns the value below which the given percentage of values fall, for example 99 for the p99. Values are
+        // reported as the middle of their bucket, except for the largest, which is known exactly.
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            if (rank >= count) {
+                return max;
+            }
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(Histogram.midpoint(i), max);
+                }
+            }
+            return max;
+        }
+
+        private void appendJson(StringBuilder json) {
+            json.append("{\"count\":").append(count);
+            json.append(",\"mean\":").append(getMean());
+            json.append(",\"p50\":").append(getPercentile(50));
+            json.append(",\"p90\":").append(getPercentile(90));
+            json.append(",\"p99\":").append(getPercentile(99));
+            json.append(",\"max\":").append(max);
+            json.append('}');
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.ryanmitchener.batchdownload;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Work queue for the download pool. Tasks are kept in a priority-ordered set per host and handed out from the
+// host with the most urgent task, going round-robin across hosts whose tasks are equally urgent and skipping
+// hosts that already have the maximum number of tasks running. Tasks taken from the queue must be given back
+// with release() once they finish so the host's slot is freed.
+final class DownloadQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    // Base class for queued tasks. The scheduling fields belong to the queue and only change under its lock.
+    abstract static class Task implements Runnable {
+        private final String host;
+        private int priority;
+        private long size;
+        private long sequence;
+
+        Task(String host, int priority, long size) {
+            this.host = (host != null) ? host : "";
+            this.priority = priority;
+            this.size = size;
+        }
+
+        String getHost() {
+            return host;
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    // Hosts in round-robin order. A host moves to the back after a task is taken from it.
+    private final LinkedHashMap<String, TreeSet<Task>> queues = new LinkedHashMap<String, TreeSet<Task>>();
+    private final HashMap<String, Integer> running = new HashMap<String, Integer>();
+    private int maxPerHost = 0;
+    private boolean smallestFirst = false;
+    private long nextSequence = 0;
+    private int count = 0;
+
+    // Orders tasks by rank, then first in first out
+    private final Comparator<Task> order = new Comparator<Task>() {
+        @Override
+        public int compare(Task a, Task b) {
+            int rank = compareRank(a, b);
+            if (rank != 0) {
+                return rank;
+            }
+            return (a.sequence < b.sequence) ? -1 : ((a.sequence == b.sequence) ? 0 : 1);
+        }
+    };
+
+
+    /**
+     * Configuration
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Sets the maximum number of tasks that run at once for a single host. 0 means no limit.
+    void setMaxPerHost(int maxPerHost) {
+        lock.lock();
+        try {
+            this.maxPerHost = maxPerHost;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    // Runs tasks of equal priority smallest first, using the sizes known from HEAD requests
+    void setSmallestFirst(boolean smallestFirst) {
+        lock.lock();
+        try {
+            if (this.smallestFirst == smallestFirst) {
+                return;
+            }
+            this.smallestFirst = smallestFirst;
+
+            // The order changed so every set has to be sorted again. The tasks are added one by one since addAll()
+            // would trust the old order of a set with the same comparator.
+            for (Map.Entry<String, TreeSet<Task>> entry : queues.entrySet()) {
+                TreeSet<Task> sorted = new TreeSet<Task>(order);
+                for (Task task : entry.getValue()) {
+                    sorted.add(task);
+                }
+                entry.setValue(sorted);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    // Changes the priority and known size of a task, reordering it if it is still queued. Returns true if it was queued.
+    boolean update(Task task, int priority, long size) {
+        lock.lock();
+        try {
+            TreeSet<Task> queue = queues.get(task.host);
+            boolean queued = queue != null && queue.remove(task);
+            task.priority = priority;
+            task.size = size;
+            if (queued) {
+                queue.add(task);
+            }
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    // Frees the host slot of a task taken from this queue
+    void release(Runnable task) {
+        String host = ((Task) task).host;
+        lock.lock();
+        try {
+            Integer current = running.get(host);
+            if (current == null) {
+                return;
+            }
+            if (current <= 1) {
+                running.remove(host);
+            } else {
+                running.put(host, current - 1);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Queue Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        if (!(runnable instanceof Task)) {
+            throw new IllegalArgumentException("Only DownloadQueue.Task can be queued.");
+        }
+        Task task = (Task) runnable;
+        lock.lock();
+        try {
+            TreeSet<Task> queue = queues.get(task.host);
+            if (queue == null) {
+                queue = new TreeSet<Task>(order);
+                queues.put(task.host, queue);
+            }
+            task.sequence = nextSequence++;
+            queue.add(task);
+            count++;
+            available.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public void put(Runnable task) {
+        offer(task);
+    }
+
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        return offer(task);
+    }
+
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return next(true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Runnable task;
+            while ((task = next(true)) == null) {
+                available.await();
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Runnable task;
+            while ((task = next(true)) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = available.awaitNanos(nanos);
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    // Returns the task that would be taken next without removing it
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return next(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public boolean remove(Object task) {
+        if (!(task instanceof Task)) {
+            return false;
+        }
+        String host = ((Task) task).host;
+        lock.lock();
+        try {
+            TreeSet<Task> queue = queues.get(host);
+            if (queue == null || !queue.remove(task)) {
+                return false;
+            }
+            if (queue.isEmpty()) {
+                queues.remove(host);
+            }
+            count--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+
+    // Removes queued tasks regardless of the host limits. Used by shutdownNow().
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            Iterator<TreeSet<Task>> iterator = queues.values().iterator();
+            while (iterator.hasNext() && drained < maxElements) {
+                TreeSet<Task> queue = iterator.next();
+                while (!queue.isEmpty() && drained < maxElements) {
+                    c.add(queue.pollFirst());
+                    drained++;
+                }
+                if (queue.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+            count -= drained;
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    // Iterates over a snapshot of the queued tasks
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            ArrayList<Runnable> tasks = new ArrayList<Runnable>(count);
+            for (TreeSet<Task> queue : queues.values()) {
+                tasks.addAll(queue);
+            }
+            return tasks.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * Helpers
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Finds the most urgent task among the hosts with a free slot. Hosts earlier in round-robin order win ties.
+    // When take is true the task is removed, its host moves to the back of the line and its slot is used.
+    // Must hold the lock.
+    private Runnable next(boolean take) {
+        String bestHost = null;
+        Task best = null;
+        for (Map.Entry<String, TreeSet<Task>> entry : queues.entrySet()) {
+            if (!hasSlot(entry.getKey())) {
+                continue;
+            }
+            Task first = entry.getValue().first();
+            if (best == null || compareRank(first, best) < 0) {
+                bestHost = entry.getKey();
+                best = first;
+            }
+        }
+        if (best == null || !take) {
+            return best;
+        }
+
+        TreeSet<Task> queue = queues.remove(bestHost);
+        queue.pollFirst();
+        if (!queue.isEmpty()) {
+            queues.put(bestHost, queue);
+        }
+        Integer current = running.get(bestHost);
+        running.put(bestHost, (current == null) ? 1 : current + 1);
+        count--;
+        return best;
+    }
+
+
+    // Compares how urgent two tasks are: higher priority first, then smaller known size if enabled
+    private int compareRank(Task a, Task b) {
+        if (a.priority != b.priority) {
+            return (a.priority > b.priority) ? -1 : 1;
+        }
+        if (smallestFirst && a.size != b.size) {
+            // Unknown sizes go last
+            if (a.size < 0) {
+                return 1;
+            }
+            if (b.size < 0) {
+                return -1;
+            }
+            return (a.size < b.size) ? -1 : 1;
+        }
+        return 0;
+    }
+
+
+    // Checks if a host is below its limit. Must hold the lock.
+    private boolean hasSlot(String host) {
+        if (maxPerHost <= 0) {
+            return true;
+        }
+        Integer current = running.get(host);
+        return current == null || current < maxPerHost;
+    }
+}
@@ -0,0 +1,222 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Download task for downloading urls
+final class DownloaderTask extends DownloadQueue.Task {
+    private final BatchDownload downloader;
+    private final BatchDownload.Request request;
+
+    DownloaderTask(BatchDownload downloader, BatchDownload.Request request) {
+        super(request.getHost(), request.priority, request.contentLength);
+        this.downloader = downloader;
+        this.request = request;
+    }
+
+    @Override
+    public void run() {
+        RandomAccessFile file = null;
+        Transport.Response response = null;
+        ArchiveExtractor extractor = null;
+        boolean finished = false;
+        MetricsRecorder metrics = downloader.metrics;
+        long runStart = (metrics != null) ? System.nanoTime() : 0;
+        if (metrics != null && request.queuedAt != 0) {
+            metrics.recordPhase(MetricsRecorder.QUEUE, runStart - request.queuedAt);
+        }
+        request.attachWorker(Thread.currentThread());
+        try {
+            // The request was cancelled or paused after this task was taken from the queue
+            if (request.isStopped()) {
+                downloader.onStopped(request);
+                return;
+            }
+
+            // The device changed while the request waited in the queue
+            if (!downloader.meetsConstraints(request)) {
+                downloader.defer(request);
+                return;
+            }
+
+            request.started = true;
+            request.attempts.incrementAndGet();
+            request.bytesDownloaded.set(0);
+            request.bytesDecoded.set(0);
+            downloader.activeRequests.add(request);
+
+            // The data is written straight into the download folder
+            if (request.downloadFolder != null && !request.downloadFolder.isDirectory()) {
+                throw new BatchDownload.NotADirectoryException();
+            }
+            File destination = downloader.claimDestination(request);
+            PartialDownload partial = PartialDownload.open(BatchDownload.cache, destination, request.url, request.partialSlot);
+            request.partial = partial;
+
+            // Revalidate a file downloaded by a previous batch instead of downloading it again
+            DownloadCache downloadCache = downloader.downloadCache;
+            DownloadCache.Entry cached = null;
+            if (downloadCache != null && !partial.isResumable()) {
+                cached = downloadCache.get(request.url, destination);
+            }
+
+            // Split large files into byte ranges that are downloaded by several workers at once
+            if (cached == null && !partial.isResumable() && downloader.shouldSegment(request)) {
+                new SegmentedDownload(downloader, request, destination, partial).start();
+                return;
+            }
+
+            // Connect to the URL with a GET request this time, resuming a previous partial download if possible
+            HashMap<String, String> headers = new HashMap<String, String>();
+            long offset = partial.prepare(headers);
+            headers.put("Accept-Encoding", (offset == 0 && downloader.config.compression) ? ContentDecoder.ACCEPT_ENCODING : ContentDecoder.IDENTITY);
+            if (cached != null) {
+                cached.addConditionalHeaders(headers);
+            }
+
+            response = downloader.execute("GET", request.url, headers);
+            request.attachResponse(response);
+            int responseCode = response.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                finished = true;
+                response.close();
+                downloader.completeFromCache(request, downloadCache, cached, partial, destination);
+                return;
+            }
+
+            boolean append = false;
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0 && partial.acceptsPartialResponse(response, offset)) {
+                append = true;
+            } else if (responseCode == BatchDownload.HTTP_RANGE_NOT_SATISFIABLE && partial.isComplete()) {
+                // Every byte was already downloaded by a previous attempt
+                offset = partial.getOffset();
+            } else if (responseCode == HttpURLConnection.HTTP_OK) {
+                // The resource changed or the server ignored the Range header so start from scratch
+                offset = 0;
+            } else {
+                if (responseCode == BatchDownload.HTTP_RANGE_NOT_SATISFIABLE || responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                    partial.reset();
+                }
+                throw new BatchDownload.BadHTTPResponseException(response);
+            }
+
+            // Count the bytes downloaded by a previous attempt
+            downloader.addDownloaded(request, offset);
+            downloader.addDecoded(request, offset);
+
+            if (responseCode != BatchDownload.HTTP_RANGE_NOT_SATISFIABLE) {
+                if (!append) {
+                    partial.reset();
+                }
+                partial.update(response, offset);
+                request.etag = response.getHeader("ETag");
+                request.lastModified = response.getHeader("Last-Modified");
+            }
+
+            // Use the size from this response if the HEAD request did not provide it
+            if (request.contentLength < 0) {
+                request.contentLength = partial.getTotalLength();
+            }
+            downloader.countSize(request);
+
+            // The checksum also covers the bytes from a previous attempt, which are read once here
+            Checksum checksum = request.newChecksum();
+            if (checksum != null && offset > 0) {
+                checksum.update(partial.getDataFile(), offset);
+            }
+
+            // Unpack the archive as it arrives, starting with the bytes from a previous attempt
+            if (request.extractFolder != null) {
+                extractor = downloader.startExtraction(request, partial.getDataFile(), offset);
+            }
+
+            long length = offset;
+            boolean encoded = responseCode != BatchDownload.HTTP_RANGE_NOT_SATISFIABLE && ContentDecoder.isEncoded(response.getHeader("Content-Encoding"));
+            if (responseCode != BatchDownload.HTTP_RANGE_NOT_SATISFIABLE) {
+                // Allocate the whole file up front when the data could not be resumed anyway. The Content-Length of
+                // a compressed body says nothing about the decoded size, which would leave zeros at the end.
+                if (offset == 0 && !partial.canResume() && !encoded && partial.getTotalLength() > 0) {
+                    partial.preallocate(partial.getTotalLength());
+                }
+
+                // Write data to file after the bytes from a previous attempt
+                file = new RandomAccessFile(partial.getDataFile(), "rw");
+                long transferred = downloader.transfer(request, response, file.getChannel(), offset, -1, checksum, extractor);
+                if (transferred == BatchDownload.TRANSFER_CANCELLED) {
+                    // Cancelled or paused. The partial file is kept to be resumed.
+                    downloader.onStopped(request);
+                    return;
+                }
+                length += transferred;
+            }
+
+            // Close streams, keeping the connection for the next request
+            finished = true;
+            response.close();
+            Utils.closeQuietly(file);
+
+            // Check the size and checksum before the file is moved into place
+            long finishStart = (metrics != null) ? System.nanoTime() : 0;
+            downloader.verify(request, partial, length, checksum, !encoded);
+            if (extractor != null) {
+                extractor.complete(length);
+                downloader.awaitExtraction(extractor);
+            }
+
+            // Move file to specified location
+            downloader.moveToDestination(request, partial, destination);
+            if (metrics != null) {
+                metrics.recordPhase(MetricsRecorder.FINISH, System.nanoTime() - finishStart);
+            }
+        } catch (Exception e) {
+            // Aborting the response of a stopped request makes the read fail
+            if (request.isStopped()) {
+                downloader.onStopped(request);
+            } else {
+                downloader.onError(request, e);
+            }
+        } finally {
+            request.detachWorker(Thread.currentThread());
+            if (response != null) {
+                request.detachResponse(response);
+            }
+            if (extractor != null) {
+                extractor.abort();
+            }
+            Utils.closeQuietly(file);
+            if (response != null && !finished) {
+                response.abort();
+            }
+            if (metrics != null) {
+                long busy = System.nanoTime() - runStart;
+                metrics.recordBusy(busy);
+                metrics.recordPhase(MetricsRecorder.ATTEMPT, busy);
+            }
+        }
+    }
+}
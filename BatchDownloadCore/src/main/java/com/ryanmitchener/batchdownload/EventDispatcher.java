@@ -0,0 +1,221 @@
+package com.ryanmitchener.batchdownload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Delivers progress and events to listeners. Each listener gets at most one delivery per interval on its own
+// Executor with everything that happened since the last one, so a busy batch costs one task per listener per
+// interval no matter how many files finish. While a delivery is waiting on a slow Executor new events join it.
+// Deliveries that have to wait for the interval are timed on the engine's scheduler. A listener never gets a new
+// delivery before the last one returned, so events arrive in order even on an Executor with several threads.
+final class EventDispatcher {
+    private final BatchDownload downloader;
+    private final ScheduledExecutorService scheduler;
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    EventDispatcher(BatchDownload downloader, ScheduledExecutorService scheduler) {
+        this.downloader = downloader;
+        this.scheduler = scheduler;
+    }
+
+
+    /**
+     * Subscriptions
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Adds a listener, replacing its previous subscription if it was already added
+    void addListener(DownloadListener listener, Executor executor, long interval) {
+        removeListener(listener);
+        subscriptions.add(new Subscription(listener, executor, interval));
+    }
+
+
+    // Removes a listener. Deliveries already posted are dropped.
+    boolean removeListener(DownloadListener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscription.removed = true;
+                return subscriptions.remove(subscription);
+            }
+        }
+        return false;
+    }
+
+
+    // Checks if anybody is listening
+    boolean hasListeners() {
+        return !subscriptions.isEmpty();
+    }
+
+
+    // Returns the shortest interval any listener asked for, or -1 if nobody is listening
+    long getMinInterval() {
+        long min = -1;
+        for (Subscription subscription : subscriptions) {
+            if (min < 0 || subscription.interval < min) {
+                min = subscription.interval;
+            }
+        }
+        return min;
+    }
+
+
+    /**
+     * Publishing
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Queues an event for every listener
+    void post(DownloadEvent event) {
+        for (Subscription subscription : subscriptions) {
+            subscription.schedule(event, false);
+        }
+    }
+
+
+    // Lets every listener know new progress is available. The snapshot is only taken when the delivery runs.
+    void progressChanged() {
+        for (Subscription subscription : subscriptions) {
+            subscription.schedule(null, true);
+        }
+    }
+
+
+    // Returns the current time in milliseconds from a clock that does not jump
+    private static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+
+    // A listener with its Executor, rate and the events waiting for its next delivery
+    private class Subscription implements Runnable {
+        private final DownloadListener listener;
+        private final Executor executor;
+        private final long interval;
+        private volatile boolean removed = false;
+
+        // Guarded by this
+        private List<DownloadEvent> events = new ArrayList<DownloadEvent>();
+        private boolean progressDue = false;
+        private boolean scheduled = false;
+        private long lastDelivery = 0;
+
+        // Hands the delivery to the listener's executor once the scheduler has waited out the interval
+        private final Runnable handOff = new Runnable() {
+            @Override
+            public void run() {
+                submit();
+            }
+        };
+
+        Subscription(DownloadListener listener, Executor executor, long interval) {
+            this.listener = listener;
+            this.executor = executor;
+            this.interval = interval;
+        }
+
+        // Adds to the next delivery, posting it unless one is already waiting
+        void schedule(DownloadEvent event, boolean progress) {
+            long delay;
+            synchronized (this) {
+                if (event != null) {
+                    events.add(event);
+                }
+                progressDue |= progress;
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+                delay = lastDelivery + interval - uptimeMillis();
+            }
+
+            // Outside the lock, since an executor may run the delivery on this thread
+            if (delay > 0) {
+                scheduler.schedule(handOff, delay, TimeUnit.MILLISECONDS);
+            } else {
+                submit();
+            }
+        }
+
+        // Gives the delivery to the listener's executor. A rejected delivery is dropped and the next one retries.
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    scheduled = false;
+                }
+            }
+        }
+
+        // Runs on the listener's Executor. The delivery stays scheduled until the listener returns, and anything
+        // posted in the meantime is scheduled after it.
+        @Override
+        public void run() {
+            List<DownloadEvent> delivered;
+            boolean progress;
+            synchronized (this) {
+                lastDelivery = uptimeMillis();
+                delivered = events;
+                events = new ArrayList<DownloadEvent>();
+                progress = progressDue;
+                progressDue = false;
+            }
+            try {
+                if (removed) {
+                    return;
+                }
+                if (progress) {
+                    listener.onProgress(downloader.getProgress());
+                }
+                if (!delivered.isEmpty()) {
+                    listener.onEvents(delivered);
+                }
+            } finally {
+                boolean pending;
+                synchronized (this) {
+                    scheduled = false;
+                    pending = !events.isEmpty() || progressDue;
+                }
+                if (pending && !removed) {
+                    schedule(null, false);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Append-only log of the requests in a batch so it can be continued after the process is killed. Every record is
+// framed with its length and a CRC, so a record torn by a crash is detected and everything after it is ignored.
+// Records are buffered and only fsynced by sync(), which the caller invokes at a bounded rate so the journal never
+// becomes the bottleneck of the download threads. Progress records and finished requests pile up in a long batch, so
+// sync() rewrites the journal with only the live requests once it has doubled since it was last rewritten.
+final class Journal {
+    // Record types
+    private final static byte RECORD_ADD = 1;
+    private final static byte RECORD_PROGRESS = 2;
+    private final static byte RECORD_DONE = 3;
+    private final static byte RECORD_FAILED = 4;
+    private final static byte RECORD_VERIFY = 5;
+    private final static byte RECORD_EXTRACT = 6;
+    private final static byte RECORD_CONSTRAINTS = 7;
+
+    // Largest record that will be read back, to stop a corrupt length from allocating a huge buffer
+    private final static int MAX_RECORD_SIZE = 64 * 1024;
+
+    // Size the journal may reach before it is compacted
+    private final static long COMPACT_SIZE = 1024 * 1024;
+
+    private final File file;
+    private final long compactSize;
+    private FileOutputStream fos = null;
+    private DataOutputStream out = null;
+    private boolean dirty = false;
+    private long nextId = 1;
+
+    // Size of the journal when it was last compacted
+    private long compactedSize = 0;
+
+    // Ids below this belong to requests of an earlier process that have not been restored yet. -1 until the journal
+    // has been read.
+    private long restoreLimit = -1;
+
+    // The record being built
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final DataOutputStream record = new DataOutputStream(recordBuffer);
+
+
+    // A request that has not finished yet
+    static class Entry {
+        final long id;
+        final String url;
+        final String filename;
+        final String downloadFolder;
+        final int priority;
+        long bytesCompleted = 0;
+
+        // What the file is verified against, if anything
+        long expectedSize = -1;
+        String checksumAlgorithm = null;
+        String expectedChecksum = null;
+
+        // Folder the archive is extracted into, if any
+        String extractFolder = null;
+
+        // What the device must allow before the request runs, if constrained
+        boolean constrained = false;
+        boolean unmeteredOnly = false;
+        boolean chargingOnly = false;
+        int minBatteryLevel = 0;
+        long maxMeteredBytes = -1;
+
+        Entry(long id, String url, String filename, String downloadFolder, int priority) {
+            this.id = id;
+            this.url = url;
+            this.filename = filename;
+            this.downloadFolder = downloadFolder;
+            this.priority = priority;
+        }
+    }
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    Journal(File file) {
+        this(file, COMPACT_SIZE);
+    }
+
+
+    // Compacts the journal once it is larger than compactSize and twice its size after the last compaction
+    Journal(File file, long compactSize) {
+        this.file = file;
+        this.compactSize = compactSize;
+    }
+
+
+    // Returns the journal file
+    File getFile() {
+        return file;
+    }
+
+
+    /**
+     * Writing
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Records a request that was added and returns the id it is journaled under
+    synchronized long add(String url, String filename, String downloadFolder, int priority) throws IOException {
+        // Read the journal left by an earlier process first so its ids are not reused
+        if (restoreLimit < 0) {
+            restoreLimit = read().isEmpty() ? 0 : nextId;
+        }
+        long id = nextId++;
+        writeAdd(id, url, filename, downloadFolder, priority);
+        return id;
+    }
+
+
+    // Records the expected size and checksum of a request. Written after its ADD record when either is set.
+    synchronized void verification(long id, long expectedSize, String checksumAlgorithm, String expectedChecksum) throws IOException {
+        writeVerify(id, expectedSize, checksumAlgorithm, expectedChecksum);
+    }
+
+
+    // Records the folder a request is extracted into. Written after its ADD record.
+    synchronized void extraction(long id, String extractFolder) throws IOException {
+        writeExtract(id, extractFolder);
+    }
+
+
+    // Records the constraints of a request. Written after its ADD record and again whenever they change; the last
+    // record wins.
+    synchronized void constraints(long id, boolean unmeteredOnly, boolean chargingOnly, int minBatteryLevel, long maxMeteredBytes) throws IOException {
+        writeConstraints(id, unmeteredOnly, chargingOnly, minBatteryLevel, maxMeteredBytes);
+    }
+
+
+    // Records the number of bytes a request has completed
+    synchronized void progress(long id, long bytes) throws IOException {
+        begin(RECORD_PROGRESS, id).writeLong(bytes);
+        end();
+    }
+
+
+    // Records a request that finished downloading
+    synchronized void done(long id) throws IOException {
+        begin(RECORD_DONE, id);
+        end();
+    }
+
+
+    // Records a request that failed and should not be continued
+    synchronized void failed(long id) throws IOException {
+        begin(RECORD_FAILED, id);
+        end();
+    }
+
+
+    // Writes buffered records and forces them to disk if anything changed since the last sync. Compacts the journal
+    // once it has grown too much.
+    synchronized void sync() throws IOException {
+        if (!dirty || out == null) {
+            return;
+        }
+        out.flush();
+        fos.getFD().sync();
+        dirty = false;
+
+        long size = file.length();
+        if (size > compactSize && size > compactedSize * 2) {
+            close();
+            compact(read());
+        }
+    }
+
+
+    // Removes every record once a batch has completed or was cancelled. The requests of an earlier process that
+    // have not been restored yet are kept.
+    synchronized void clear() {
+        close();
+        if (restoreLimit <= 0) {
+            file.delete();
+            compactedSize = 0;
+            return;
+        }
+        try {
+            compact(read());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Reading
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns the requests of an earlier process that have not finished, in the order they were added. Each is only
+    // returned once. Rewrites the journal to hold only unfinished requests so it does not keep growing across restarts.
+    synchronized List<Entry> restore() throws IOException {
+        close();
+        LinkedHashMap<Long, Entry> pending = read();
+        long limit = (restoreLimit < 0) ? nextId : restoreLimit;
+        restoreLimit = 0;
+        compact(pending);
+
+        ArrayList<Entry> restored = new ArrayList<Entry>(pending.size());
+        for (Entry entry : pending.values()) {
+            if (entry.id < limit) {
+                restored.add(entry);
+            }
+        }
+        return restored;
+    }
+
+
+    // Reads every record and returns the requests that have not finished. Must hold the lock.
+    private LinkedHashMap<Long, Entry> read() throws IOException {
+        LinkedHashMap<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+        if (file.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                readRecords(in, pending);
+            } finally {
+                Utils.closeQuietly(in);
+            }
+        }
+        return pending;
+    }
+
+
+    // Rewrites the journal to hold only the given requests. They are written to a new file that is swapped in so a
+    // crash part way leaves the old journal intact. The journal must be closed.
+    private void compact(LinkedHashMap<Long, Entry> pending) throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        compacted.delete();
+        Journal journal = new Journal(compacted, Long.MAX_VALUE);
+        for (Entry entry : pending.values()) {
+            journal.writeAdd(entry.id, entry.url, entry.filename, entry.downloadFolder, entry.priority);
+            if (entry.expectedSize >= 0 || entry.checksumAlgorithm != null) {
+                journal.writeVerify(entry.id, entry.expectedSize, entry.checksumAlgorithm, entry.expectedChecksum);
+            }
+            if (entry.extractFolder != null) {
+                journal.writeExtract(entry.id, entry.extractFolder);
+            }
+            if (entry.constrained) {
+                journal.writeConstraints(entry.id, entry.unmeteredOnly, entry.chargingOnly, entry.minBatteryLevel, entry.maxMeteredBytes);
+            }
+            if (entry.bytesCompleted > 0) {
+                journal.progress(entry.id, entry.bytesCompleted);
+            }
+            nextId = Math.max(nextId, entry.id + 1);
+        }
+        journal.sync();
+        journal.close();
+        if (pending.isEmpty()) {
+            compacted.delete();
+            file.delete();
+        } else if (!compacted.renameTo(file)) {
+            throw new IOException("Could not replace the journal.");
+        }
+        compactedSize = file.length();
+    }
+
+
+    // Reads records until the end of the file or the first damaged record
+    private void readRecords(DataInputStream in, LinkedHashMap<Long, Entry> pending) throws IOException {
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    return;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != in.readInt()) {
+                    return;
+                }
+            } catch (EOFException e) {
+                // A record torn by a crash
+                return;
+            }
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = record.readByte();
+            long id = record.readLong();
+            nextId = Math.max(nextId, id + 1);
+            switch (type) {
+                case RECORD_ADD:
+                    pending.put(id, new Entry(id, record.readUTF(), readNullable(record), readNullable(record), record.readInt()));
+                    break;
+                case RECORD_PROGRESS:
+                    Entry entry = pending.get(id);
+                    if (entry != null) {
+                        entry.bytesCompleted = record.readLong();
+                    }
+                    break;
+                case RECORD_VERIFY:
+                    Entry verified = pending.get(id);
+                    if (verified != null) {
+                        verified.expectedSize = record.readLong();
+                        verified.checksumAlgorithm = readNullable(record);
+                        verified.expectedChecksum = readNullable(record);
+                    }
+                    break;
+                case RECORD_EXTRACT:
+                    Entry extracted = pending.get(id);
+                    if (extracted != null) {
+                        extracted.extractFolder = record.readUTF();
+                    }
+                    break;
+                case RECORD_CONSTRAINTS:
+                    Entry constrained = pending.get(id);
+                    if (constrained != null) {
+                        constrained.constrained = true;
+                        constrained.unmeteredOnly = record.readBoolean();
+                        constrained.chargingOnly = record.readBoolean();
+                        constrained.minBatteryLevel = record.readInt();
+                        constrained.maxMeteredBytes = record.readLong();
+                    }
+                    break;
+                case RECORD_DONE:
+                case RECORD_FAILED:
+                    pending.remove(id);
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+
+    /**
+     * Helpers
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Appends an ADD record. Must hold the lock.
+    private void writeAdd(long id, String url, String filename, String downloadFolder, int priority) throws IOException {
+        DataOutputStream record = begin(RECORD_ADD, id);
+        record.writeUTF(url);
+        writeNullable(record, filename);
+        writeNullable(record, downloadFolder);
+        record.writeInt(priority);
+        end();
+    }
+
+
+    // Appends a VERIFY record. Must hold the lock.
+    private void writeVerify(long id, long expectedSize, String checksumAlgorithm, String expectedChecksum) throws IOException {
+        DataOutputStream record = begin(RECORD_VERIFY, id);
+        record.writeLong(expectedSize);
+        writeNullable(record, checksumAlgorithm);
+        writeNullable(record, expectedChecksum);
+        end();
+    }
+
+
+    // Appends an EXTRACT record. Must hold the lock.
+    private void writeExtract(long id, String extractFolder) throws IOException {
+        begin(RECORD_EXTRACT, id).writeUTF(extractFolder);
+        end();
+    }
+
+
+    // Appends a CONSTRAINTS record. Must hold the lock.
+    private void writeConstraints(long id, boolean unmeteredOnly, boolean chargingOnly, int minBatteryLevel, long maxMeteredBytes) throws IOException {
+        DataOutputStream record = begin(RECORD_CONSTRAINTS, id);
+        record.writeBoolean(unmeteredOnly);
+        record.writeBoolean(chargingOnly);
+        record.writeInt(minBatteryLevel);
+        record.writeLong(maxMeteredBytes);
+        end();
+    }
+
+
+    // Starts a record. Must hold the lock.
+    private DataOutputStream begin(byte type, long id) throws IOException {
+        recordBuffer.reset();
+        record.writeByte(type);
+        record.writeLong(id);
+        return record;
+    }
+
+
+    // Frames the record being built with its length and CRC and appends it. Must hold the lock.
+    private void end() throws IOException {
+        if (out == null) {
+            fos = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(fos, 8192));
+        }
+        byte[] payload = recordBuffer.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        dirty = true;
+    }
+
+
+    // Flushes and closes the file. Must hold the lock.
+    private void close() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                // Ignore
+            }
+            Utils.closeQuietly(out);
+        }
+        out = null;
+        fos = null;
+        dirty = false;
+    }
+
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
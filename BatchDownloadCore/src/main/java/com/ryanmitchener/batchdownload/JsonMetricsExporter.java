@@ -0,0 +1,68 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Dumps every snapshot as JSON into a file, for example to pull off a device or to feed a dashboard. The file is
+// written next to the target and renamed over it so readers never see a half written dump.
+public class JsonMetricsExporter implements MetricsExporter {
+    private final File file;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    public JsonMetricsExporter(File file) {
+        this.file = file;
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public void export(DownloadMetrics metrics) {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(temp);
+            os.write(metrics.toJson().getBytes("UTF-8"));
+            os.close();
+            os = null;
+            Utils.move(temp, file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            Utils.closeQuietly(os);
+            temp.delete();
+        }
+    }
+}
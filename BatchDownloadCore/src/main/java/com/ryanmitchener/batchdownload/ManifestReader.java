@@ -0,0 +1,322 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Reads the requests of a manifest file one line at a time so a manifest of any length takes the memory of a single
+// line. A line is either a url or a flat JSON object such as
+//   {"url": "https://example.com/a.zip", "filename": "a", "folder": "/sdcard/a", "priority": 1, "size": 1024,
+//    "sha256": "9f86...", "extract": "/sdcard/a/unpacked"}
+// where only "url" is required and "md5" or "crc32c" may be given instead of "sha256". Blank lines and lines starting
+// with # are skipped. A line that can not be read throws a MalformedLineException from next() and reading goes on
+// with the following line.
+final class ManifestReader implements Iterator<BatchDownload.Request>, Closeable {
+    private final BufferedReader reader;
+    private final File downloadFolder;
+    private String line = null;
+    private int lineNumber = 0;
+    private boolean done = false;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Requests without a "folder" go to downloadFolder, or to the default folder if it is null
+    ManifestReader(File manifest, File downloadFolder) throws IOException {
+        this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+        this.downloadFolder = downloadFolder;
+    }
+
+
+    /**
+     * Iterator
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Reads ahead to the next line that is not blank or a comment. Errors reading the file end the manifest.
+    @Override
+    public boolean hasNext() {
+        while (line == null && !done) {
+            String next;
+            try {
+                next = reader.readLine();
+            } catch (IOException e) {
+                close();
+                throw new IllegalStateException("Could not read the manifest.", e);
+            }
+            if (next == null) {
+                close();
+                break;
+            }
+            lineNumber++;
+            next = next.trim();
+            if (next.length() > 0 && !next.startsWith("#")) {
+                line = next;
+            }
+        }
+        return line != null;
+    }
+
+
+    @Override
+    public BatchDownload.Request next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String current = line;
+        line = null;
+        if (!current.startsWith("{")) {
+            return new BatchDownload.Request(current, null, downloadFolder);
+        }
+        Map<String, String> fields = null;
+        try {
+            fields = parseObject(current);
+            return parseRequest(fields);
+        } catch (IllegalArgumentException e) {
+            throw new MalformedLineException(lineNumber, current, (fields != null) ? fields.get("url") : null, e.getMessage());
+        }
+    }
+
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public void close() {
+        done = true;
+        line = null;
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // Nothing left to read either way
+        }
+    }
+
+
+    /**
+     * Parsing
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Builds a request from the fields of a JSON line
+    private BatchDownload.Request parseRequest(Map<String, String> fields) {
+        String url = fields.get("url");
+        if (url == null || url.length() == 0) {
+            throw new IllegalArgumentException("The line has no url.");
+        }
+        String folder = fields.get("folder");
+        BatchDownload.Request request = new BatchDownload.Request(url, fields.get("filename"), (folder != null) ? new File(folder) : downloadFolder);
+        if (fields.containsKey("priority")) {
+            request.setPriority((int) parseNumber(fields.get("priority")));
+        }
+        if (fields.containsKey("size")) {
+            request.setExpectedSize(parseNumber(fields.get("size")));
+        }
+        if (fields.containsKey("sha256")) {
+            request.setExpectedChecksum(BatchDownload.Request.CHECKSUM_SHA256, fields.get("sha256"));
+        } else if (fields.containsKey("md5")) {
+            request.setExpectedChecksum(BatchDownload.Request.CHECKSUM_MD5, fields.get("md5"));
+        } else if (fields.containsKey("crc32c")) {
+            request.setExpectedChecksum(BatchDownload.Request.CHECKSUM_CRC32C, fields.get("crc32c"));
+        }
+        if (fields.containsKey("extract")) {
+            request.setExtractFolder(new File(fields.get("extract")));
+        }
+        return request;
+    }
+
+
+    private static long parseNumber(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Expected a whole number but found " + value + ".");
+        }
+    }
+
+
+    // Parses a JSON object whose values are strings, numbers, booleans or null. Nested objects and arrays are not
+    // supported since no field takes them. Values are returned as text; null values are left out.
+    static Map<String, String> parseObject(String json) {
+        Map<String, String> fields = new HashMap<String, String>();
+        int[] position = {0};
+        expect(json, position, '{');
+        if (peek(json, position) == '}') {
+            position[0]++;
+        } else {
+            while (true) {
+                String key = parseString(json, position);
+                expect(json, position, ':');
+                String value = parseValue(json, position);
+                if (value != null) {
+                    fields.put(key, value);
+                }
+                char next = peek(json, position);
+                position[0]++;
+                if (next == '}') {
+                    break;
+                }
+                if (next != ',') {
+                    throw new IllegalArgumentException("Expected , or } at " + (position[0] - 1) + ".");
+                }
+            }
+        }
+        if (peek(json, position) != 0) {
+            throw new IllegalArgumentException("Unexpected text after the object.");
+        }
+        return fields;
+    }
+
+
+    private static String parseValue(String json, int[] position) {
+        char c = peek(json, position);
+        if (c == '"') {
+            return parseString(json, position);
+        }
+        int start = position[0];
+        while (position[0] < json.length() && ",} \t".indexOf(json.charAt(position[0])) < 0) {
+            position[0]++;
+        }
+        String literal = json.substring(start, position[0]);
+        if (literal.equals("null")) {
+            return null;
+        }
+        if (literal.equals("true") || literal.equals("false") || literal.matches("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?")) {
+            return literal;
+        }
+        throw new IllegalArgumentException("Unsupported value at " + start + ".");
+    }
+
+
+    private static String parseString(String json, int[] position) {
+        expect(json, position, '"');
+        StringBuilder builder = new StringBuilder();
+        while (position[0] < json.length()) {
+            char c = json.charAt(position[0]++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (position[0] >= json.length()) {
+                break;
+            }
+            char escaped = json.charAt(position[0]++);
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (position[0] + 4 > json.length()) {
+                        throw new IllegalArgumentException("Incomplete escape at " + position[0] + ".");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(json.substring(position[0], position[0] + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid escape at " + position[0] + ".");
+                    }
+                    position[0] += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string.");
+    }
+
+
+    // Skips whitespace and consumes the expected character
+    private static void expect(String json, int[] position, char expected) {
+        if (peek(json, position) != expected) {
+            throw new IllegalArgumentException("Expected " + expected + " at " + position[0] + ".");
+        }
+        position[0]++;
+    }
+
+
+    // Skips whitespace and returns the next character without consuming it, or 0 at the end
+    private static char peek(String json, int[] position) {
+        while (position[0] < json.length() && Character.isWhitespace(json.charAt(position[0]))) {
+            position[0]++;
+        }
+        return (position[0] < json.length()) ? json.charAt(position[0]) : 0;
+    }
+
+
+    /**
+     * Exceptions
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Thrown by next() for a line that is not a url or a valid JSON object. Only that line is skipped. The message
+    // holds the line as it was written.
+    static class MalformedLineException extends IllegalArgumentException {
+        private final int lineNumber;
+        private final String url;
+
+        MalformedLineException(int lineNumber, String line, String url, String reason) {
+            super("Manifest line " + lineNumber + " could not be read: " + reason + " The line was: " + line);
+            this.lineNumber = lineNumber;
+            this.url = url;
+        }
+
+        int getLineNumber() {
+            return lineNumber;
+        }
+
+        // Returns the url of a line that parsed but could not be turned into a request, or null if it has none
+        String getUrl() {
+            return url;
+        }
+    }
+}
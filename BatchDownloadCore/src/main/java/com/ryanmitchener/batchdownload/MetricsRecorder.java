@@ -0,0 +1,178 @@
+package com.ryanmitchener.batchdownload;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Collects the timings behind DownloadMetrics. BatchDownload only holds one while metrics are enabled and checks
+// for null before taking any timestamp, so a disabled recorder costs a single volatile read per download step.
+final class MetricsRecorder {
+    // Phases, in the order of PHASE_NAMES
+    final static int QUEUE = 0;
+    final static int DNS = 1;
+    final static int CONNECT = 2;
+    final static int TLS = 3;
+    final static int FIRST_BYTE = 4;
+    final static int READ = 5;
+    final static int WRITE = 6;
+    final static int FINISH = 7;
+    final static int ATTEMPT = 8;
+    private final static String[] PHASE_NAMES = {
+            DownloadMetrics.PHASE_QUEUE, DownloadMetrics.PHASE_DNS, DownloadMetrics.PHASE_CONNECT, DownloadMetrics.PHASE_TLS,
+            DownloadMetrics.PHASE_FIRST_BYTE, DownloadMetrics.PHASE_READ, DownloadMetrics.PHASE_WRITE,
+            DownloadMetrics.PHASE_FINISH, DownloadMetrics.PHASE_ATTEMPT
+    };
+
+    // Hosts beyond the limit share one histogram so a batch spread over many hosts can not grow the recorder
+    private final static int MAX_HOSTS = 256;
+    private final static String OTHER_HOSTS = "other";
+
+    private final long startNanos = System.nanoTime();
+    private final Histogram[] phases = new Histogram[PHASE_NAMES.length];
+    private final ConcurrentHashMap<String, Histogram> hosts = new ConcurrentHashMap<String, Histogram>();
+    private final StripedCounter bytes = new StripedCounter();
+    private final StripedCounter busyNanos = new StripedCounter();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    MetricsRecorder() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+
+    /**
+     * Recording
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    void recordPhase(int phase, long nanos) {
+        phases[phase].record(nanos / 1000);
+    }
+
+
+    // Records the connection setup and time to first byte of a response that took nanos to arrive
+    void recordResponse(Transport.Response response, long nanos) {
+        long setup = 0;
+        if (response instanceof Transport.Timing) {
+            Transport.Timing timing = (Transport.Timing) response;
+            setup += recordSetup(DNS, timing.getDnsNanos());
+            setup += recordSetup(CONNECT, timing.getConnectNanos());
+            setup += recordSetup(TLS, timing.getTlsNanos());
+        }
+        recordPhase(FIRST_BYTE, nanos - setup);
+    }
+
+
+    // Records a setup phase if it happened and returns its duration, or 0 if it did not
+    private long recordSetup(int phase, long nanos) {
+        if (nanos < 0) {
+            return 0;
+        }
+        recordPhase(phase, nanos);
+        return nanos;
+    }
+
+
+    // Records a finished transfer of a response body: the time spent reading and writing and the throughput of the host
+    void recordTransfer(String host, long transferred, long readNanos, long writeNanos) {
+        recordPhase(READ, readNanos);
+        recordPhase(WRITE, writeNanos);
+        bytes.add(transferred);
+        long elapsed = readNanos + writeNanos;
+        if (transferred > 0 && elapsed > 0) {
+            hostHistogram(host).record((long) (transferred * 1e9 / elapsed));
+        }
+    }
+
+
+    // Adds the time a download thread spent on a task
+    void recordBusy(long nanos) {
+        busyNanos.add(nanos);
+    }
+
+
+    void requestCompleted() {
+        completed.incrementAndGet();
+    }
+
+
+    void requestFailed() {
+        failed.incrementAndGet();
+    }
+
+
+    void requestRetried() {
+        retries.incrementAndGet();
+    }
+
+
+    // Returns the histogram of a host, creating it while there is room
+    private Histogram hostHistogram(String host) {
+        String key = (host != null && host.length() > 0) ? host : OTHER_HOSTS;
+        Histogram histogram = hosts.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+        if (hosts.size() >= MAX_HOSTS) {
+            key = OTHER_HOSTS;
+        }
+        Histogram created = new Histogram();
+        histogram = hosts.putIfAbsent(key, created);
+        return (histogram != null) ? histogram : created;
+    }
+
+
+    /**
+     * Snapshot
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Takes a snapshot along with the current download rate and concurrency, which BatchDownload tracks anyway
+    DownloadMetrics snapshot(long bytesPerSecond, int concurrency) {
+        long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        Map<String, DownloadMetrics.Distribution> phaseSnapshots = new LinkedHashMap<String, DownloadMetrics.Distribution>();
+        for (int i = 0; i < phases.length; i++) {
+            phaseSnapshots.put(PHASE_NAMES[i], phases[i].snapshot());
+        }
+        Map<String, DownloadMetrics.Distribution> hostSnapshots = new TreeMap<String, DownloadMetrics.Distribution>();
+        for (Map.Entry<String, Histogram> entry : hosts.entrySet()) {
+            hostSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        double averageBusyWorkers = busyNanos.sum() / (double) elapsedNanos;
+        return new DownloadMetrics(elapsedNanos / 1000000, bytes.sum(), bytesPerSecond, completed.get(), failed.get(), retries.get(), concurrency, averageBusyWorkers, phaseSnapshots, hostSnapshots);
+    }
+}
@@ -0,0 +1,318 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Resumable partial download. The data is written to a hidden file in the destination folder so finishing it is a
+// rename within one filesystem, while its validators are kept in the cache folder. A partial download belongs to a url
+// and the file it is downloaded to, so the same url downloaded into two folders keeps two partial downloads.
+class PartialDownload {
+    // File extensions
+    final static String DATA_EXTENSION = ".part";
+    final static String META_EXTENSION = ".meta";
+
+    // Metadata keys
+    private final static String KEY_URL = "url";
+    private final static String KEY_ETAG = "etag";
+    private final static String KEY_LAST_MODIFIED = "lastModified";
+    private final static String KEY_TOTAL_LENGTH = "totalLength";
+    private final static String KEY_DATA_FILE = "dataFile";
+
+    private final File dataFile;
+    private final File metaFile;
+    private final String url;
+    private String etag = null;
+    private String lastModified = null;
+    private long totalLength = -1;
+    private boolean resumable = false;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    private PartialDownload(File cache, File destination, String url, int slot) {
+        String key = keyFor(url + "\n" + destination.getPath() + ((slot > 0) ? "\n" + slot : ""));
+        this.url = url;
+        this.dataFile = new File(destination.getParentFile(), "." + key + DATA_EXTENSION);
+        this.metaFile = new File(cache, key + META_EXTENSION);
+    }
+
+
+    // Opens the partial download of a url to a destination file, loading any validators persisted by a previous
+    // attempt. Requests downloading the same url to the same file at the same time pass different slots so they do
+    // not write to one data file. Only slot 0 is found again after a restart.
+    static PartialDownload open(File cache, File destination, String url, int slot) {
+        PartialDownload partial = new PartialDownload(cache, destination, url, slot);
+        partial.load();
+        return partial;
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns the file the downloaded bytes are written to
+    File getDataFile() {
+        return dataFile;
+    }
+
+
+    // Returns the number of bytes already on disk
+    long getOffset() {
+        return dataFile.exists() ? dataFile.length() : 0;
+    }
+
+
+    // Returns the full length of the resource or -1 if unknown
+    long getTotalLength() {
+        return totalLength;
+    }
+
+
+    // Checks if the data on disk can be continued with a Range request
+    boolean isResumable() {
+        return getOffset() > 0 && getValidator() != null;
+    }
+
+
+    // Checks if every byte of the resource is already on disk
+    boolean isComplete() {
+        return totalLength > 0 && getOffset() == totalLength;
+    }
+
+
+    // Returns the validator for an If-Range header
+    String getValidator() {
+        return Utils.getRangeValidator(etag, lastModified);
+    }
+
+
+    // Adds the Range and If-Range headers to a request if the download can be resumed
+    long prepare(Map<String, String> headers) {
+        if (!isResumable()) {
+            return 0;
+        }
+        long offset = getOffset();
+        headers.put("Range", "bytes=" + offset + "-");
+        headers.put("If-Range", getValidator());
+        return offset;
+    }
+
+
+    // Checks that a 206 response starts where the data on disk ends
+    boolean acceptsPartialResponse(Transport.Response response, long offset) {
+        String contentRange = response.getHeader("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return false;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return false;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim()) == offset;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+
+    // Stores the validators of a full or partial response so the download can be resumed later
+    void update(Transport.Response response, long offset) throws IOException {
+        etag = response.getHeader("ETag");
+        lastModified = response.getHeader("Last-Modified");
+        long length = Utils.getContentLength(response);
+        totalLength = (length >= 0) ? offset + length : -1;
+
+        // Without a validator the data can never be safely resumed. Decoded data can not be resumed either since the
+        // offsets of a Range request refer to the compressed bytes. The metadata is saved anyway so clean() can find
+        // the data file.
+        resumable = getValidator() != null && !ContentDecoder.isEncoded(response.getHeader("Content-Encoding"));
+        save();
+    }
+
+
+    // Checks if the data written after the last update() could be resumed by a later attempt
+    boolean canResume() {
+        return resumable;
+    }
+
+
+    // Sets the data file to its full length up front so it is allocated in one go. Resumable data is never
+    // preallocated since the length of the file is what records how much of it was downloaded.
+    void preallocate(long length) throws IOException {
+        if (totalLength < 0) {
+            totalLength = length;
+        }
+        save();
+        RandomAccessFile file = new RandomAccessFile(dataFile, "rw");
+        try {
+            file.setLength(length);
+        } catch (IOException e) {
+            throw new LocalIOException(e);
+        } finally {
+            Utils.closeQuietly(file);
+        }
+    }
+
+
+    // Throws away the data on disk and its validators
+    void reset() {
+        etag = null;
+        lastModified = null;
+        totalLength = -1;
+        resumable = false;
+        dataFile.delete();
+        metaFile.delete();
+    }
+
+
+    // Removes the validators once the data file has been moved into place
+    void finish() {
+        metaFile.delete();
+    }
+
+
+    // Loads the validators from disk
+    private void load() {
+        if (!metaFile.exists()) {
+            return;
+        }
+        Properties properties = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(metaFile);
+            properties.load(is);
+
+            // Ignore metadata that belongs to a different url or data file. The data file is left alone since it
+            // may belong to another download.
+            if (!url.equals(properties.getProperty(KEY_URL)) || !dataFile.getPath().equals(properties.getProperty(KEY_DATA_FILE))) {
+                return;
+            }
+            etag = properties.getProperty(KEY_ETAG);
+            lastModified = properties.getProperty(KEY_LAST_MODIFIED);
+            totalLength = Long.parseLong(properties.getProperty(KEY_TOTAL_LENGTH, "-1"));
+            resumable = getValidator() != null;
+        } catch (Exception e) {
+            reset();
+        } finally {
+            Utils.closeQuietly(is);
+        }
+    }
+
+
+    // Saves the validators to disk
+    private void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY_URL, url);
+        properties.setProperty(KEY_DATA_FILE, dataFile.getPath());
+
+        // Validators are only kept for data that can be resumed
+        if (resumable && etag != null) {
+            properties.setProperty(KEY_ETAG, etag);
+        }
+        if (resumable && lastModified != null) {
+            properties.setProperty(KEY_LAST_MODIFIED, lastModified);
+        }
+        properties.setProperty(KEY_TOTAL_LENGTH, String.valueOf(totalLength));
+        OutputStream os = new FileOutputStream(metaFile);
+        try {
+            properties.store(os, null);
+        } catch (IOException e) {
+            throw new LocalIOException(e);
+        } finally {
+            Utils.closeQuietly(os);
+        }
+    }
+
+
+    /**
+     * Static Helpers
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Removes everything from the cache folder except the metadata of partial downloads that can be resumed. The
+    // data files of partial downloads that can not be resumed are deleted from their folders.
+    static void clean(File cache) {
+        File[] cacheFiles = cache.listFiles();
+        if (cacheFiles == null) {
+            return;
+        }
+        for (File file : cacheFiles) {
+            if (file.getName().endsWith(META_EXTENSION)) {
+                Properties properties = new Properties();
+                InputStream is = null;
+                try {
+                    is = new FileInputStream(file);
+                    properties.load(is);
+                } catch (IOException e) {
+                    // Treated as metadata without a data file
+                } finally {
+                    Utils.closeQuietly(is);
+                }
+                String dataPath = properties.getProperty(KEY_DATA_FILE);
+                File dataFile = (dataPath != null) ? new File(dataPath) : null;
+                boolean hasValidator = properties.getProperty(KEY_ETAG) != null || properties.getProperty(KEY_LAST_MODIFIED) != null;
+                if (dataFile != null && dataFile.exists() && hasValidator) {
+                    continue;
+                }
+                if (dataFile != null) {
+                    dataFile.delete();
+                }
+            }
+            file.delete();
+        }
+    }
+
+
+    // Creates a filesystem safe key for a url
+    static String keyFor(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+                builder.append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// HTTP/1.1 transport that keeps a pool of persistent connections per host, so a batch of many small files from the
+// same origin pays for the TCP and TLS handshakes once instead of once per file. Counts every connection it opens
+// so the reuse rate can be reported. Only GET and HEAD are sent, which makes it safe to retry a request once on a
+// fresh connection when a pooled one turns out to have been closed by the server.
+public class PooledTransport implements Transport {
+    private final static int MAX_REDIRECTS = 5;
+    private final static int MAX_DRAIN_BYTES = 64 * 1024;
+    private final static int MAX_LINE_LENGTH = 64 * 1024;
+
+    // Android's default hostname verifier checks the certificate, while the one of a plain JVM rejects every host,
+    // so elsewhere the TLS handshake checks the hostname itself
+    private final static boolean ANDROID = "Dalvik".equals(System.getProperty("java.vm.name"));
+
+    private final SSLSocketFactory sslSocketFactory;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxIdlePerHost;
+    private final long keepAliveMillis;
+
+    // Idle connections per scheme, host and port. The most recently used connection is at the front.
+    private final HashMap<String, ArrayDeque<Connection>> idle = new HashMap<String, ArrayDeque<Connection>>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Timeouts are in milliseconds. Idle connections are closed after keepAliveMillis.
+    public PooledTransport(int connectTimeout, int readTimeout, int maxIdlePerHost, long keepAliveMillis) {
+        this(connectTimeout, readTimeout, maxIdlePerHost, keepAliveMillis, (SSLSocketFactory) SSLSocketFactory.getDefault());
+    }
+
+
+    // Opens https connections with sslSocketFactory instead of the default one, for example to trust a private CA
+    public PooledTransport(int connectTimeout, int readTimeout, int maxIdlePerHost, long keepAliveMillis, SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.keepAliveMillis = keepAliveMillis;
+    }
+
+
+    public PooledTransport() {
+        this(15000, 30000, 5, 30000);
+    }
+
+
+    /**
+     * Transport Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public Response execute(String method, String url, Map<String, String> headers) throws IOException {
+        URL target = new URL(url);
+        for (int redirects = 0; ; redirects++) {
+            PooledResponse response = send(method, target, headers);
+            int code = response.getResponseCode();
+            String location = response.getHeader("Location");
+            if (Utils.isRedirect(code) && location != null && redirects < MAX_REDIRECTS) {
+                response.close();
+                target = Utils.resolveRedirect(target, location);
+                continue;
+            }
+            return response;
+        }
+    }
+
+
+    @Override
+    public Stats getStats() {
+        return new Stats(requests.get(), connectionsOpened.get());
+    }
+
+
+    @Override
+    public void shutdown() {
+        synchronized (idle) {
+            for (ArrayDeque<Connection> connections : idle.values()) {
+                for (Connection connection : connections) {
+                    connection.close();
+                }
+            }
+            idle.clear();
+        }
+    }
+
+
+    /**
+     * Connection Pool
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Sends a request on a pooled connection if there is one, falling back to a new connection
+    private PooledResponse send(String method, URL url, Map<String, String> headers) throws IOException {
+        String key = keyFor(url);
+        requests.incrementAndGet();
+        Connection connection = takeIdle(key);
+        if (connection != null) {
+            try {
+                return connection.send(method, url, headers);
+            } catch (IOException e) {
+                // The server closed the idle connection, try again on a new one
+                connection.close();
+            }
+        }
+
+        connection = open(url, key);
+        try {
+            return connection.send(method, url, headers);
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+
+    // Takes the most recently used idle connection for a host, closing any that have been idle too long
+    private Connection takeIdle(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (idle) {
+            ArrayDeque<Connection> connections = idle.get(key);
+            while (connections != null && !connections.isEmpty()) {
+                Connection connection = connections.pollFirst();
+                if (now - connection.idleSince < keepAliveMillis && !connection.socket.isClosed()) {
+                    return connection;
+                }
+                connection.close();
+            }
+            return null;
+        }
+    }
+
+
+    // Puts a connection back in the pool
+    private void release(Connection connection) {
+        synchronized (idle) {
+            ArrayDeque<Connection> connections = idle.get(connection.key);
+            if (connections == null) {
+                connections = new ArrayDeque<Connection>();
+                idle.put(connection.key, connections);
+            }
+            if (connections.size() >= maxIdlePerHost) {
+                connection.close();
+                return;
+            }
+            connection.idleSince = System.currentTimeMillis();
+            connections.addFirst(connection);
+        }
+    }
+
+
+    // Opens a new connection, doing the TLS handshake for https urls. Each step is timed for the metrics.
+    private Connection open(URL url, String key) throws IOException {
+        boolean secure = "https".equalsIgnoreCase(url.getProtocol());
+        String host = url.getHost();
+        int port = (url.getPort() != -1) ? url.getPort() : (secure ? 443 : 80);
+
+        long start = System.nanoTime();
+        InetAddress address = InetAddress.getByName(host);
+        long resolved = System.nanoTime();
+        long connected;
+        long tlsNanos = -1;
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address, port), connectTimeout);
+            connected = System.nanoTime();
+            socket.setSoTimeout(readTimeout);
+            socket.setTcpNoDelay(true);
+            if (secure) {
+                SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+                socket = sslSocket;
+                if (!ANDROID) {
+                    SSLParameters parameters = sslSocket.getSSLParameters();
+                    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                    sslSocket.setSSLParameters(parameters);
+                }
+                sslSocket.startHandshake();
+                if (ANDROID && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, sslSocket.getSession())) {
+                    throw new SSLPeerUnverifiedException("Hostname " + host + " was not verified.");
+                }
+                tlsNanos = System.nanoTime() - connected;
+            }
+        } catch (IOException e) {
+            closeSocket(socket);
+            throw e;
+        }
+        connectionsOpened.incrementAndGet();
+        return new Connection(key, socket, resolved - start, connected - resolved, tlsNanos);
+    }
+
+
+    // Closes a socket and ignores any errors. Socket is not Closeable before API 19.
+    private static void closeSocket(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+
+    // Returns the pool key of a url
+    private static String keyFor(URL url) {
+        return url.getProtocol().toLowerCase(Locale.US) + "://" + url.getHost().toLowerCase(Locale.US) + ":" + url.getPort();
+    }
+
+
+    /**
+     * Connection
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // A persistent HTTP/1.1 connection
+    private class Connection {
+        private final String key;
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private long idleSince = 0;
+
+        // How long opening the connection took, reported with its first response only
+        private final long dnsNanos;
+        private final long connectNanos;
+        private final long tlsNanos;
+        private boolean used = false;
+
+        Connection(String key, Socket socket, long dnsNanos, long connectNanos, long tlsNanos) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+            this.dnsNanos = dnsNanos;
+            this.connectNanos = connectNanos;
+            this.tlsNanos = tlsNanos;
+        }
+
+        // Writes a request and reads the status line and headers of its response
+        PooledResponse send(String method, URL url, Map<String, String> headers) throws IOException {
+            boolean opened = !used;
+            used = true;
+            String path = url.getFile();
+            StringBuilder request = new StringBuilder();
+            request.append(method).append(' ').append(path.isEmpty() ? "/" : path).append(" HTTP/1.1\r\n");
+            request.append("Host: ").append(url.getHost());
+            if (url.getPort() != -1) {
+                request.append(':').append(url.getPort());
+            }
+            request.append("\r\n");
+            request.append("Connection: keep-alive\r\n");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            request.append("\r\n");
+            out.write(request.toString().getBytes("ISO-8859-1"));
+            out.flush();
+
+            // Skip informational responses
+            String statusLine;
+            int code;
+            HashMap<String, String> responseHeaders;
+            do {
+                statusLine = readLine(in);
+                if (statusLine == null) {
+                    throw new EOFException("Connection closed before the response.");
+                }
+                code = parseStatusCode(statusLine);
+                responseHeaders = readHeaders(in);
+            } while (code >= 100 && code < 200);
+
+            // Work out how the body is framed and whether the connection survives it
+            boolean keepAlive = statusLine.startsWith("HTTP/1.1")
+                    ? !"close".equalsIgnoreCase(responseHeaders.get("connection"))
+                    : "keep-alive".equalsIgnoreCase(responseHeaders.get("connection"));
+            BodyInputStream body;
+            String transferEncoding = responseHeaders.get("transfer-encoding");
+            long contentLength = Utils.parseContentLength(responseHeaders.get("content-length"));
+            if ("HEAD".equals(method) || code == 204 || code == 304) {
+                body = new FixedLengthInputStream(in, 0);
+            } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+                body = new ChunkedInputStream(in);
+            } else if (contentLength >= 0) {
+                body = new FixedLengthInputStream(in, contentLength);
+            } else {
+                // The body ends when the server closes the connection
+                body = new UntilCloseInputStream(in);
+                keepAlive = false;
+            }
+            return new PooledResponse(this, code, responseHeaders, body, keepAlive, opened);
+        }
+
+        void close() {
+            closeSocket(socket);
+        }
+    }
+
+
+    /**
+     * Response
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    private class PooledResponse implements Response, Timing {
+        private final Connection connection;
+        private final int code;
+        private final HashMap<String, String> headers;
+        private final BodyInputStream body;
+        private final boolean keepAlive;
+        private final boolean opened;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        PooledResponse(Connection connection, int code, HashMap<String, String> headers, BodyInputStream body, boolean keepAlive, boolean opened) {
+            this.connection = connection;
+            this.code = code;
+            this.headers = headers;
+            this.body = body;
+            this.keepAlive = keepAlive;
+            this.opened = opened;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return code;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+
+            // Read what is left of the body so the connection can carry the next request
+            try {
+                byte[] skip = new byte[1024];
+                int drained = 0;
+                int bytesRead;
+                while (drained < MAX_DRAIN_BYTES && (bytesRead = body.read(skip)) != -1) {
+                    drained += bytesRead;
+                }
+            } catch (IOException e) {
+                connection.close();
+                return;
+            }
+            if (keepAlive && body.isFinished()) {
+                release(connection);
+            } else {
+                connection.close();
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (finished.compareAndSet(false, true)) {
+                connection.close();
+            }
+        }
+
+        @Override
+        public long getDnsNanos() {
+            return opened ? connection.dnsNanos : -1;
+        }
+
+        @Override
+        public long getConnectNanos() {
+            return opened ? connection.connectNanos : -1;
+        }
+
+        @Override
+        public long getTlsNanos() {
+            return opened ? connection.tlsNanos : -1;
+        }
+    }
+
+
+    /**
+     * Body Streams
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Body of a response. Closing it does not close the connection; the response decides what happens to it.
+    private abstract static class BodyInputStream extends InputStream {
+        protected final InputStream in;
+
+        BodyInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        // Checks if the whole body has been read
+        abstract boolean isFinished();
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+        }
+    }
+
+
+    // Body with a Content-Length
+    private static class FixedLengthInputStream extends BodyInputStream {
+        private long remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int bytesRead = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (bytesRead == -1) {
+                throw new EOFException("Connection closed before the end of the body.");
+            }
+            remaining -= bytesRead;
+            return bytesRead;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        boolean isFinished() {
+            return remaining == 0;
+        }
+    }
+
+
+    // Body sent with Transfer-Encoding: chunked
+    private static class ChunkedInputStream extends BodyInputStream {
+        private long chunkRemaining = 0;
+        private boolean finished = false;
+
+        ChunkedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            if (chunkRemaining == 0) {
+                readChunkSize();
+                if (finished) {
+                    return -1;
+                }
+            }
+            int bytesRead = in.read(buffer, offset, (int) Math.min(length, chunkRemaining));
+            if (bytesRead == -1) {
+                throw new EOFException("Connection closed before the end of the body.");
+            }
+            chunkRemaining -= bytesRead;
+            if (chunkRemaining == 0) {
+                // Every chunk ends with a line break
+                readLine(in);
+            }
+            return bytesRead;
+        }
+
+        // Reads the size line of the next chunk, and the trailers after the last chunk
+        private void readChunkSize() throws IOException {
+            String line = readLine(in);
+            if (line == null) {
+                throw new EOFException("Connection closed before the end of the body.");
+            }
+            int extension = line.indexOf(';');
+            if (extension >= 0) {
+                line = line.substring(0, extension);
+            }
+            try {
+                chunkRemaining = Long.parseLong(line.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Bad chunk size: " + line);
+            }
+            if (chunkRemaining == 0) {
+                readHeaders(in);
+                finished = true;
+            }
+        }
+
+        @Override
+        boolean isFinished() {
+            return finished;
+        }
+    }
+
+
+    // Body without a length that ends when the connection closes
+    private static class UntilCloseInputStream extends BodyInputStream {
+        UntilCloseInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return in.read(buffer, offset, length);
+        }
+
+        @Override
+        boolean isFinished() {
+            return false;
+        }
+    }
+
+
+    /**
+     * Parsing Helpers
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Reads a line ending in CRLF or LF. Returns null if the stream ended before any bytes were read.
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new ProtocolException("Header line too long.");
+            }
+            line.append((char) c);
+        }
+        return (line.length() == 0) ? null : line.toString();
+    }
+
+
+    // Reads headers up to the blank line. Names are lower case and repeated headers are joined with commas.
+    private static HashMap<String, String> readHeaders(InputStream in) throws IOException {
+        HashMap<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = line.substring(colon + 1).trim();
+            String existing = headers.get(name);
+            headers.put(name, (existing == null) ? value : existing + ", " + value);
+        }
+        return headers;
+    }
+
+
+    // Parses the code out of a status line such as "HTTP/1.1 200 OK"
+    private static int parseStatusCode(String statusLine) throws IOException {
+        if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12) {
+            throw new ProtocolException("Bad status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(statusLine.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Bad status line: " + statusLine);
+        }
+    }
+}
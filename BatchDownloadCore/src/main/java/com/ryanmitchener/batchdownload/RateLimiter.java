@@ -0,0 +1,99 @@
+package com.ryanmitchener.batchdownload;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Token bucket that limits the bytes per second read by every thread sharing it. Threads take tokens for the
+// bytes they have read and sleep off any debt outside the lock, so the bucket is only locked once per buffer.
+// The bucket holds at most one second of tokens, which lets a connection burst after it was idle.
+final class RateLimiter {
+    private final static long NANOS_PER_SECOND = 1000000000L;
+
+    // Bytes per second, 0 means unlimited
+    private volatile long rate;
+    private double tokens = 0;
+    private long lastRefill = -1;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    RateLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Changes the rate. Threads already sleeping finish their current wait.
+    synchronized void setRate(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Rate can not be negative.");
+        }
+        rate = bytesPerSecond;
+        tokens = Math.min(tokens, bytesPerSecond);
+    }
+
+
+    // Returns the rate in bytes per second or 0 if unlimited
+    long getRate() {
+        return rate;
+    }
+
+
+    // Takes tokens for bytes that were read and returns how many nanoseconds the caller has to wait to stay
+    // within the rate
+    long reserve(long bytes, long now) {
+        if (rate == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            long rate = this.rate;
+            if (rate == 0) {
+                return 0;
+            }
+            if (lastRefill >= 0) {
+                tokens = Math.min(rate, tokens + (now - lastRefill) * (double) rate / NANOS_PER_SECOND);
+            }
+            lastRefill = now;
+            tokens -= bytes;
+            if (tokens >= 0) {
+                return 0;
+            }
+            return (long) (-tokens * NANOS_PER_SECOND / rate);
+        }
+    }
+
+
+    // Sleeps for a wait returned by reserve()
+    static void sleep(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        }
+    }
+}
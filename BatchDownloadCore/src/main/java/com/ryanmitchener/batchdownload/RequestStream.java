@@ -0,0 +1,142 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Source of a streamed batch. Requests are pulled from the iterator only while fewer than the window size are
+// queued, running or paused, so the batch holds at most that many requests however long the iterator is. Only one
+// thread pulls at a time: a thread that calls startFeeding() while another is pulling leaves the work to that
+// thread, which loops again before it stops.
+final class RequestStream {
+    private final Iterator<BatchDownload.Request> iterator;
+    private final int window;
+    private final Set<BatchDownload.Request> requests = Collections.newSetFromMap(new ConcurrentHashMap<BatchDownload.Request, Boolean>());
+    private final AtomicInteger feeders = new AtomicInteger();
+    private final AtomicInteger pulled = new AtomicInteger();
+    private volatile boolean drained = false;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    RequestStream(Iterator<BatchDownload.Request> iterator, int window) {
+        this.iterator = iterator;
+        this.window = window;
+    }
+
+
+    /**
+     * Feeding
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns true if the calling thread should pull. Returns false if another thread is already pulling, in which
+    // case that thread goes round once more.
+    boolean startFeeding() {
+        return feeders.getAndIncrement() == 0;
+    }
+
+
+    // Called by the pulling thread after each round with the number of calls it has handled. Returns the number of
+    // calls that came in since, or 0 once the thread may stop.
+    int stopFeeding(int handled) {
+        return feeders.addAndGet(-handled);
+    }
+
+
+    // Pulls the next request if the window has room. Returns null if the window is full or the iterator has run out.
+    // Exceptions thrown by the iterator are passed on. Must only be called by the pulling thread.
+    BatchDownload.Request next() {
+        if (drained || requests.size() >= window) {
+            return null;
+        }
+        if (!iterator.hasNext()) {
+            close();
+            return null;
+        }
+        BatchDownload.Request request = iterator.next();
+        if (request == null) {
+            throw new NullPointerException("The iterator returned a null request.");
+        }
+        requests.add(request);
+        pulled.incrementAndGet();
+        return request;
+    }
+
+
+    // Frees the room of a request that finished, failed or was cancelled
+    void release(BatchDownload.Request request) {
+        requests.remove(request);
+    }
+
+
+    // Stops pulling and closes the iterator if it is Closeable. Must only be called by the pulling thread.
+    void close() {
+        if (drained) {
+            return;
+        }
+        drained = true;
+        if (iterator instanceof Closeable) {
+            try {
+                ((Closeable) iterator).close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * Getters
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Checks if every request has been pulled, or pulling was stopped
+    boolean isDrained() {
+        return drained;
+    }
+
+
+    // Returns the requests pulled that have not finished yet
+    List<BatchDownload.Request> getRequests() {
+        return new ArrayList<BatchDownload.Request>(requests);
+    }
+
+
+    // Returns the number of requests pulled so far
+    int getPulled() {
+        return pulled.get();
+    }
+}
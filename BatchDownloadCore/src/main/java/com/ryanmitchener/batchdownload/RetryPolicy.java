@@ -0,0 +1,137 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Decides whether a failed download is tried again and how long to wait first. Waits grow exponentially from
+// baseDelay up to maxDelay with half of each wait randomized so requests that failed together spread out.
+// A Retry-After header from the server is honoured when it asks for a longer wait.
+final class RetryPolicy {
+    private final static int HTTP_REQUEST_TIMEOUT = 408;
+    private final static int HTTP_TOO_MANY_REQUESTS = 429;
+    private final static int HTTP_NOT_IMPLEMENTED = 501;
+    private final static int HTTP_VERSION_NOT_SUPPORTED = 505;
+    private final static long MAX_RETRY_AFTER = 10 * 60 * 1000;
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // maxAttempts counts the first attempt, so 1 disables retries. Delays are in milliseconds.
+    RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+
+    // Returns the milliseconds to wait before the next attempt, or -1 if the request has used all its attempts
+    long getDelay(int attempts, long retryAfter) {
+        if (attempts >= maxAttempts) {
+            return -1;
+        }
+        long backoff = baseDelay << Math.min(attempts - 1, 30);
+        if (backoff <= 0 || backoff > maxDelay) {
+            backoff = maxDelay;
+        }
+        long delay = backoff / 2 + (long) (Math.random() * (backoff / 2 + 1));
+        return Math.max(delay, Math.min(retryAfter, MAX_RETRY_AFTER));
+    }
+
+
+    /**
+     * Failure Classification
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Checks if a response code is worth retrying. -1 means the response was cut short.
+    static boolean isRetryable(int responseCode) {
+        if (responseCode == -1 || responseCode == HTTP_REQUEST_TIMEOUT || responseCode == HTTP_TOO_MANY_REQUESTS) {
+            return true;
+        }
+        return responseCode >= 500 && responseCode != HTTP_NOT_IMPLEMENTED && responseCode != HTTP_VERSION_NOT_SUPPORTED;
+    }
+
+
+    // Checks if an exception is a network failure that may go away. Bad urls, certificates that fail the handshake or
+    // name another host, and files on this device that can not be written do not.
+    static boolean isRetryable(Exception e) {
+        if (!(e instanceof IOException)) {
+            return false;
+        }
+        return !(e instanceof MalformedURLException || e instanceof ProtocolException
+                || e instanceof SSLHandshakeException || e instanceof SSLPeerUnverifiedException
+                || e instanceof FileNotFoundException || e instanceof LocalIOException);
+    }
+
+
+    // Parses a Retry-After header given either in seconds or as an HTTP date. Returns 0 if missing or invalid.
+    static long parseRetryAfter(String header, long now) {
+        if (header == null) {
+            return 0;
+        }
+        header = header.trim();
+        try {
+            return Math.max(0, Long.parseLong(header) * 1000);
+        } catch (NumberFormatException e) {
+            // Not in seconds, try a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(header);
+            return Math.max(0, date.getTime() - now);
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// A large file split into byte ranges which are downloaded concurrently into one preallocated file
+final class SegmentedDownload {
+    private final BatchDownload downloader;
+    private final BatchDownload.Request request;
+    private final File destination;
+    private final PartialDownload partial;
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile Exception error = null;
+    private volatile boolean cancelled = false;
+
+    SegmentedDownload(BatchDownload downloader, BatchDownload.Request request, File destination, PartialDownload partial) {
+        this.downloader = downloader;
+        this.request = request;
+        this.destination = destination;
+        this.partial = partial;
+    }
+
+    // Preallocates the file, queues every segment but the first and downloads the first on this thread
+    void start() throws Exception {
+        long length = request.contentLength;
+        partial.reset();
+        partial.preallocate(length);
+
+        int count = (int) Math.max(1, Math.min(downloader.segmentCount, length / BatchDownload.MIN_SEGMENT_SIZE));
+        long segmentSize = (length + count - 1) / count;
+        remaining.set(count);
+        for (int i = 1; i < count; i++) {
+            long start = i * segmentSize;
+            long end = Math.min(length, start + segmentSize) - 1;
+            try {
+                downloader.downloadThreadPool.execute(new SegmentTask(start, end));
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+                segmentFinished(null);
+            }
+        }
+        new SegmentTask(0, Math.min(length, segmentSize) - 1).run();
+    }
+
+    // Called once by every segment. The last segment to finish moves the file or reports the error.
+    void segmentFinished(Exception e) {
+        if (e != null && error == null) {
+            error = e;
+        }
+        if (remaining.decrementAndGet() != 0) {
+            return;
+        }
+        if (request.isStopped() || cancelled) {
+            // The segments are not tracked on disk so a paused request starts over
+            partial.reset();
+            downloader.onStopped(request);
+        } else if (error != null) {
+            partial.reset();
+            downloader.onError(request, error);
+        } else {
+            // Segmented requests carry no checksum, but the expected size is checked before the file is moved
+            try {
+                downloader.verify(request, partial, partial.getDataFile().length(), null, false);
+                downloader.moveToDestination(request, partial, destination);
+            } catch (Exception finishError) {
+                downloader.onError(request, finishError);
+            }
+        }
+    }
+
+
+    // Downloads one byte range of a segmented download into its place in the output file
+    private class SegmentTask extends DownloadQueue.Task {
+        private final long start;
+        private final long end;
+
+        SegmentTask(long start, long end) {
+            super(request.getHost(), request.priority, end - start + 1);
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            RandomAccessFile file = null;
+            Transport.Response response = null;
+            boolean finished = false;
+            Exception failure = null;
+            MetricsRecorder metrics = downloader.metrics;
+            long runStart = (metrics != null) ? System.nanoTime() : 0;
+            request.attachWorker(Thread.currentThread());
+            try {
+                // Stop early if the request was stopped or another segment has already failed
+                if (request.isStopped()) {
+                    cancelled = true;
+                    return;
+                }
+                if (error != null) {
+                    return;
+                }
+
+                // Request only this segment. If-Range makes sure every segment comes from the same version of the file.
+                HashMap<String, String> headers = new HashMap<String, String>();
+                headers.put("Range", "bytes=" + start + "-" + end);
+                headers.put("Accept-Encoding", ContentDecoder.IDENTITY);
+                if (request.validator != null) {
+                    headers.put("If-Range", request.validator);
+                }
+                response = downloader.execute("GET", request.url, headers);
+                request.attachResponse(response);
+                if (response.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new BatchDownload.BadHTTPResponseException(response);
+                }
+
+                // Write data to the segment's offset in the file
+                file = new RandomAccessFile(partial.getDataFile(), "rw");
+                long length = end - start + 1;
+                long transferred = downloader.transfer(request, response, file.getChannel(), start, length, null, null);
+                if (transferred == BatchDownload.TRANSFER_CANCELLED) {
+                    cancelled = true;
+                    return;
+                }
+
+                // The connection closed before the whole segment arrived
+                if (transferred < length) {
+                    throw new BatchDownload.BadHTTPResponseException();
+                }
+                finished = true;
+                response.close();
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                request.detachWorker(Thread.currentThread());
+                if (response != null) {
+                    request.detachResponse(response);
+                }
+                Utils.closeQuietly(file);
+                if (response != null && !finished) {
+                    response.abort();
+                }
+                if (metrics != null) {
+                    metrics.recordBusy(System.nanoTime() - runStart);
+                }
+                segmentFinished(failure);
+            }
+        }
+    }
+}
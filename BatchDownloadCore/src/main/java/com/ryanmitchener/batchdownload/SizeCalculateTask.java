@@ -0,0 +1,72 @@
+package com.ryanmitchener.batchdownload;
+
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Runnable for calculating the total size of all requests
+final class SizeCalculateTask implements Runnable {
+    private final BatchDownload downloader;
+    private final BatchDownload.Request request;
+
+    SizeCalculateTask(BatchDownload downloader, BatchDownload.Request request) {
+        this.downloader = downloader;
+        this.request = request;
+    }
+
+    @Override
+    public void run() {
+        try {
+            // A prefetch is pointless once the GET has started, since it reports the size itself
+            if (request.isCancelled() || (downloader.config.sizeFromResponse && request.started)) {
+                return;
+            }
+            // Ask for the same encoding as the GET so the size matches the bytes that will come off the wire
+            HashMap<String, String> headers = new HashMap<String, String>();
+            headers.put("Accept-Encoding", downloader.config.compression ? ContentDecoder.ACCEPT_ENCODING : ContentDecoder.IDENTITY);
+            Transport.Response response = downloader.transport.execute("HEAD", request.url, headers);
+            if (response.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                // Remember what the server told us so large files can be segmented. Ranges only line up with the
+                // uncompressed bytes, so a compressed size can not be split.
+                request.etag = response.getHeader("ETag");
+                request.lastModified = response.getHeader("Last-Modified");
+                request.validator = Utils.getRangeValidator(request.etag, request.lastModified);
+                request.acceptsRanges = "bytes".equalsIgnoreCase(response.getHeader("Accept-Ranges"))
+                        && !ContentDecoder.isEncoded(response.getHeader("Content-Encoding"));
+                request.contentLength = Utils.getContentLength(response);
+
+                // Let the queue order the download by its size
+                DownloadQueue.Task task = request.queuedTask;
+                if (task != null) {
+                    downloader.downloadWorkQueue.update(task, request.priority, request.contentLength);
+                }
+                downloader.countSize(request);
+            }
+            response.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
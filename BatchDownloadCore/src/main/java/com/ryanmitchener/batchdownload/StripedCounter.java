@@ -0,0 +1,81 @@
+package com.ryanmitchener.batchdownload;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Lock-free counter split into cells padded onto separate cache lines. Each thread adds to its own cell
+// so download threads never contend on a shared lock or cache line, and readers sum the cells.
+final class StripedCounter {
+    // Number of longs in a 64 byte cache line
+    private final static int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    StripedCounter() {
+        // Use a power of two number of stripes so a thread's cell can be found with a mask
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        this.mask = stripes - 1;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Adds to the calling thread's cell. Pool threads have sequential ids so they land in different cells.
+    void add(long x) {
+        cells.addAndGet(((int) Thread.currentThread().getId() & mask) * PADDING, x);
+    }
+
+
+    // Sums every cell. Adds made while summing may or may not be included.
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i <= mask; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+
+    // Clears every cell
+    void reset() {
+        for (int i = 0; i <= mask; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+}
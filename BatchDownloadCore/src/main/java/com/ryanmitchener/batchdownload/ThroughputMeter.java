@@ -0,0 +1,72 @@
+package com.ryanmitchener.batchdownload;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Measures bytes per second from a running byte count, sampled by the progress ticker
+final class ThroughputMeter {
+    private final static long SAMPLE_INTERVAL_NANOS = 500000000L;
+    private final static double SMOOTHING = 0.5;
+
+    private long lastSampleTime = -1;
+    private long lastBytes = 0;
+    private volatile long bytesPerSecond = 0;
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Samples the byte count, updating the rate at most every SAMPLE_INTERVAL_NANOS
+    synchronized void update(long now, long totalBytes) {
+        if (lastSampleTime < 0 || totalBytes < lastBytes) {
+            // First sample, or the counters were reset
+            lastSampleTime = now;
+            lastBytes = totalBytes;
+            return;
+        }
+        long elapsed = now - lastSampleTime;
+        if (elapsed < SAMPLE_INTERVAL_NANOS) {
+            return;
+        }
+        double sample = (totalBytes - lastBytes) * 1000000000.0 / elapsed;
+        bytesPerSecond = (long) (SMOOTHING * sample + (1 - SMOOTHING) * bytesPerSecond);
+        lastSampleTime = now;
+        lastBytes = totalBytes;
+    }
+
+
+    // Returns the smoothed rate in bytes per second
+    long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+
+    // Starts over for a new batch
+    synchronized void reset() {
+        lastSampleTime = -1;
+        lastBytes = 0;
+        bytesPerSecond = 0;
+    }
+}
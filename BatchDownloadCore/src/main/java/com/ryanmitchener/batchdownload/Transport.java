@@ -0,0 +1,103 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Sends the HTTP requests made by the download tasks. Implementations decide how connections are opened, pooled or
+// multiplexed, so an app can plug in its own HTTP stack or tests can point the engine at a local stand-in server.
+public interface Transport {
+    // Sends a request and returns once the status line and headers have been received
+    Response execute(String method, String url, Map<String, String> headers) throws IOException;
+
+    // Returns the connection statistics of this transport
+    Stats getStats();
+
+    // Closes any idle connections held by the transport
+    void shutdown();
+
+
+    // Response to a request. Must be finished with either close() or abort().
+    interface Response extends Closeable {
+        int getResponseCode();
+
+        // Returns the value of a header, ignoring case, or null if it was not sent
+        String getHeader(String name);
+
+        InputStream getBody() throws IOException;
+
+        // Finishes a response that was read completely so its connection can be reused
+        @Override
+        void close();
+
+        // Finishes a response that was not read completely or failed. Its connection is not reused. May be called
+        // from another thread to break a read that is blocked on the connection. Does nothing once finished.
+        void abort();
+    }
+
+
+    // Optionally implemented by a Response that knows how its connection was set up, which lets the metrics split the
+    // time to the response headers into DNS, connect, TLS and the wait for the server
+    interface Timing {
+        // Nanoseconds spent on each step of opening the connection, or -1 if the step did not happen for this
+        // response, for example because it was sent on a pooled connection or over plain http
+        long getDnsNanos();
+
+        long getConnectNanos();
+
+        long getTlsNanos();
+    }
+
+
+    // Connection statistics of a transport
+    final class Stats {
+        private final long requests;
+        private final long connectionsOpened;
+
+        public Stats(long requests, long connectionsOpened) {
+            this.requests = requests;
+            this.connectionsOpened = connectionsOpened;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        // Returns -1 if the transport can not tell when connections are opened
+        public long getConnectionsOpened() {
+            return connectionsOpened;
+        }
+
+        // Returns the fraction of requests that were sent on an existing connection or -1 if unknown
+        public double getReuseRate() {
+            if (connectionsOpened < 0 || requests == 0) {
+                return -1;
+            }
+            return Math.max(0, requests - connectionsOpened) / (double) requests;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Transport backed by HttpURLConnection. Finished responses are read to the end and closed without calling
+// disconnect(), which lets the platform keep the socket alive and reuse it for the next request to the same host.
+// The platform does not say when it opens a connection, so the reuse rate is reported as unknown.
+public class UrlConnectionTransport implements Transport {
+    // Bytes that will be read from an unfinished body to save the connection before giving up on it
+    private final static int MAX_DRAIN_BYTES = 64 * 1024;
+    private final static int MAX_REDIRECTS = 5;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final AtomicLong requests = new AtomicLong();
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Timeouts are in milliseconds. 0 waits forever.
+    public UrlConnectionTransport(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+
+    public UrlConnectionTransport() {
+        this(0, 0);
+    }
+
+
+    /**
+     * Transport Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    @Override
+    public Response execute(String method, String url, Map<String, String> headers) throws IOException {
+        URL target = new URL(url);
+        for (int redirects = 0; ; redirects++) {
+            UrlConnectionResponse response = send(method, target, headers);
+            int code = response.getResponseCode();
+            String location = response.getHeader("Location");
+            if (Utils.isRedirect(code) && location != null && redirects < MAX_REDIRECTS) {
+                response.close();
+                target = Utils.resolveRedirect(target, location);
+                continue;
+            }
+            return response;
+        }
+    }
+
+
+    // Sends a single request. Redirects are returned rather than followed so execute() can check every hop.
+    private UrlConnectionResponse send(String method, URL url, Map<String, String> headers) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        con.setInstanceFollowRedirects(false);
+        con.setRequestMethod(method);
+        con.setConnectTimeout(connectTimeout);
+        con.setReadTimeout(readTimeout);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            con.setRequestProperty(header.getKey(), header.getValue());
+        }
+        requests.incrementAndGet();
+        try {
+            con.getResponseCode();
+        } catch (IOException e) {
+            con.disconnect();
+            throw e;
+        }
+        return new UrlConnectionResponse(con);
+    }
+
+
+    @Override
+    public Stats getStats() {
+        return new Stats(requests.get(), -1);
+    }
+
+
+    @Override
+    public void shutdown() {
+        // Idle connections are owned by the platform
+    }
+
+
+    /**
+     * Response
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    private static class UrlConnectionResponse implements Response {
+        private final HttpURLConnection con;
+        private InputStream body = null;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        UrlConnectionResponse(HttpURLConnection con) {
+            this.con = con;
+        }
+
+        @Override
+        public int getResponseCode() {
+            try {
+                return con.getResponseCode();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return con.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = (getResponseCode() >= 400) ? con.getErrorStream() : con.getInputStream();
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+
+            // Read what is left so the platform puts the connection back in its pool
+            try {
+                InputStream is = getBody();
+                if (is != null) {
+                    byte[] skip = new byte[1024];
+                    int drained = 0;
+                    int bytesRead;
+                    while (drained < MAX_DRAIN_BYTES && (bytesRead = is.read(skip)) != -1) {
+                        drained += bytesRead;
+                    }
+                    if (drained >= MAX_DRAIN_BYTES) {
+                        disconnect();
+                        return;
+                    }
+                    is.close();
+                }
+            } catch (IOException e) {
+                disconnect();
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (finished.compareAndSet(false, true)) {
+                disconnect();
+            }
+        }
+
+        // Closes the connection instead of returning it to the platform's pool
+        private void disconnect() {
+            Utils.closeQuietly(body);
+            con.disconnect();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Static helpers shared by the download tasks
+final class Utils {
+    private Utils() {}
+
+
+    // Closes a stream and ignores any errors
+    static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+
+    // Returns the Content-Length of a response as a long so files over 2GB are not reported as -1
+    static long getContentLength(Transport.Response response) {
+        return parseContentLength(response.getHeader("Content-Length"));
+    }
+
+
+    // Parses a Content-Length header, returning -1 if it is missing or invalid
+    static long parseContentLength(String header) {
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    // Returns a validator usable in an If-Range header. Weak ETags are not allowed in If-Range.
+    static String getRangeValidator(String etag, String lastModified) {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+
+
+    // Checks if a response code is a redirect that should be followed. 300 leaves the choice to the client and 305
+    // asks for a proxy, so neither is followed.
+    static boolean isRedirect(int code) {
+        return code == 301 || code == 302 || code == 303 || code == 307 || code == 308;
+    }
+
+
+    // Resolves the Location of a redirect against the url that sent it. Refuses to leave https for plain http, which
+    // would send the request and the downloaded bytes in the clear, and anything that is not http at all.
+    static URL resolveRedirect(URL from, String location) throws IOException {
+        URL to = new URL(from, location);
+        String scheme = to.getProtocol();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            throw new ProtocolException("Redirect to unsupported protocol: " + to);
+        }
+        if ("https".equals(from.getProtocol()) && !"https".equals(scheme)) {
+            throw new ProtocolException("Redirect from https to http refused: " + to);
+        }
+        return to;
+    }
+
+
+    // Decodes the %XX escapes of a url as UTF-8. Unlike URLDecoder a '+' is kept, and malformed escapes are left as
+    // they are instead of failing.
+    static String decodePercent(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        StringBuilder builder = new StringBuilder(value.length());
+        byte[] bytes = new byte[value.length() / 3];
+        int i = 0;
+        while (i < value.length()) {
+            // Collect a run of escapes so multi-byte characters are decoded together
+            int count = 0;
+            while (i + 2 < value.length() && value.charAt(i) == '%') {
+                int high = Character.digit(value.charAt(i + 1), 16);
+                int low = Character.digit(value.charAt(i + 2), 16);
+                if (high < 0 || low < 0) {
+                    break;
+                }
+                bytes[count++] = (byte) ((high << 4) | low);
+                i += 3;
+            }
+            if (count > 0) {
+                try {
+                    builder.append(new String(bytes, 0, count, "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new AssertionError(e);
+                }
+            } else {
+                builder.append(value.charAt(i++));
+            }
+        }
+        return builder.toString();
+    }
+
+
+    // Copies a file, replacing the target if it exists
+    static void copy(File source, File target) throws IOException {
+        copy(source, target, false);
+    }
+
+
+    // Moves a file, replacing the target. Across filesystems, where a rename fails, the file is copied next to the
+    // target and renamed over it so the target is never seen half written.
+    static void move(File source, File target) throws IOException {
+        if (source.renameTo(target)) {
+            return;
+        }
+        copyAtomically(source, target);
+        source.delete();
+    }
+
+
+    // Copies a file into a temporary file in the target's folder, syncs it and renames it over the target
+    static void copyAtomically(File source, File target) throws IOException {
+        File temp = File.createTempFile(".batchdownload", ".tmp", target.getAbsoluteFile().getParentFile());
+        try {
+            copy(source, temp, true);
+            if (!temp.renameTo(target)) {
+                throw new IOException("Could not rename " + temp + " to " + target + ".");
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+
+    // Copies a file with channel transfers, optionally syncing it to disk before returning
+    private static void copy(File source, File target, boolean sync) throws IOException {
+        FileInputStream is = new FileInputStream(source);
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(target);
+            FileChannel in = is.getChannel();
+            FileChannel out = os.getChannel();
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            if (sync) {
+                os.getFD().sync();
+            }
+        } finally {
+            closeQuietly(is);
+            closeQuietly(os);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+// Builds zip, tar and tar.gz archives in memory and extracts them, whole or while they are still being written
+public class ArchiveExtractorTest {
+    private final static byte[] FIRST = TestServer.randomBytes(30000, 1);
+    private final static byte[] SECOND = TestServer.randomBytes(700, 2);
+
+    private File source;
+    private File folder;
+
+
+    @Before
+    public void setUp() throws IOException {
+        File temp = TestDownloads.newTempFolder();
+        source = new File(temp, "archive");
+        folder = new File(temp, "extracted");
+    }
+
+
+    @Test
+    public void extractsZip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("docs/"));
+        zip.closeEntry();
+        zip.putNextEntry(new ZipEntry("docs/first.bin"));
+        zip.write(FIRST);
+        zip.closeEntry();
+        zip.putNextEntry(new ZipEntry("second.bin"));
+        zip.write(SECOND);
+        zip.closeEntry();
+        zip.close();
+
+        assertEquals(3, extract(bytes.toByteArray()));
+        assertExtracted("docs/first.bin");
+    }
+
+
+    @Test
+    public void extractsTar() throws Exception {
+        assertEquals(3, extract(tar("docs/", "docs/first.bin", "second.bin")));
+        assertExtracted("docs/first.bin");
+    }
+
+
+    @Test
+    public void extractsTarGz() throws Exception {
+        assertEquals(3, extract(gzip(tar("docs/", "docs/first.bin", "second.bin"))));
+        assertExtracted("docs/first.bin");
+    }
+
+
+    @Test
+    public void extractsTarWithCurrentFolderEntries() throws Exception {
+        assertEquals(4, extract(tar("./", "./docs/", "./docs/first.bin", "./second.bin")));
+        assertExtracted("docs/first.bin");
+    }
+
+
+    @Test
+    public void extractsWhileWritten() throws Exception {
+        byte[] archive = gzip(tar("docs/", "docs/first.bin", "second.bin"));
+        ArchiveExtractor extractor = new ArchiveExtractor(source, folder);
+        Thread thread = new Thread(extractor);
+        thread.start();
+
+        // Hand the archive over in pieces as a download would
+        RandomAccessFile file = new RandomAccessFile(source, "rw");
+        try {
+            for (int position = 0; position < archive.length; position += 1000) {
+                int length = Math.min(1000, archive.length - position);
+                file.write(archive, position, length);
+                extractor.written(position + length);
+            }
+        } finally {
+            file.close();
+        }
+        extractor.complete(archive.length);
+        extractor.await();
+        assertEquals(3, extractor.getEntries());
+        assertEquals(archive.length, extractor.getBytesRead());
+        assertExtracted("docs/first.bin");
+    }
+
+
+    @Test
+    public void refusesTraversalOutOfFolder() throws Exception {
+        try {
+            extract(tar("second.bin", "../first.bin"));
+            fail("Extracted an entry outside the folder");
+        } catch (IOException e) {
+            assertFalse(new File(folder.getParentFile(), "first.bin").exists());
+        }
+    }
+
+
+    @Test
+    public void refusesZipTraversalOutOfFolder() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        zip.putNextEntry(new ZipEntry("docs/../../first.bin"));
+        zip.write(FIRST);
+        zip.closeEntry();
+        zip.close();
+        try {
+            extract(bytes.toByteArray());
+            fail("Extracted an entry outside the folder");
+        } catch (IOException e) {
+            assertFalse(new File(folder.getParentFile(), "first.bin").exists());
+        }
+    }
+
+
+    // Writes an archive to the source file, extracts it on this thread and returns the number of entries
+    private int extract(byte[] archive) throws Exception {
+        FileOutputStream os = new FileOutputStream(source);
+        try {
+            os.write(archive);
+        } finally {
+            os.close();
+        }
+        ArchiveExtractor extractor = new ArchiveExtractor(source, folder);
+        extractor.complete(archive.length);
+        extractor.run();
+        extractor.await();
+        return extractor.getEntries();
+    }
+
+
+    private void assertExtracted(String firstPath) throws IOException {
+        assertArrayEquals(FIRST, TestDownloads.read(new File(folder, firstPath)));
+        assertArrayEquals(SECOND, TestDownloads.read(new File(folder, "second.bin")));
+        assertTrue(new File(folder, firstPath).getParentFile().isDirectory());
+    }
+
+
+    // Builds a ustar archive. Names ending in "/" are folders, names ending in "first.bin" or "second.bin" hold
+    // those bytes.
+    private static byte[] tar(String... names) throws IOException {
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        for (String name : names) {
+            boolean directory = name.endsWith("/");
+            byte[] body = directory ? new byte[0] : (name.endsWith("first.bin") ? FIRST : SECOND);
+            tar.write(tarHeader(name, body.length, directory ? '5' : '0'));
+            tar.write(body);
+            tar.write(new byte[(512 - body.length % 512) % 512]);
+        }
+        tar.write(new byte[1024]);
+        return tar.toByteArray();
+    }
+
+
+    private static byte[] tarHeader(String name, long size, char type) throws IOException {
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        put(header, 124, String.format("%011o", size));
+        put(header, 136, String.format("%011o", 0));
+        header[156] = (byte) type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xFF;
+        }
+        put(header, 148, String.format("%06o", sum));
+        header[154] = 0;
+        return header;
+    }
+
+
+    private static void put(byte[] header, int offset, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(bytes);
+        gzip.close();
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,173 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+// Downloads through the engine from a local server: plain, compressed, continued from a partial file and with sizes
+// prefetched for each batch
+public class BatchDownloadTest {
+    private TestServer server;
+    private BatchDownload batchDownload;
+    private File folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server = TestServer.start();
+        batchDownload = TestDownloads.instance();
+        folder = TestDownloads.newFolder();
+    }
+
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+
+    @Test
+    public void downloadsFile() throws Exception {
+        byte[] body = TestServer.randomBytes(300000, 1);
+        server.serve("/plain", body);
+
+        BatchDownload.Batch batch = batchDownload.add(new BatchDownload.Request(server.url("/plain"), "plain.bin", folder));
+        TestDownloads.await(batch);
+
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "plain.bin")));
+    }
+
+
+    @Test
+    public void decodesBodyLargerThanContent() throws Exception {
+        // Random bytes grow when compressed, so the Content-Length is larger than the file
+        byte[] body = TestServer.randomBytes(300000, 2);
+        server.serveGzip("/random", body);
+
+        BatchDownload.Batch batch = batchDownload.add(new BatchDownload.Request(server.url("/random"), "random.bin", folder));
+        TestDownloads.await(batch);
+
+        assertTrue(server.getLastRequestHeader("/random", "Accept-Encoding").contains("gzip"));
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "random.bin")));
+    }
+
+
+    @Test
+    public void decodesBodySmallerThanContent() throws Exception {
+        byte[] body = new byte[300000];
+        Arrays.fill(body, (byte) 'a');
+        server.serveGzip("/text", body);
+
+        BatchDownload.Batch batch = batchDownload.add(new BatchDownload.Request(server.url("/text"), "text.txt", folder));
+        TestDownloads.await(batch);
+
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "text.txt")));
+    }
+
+
+    @Test
+    public void resumesFromPartialFile() throws Exception {
+        byte[] body = TestServer.randomBytes(300000, 3);
+        server.serve("/resume", body);
+        String url = server.url("/resume");
+
+        // Leave the first bytes on disk as an interrupted attempt would
+        int written = 120000;
+        File cache = TestDownloads.cacheFolder();
+        PartialDownload partial = PartialDownload.open(cache, new File(folder, "resume.bin"), url, 0);
+        partial.update(new HeaderResponse(TestServer.etagOf(body), body.length), 0);
+        FileOutputStream os = new FileOutputStream(partial.getDataFile());
+        os.write(body, 0, written);
+        os.close();
+
+        BatchDownload.Batch batch = batchDownload.add(new BatchDownload.Request(url, "resume.bin", folder));
+        TestDownloads.await(batch);
+
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertEquals("bytes=" + written + "-", server.getLastRequestHeader("/resume", "Range"));
+        assertEquals(1, server.getRequestCount("/resume"));
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "resume.bin")));
+    }
+
+
+    @Test
+    public void startsOverWhenFileChanged() throws Exception {
+        byte[] body = TestServer.randomBytes(200000, 4);
+        server.serve("/changed", body);
+        String url = server.url("/changed");
+
+        // The partial file belongs to an older version of the resource, so If-Range makes the server send it all
+        File cache = TestDownloads.cacheFolder();
+        PartialDownload partial = PartialDownload.open(cache, new File(folder, "changed.bin"), url, 0);
+        partial.update(new HeaderResponse("\"old\"", body.length), 0);
+        FileOutputStream os = new FileOutputStream(partial.getDataFile());
+        os.write(new byte[50000]);
+        os.close();
+
+        BatchDownload.Batch batch = batchDownload.add(new BatchDownload.Request(url, "changed.bin", folder));
+        TestDownloads.await(batch);
+
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "changed.bin")));
+    }
+
+
+    @Test
+    public void prefetchesSizesForEachBatch() throws Exception {
+        batchDownload.setConfig(new BatchDownload.Config.Builder().setRetry(1, 0, 0).setSizeFromResponse(1).build());
+        FakeDeviceState device = new FakeDeviceState();
+        device.connected = false;
+        batchDownload.setDeviceState(device);
+
+        // Deferred requests never start, so only the prefetch budget decides which of them get a HEAD request
+        BatchDownload.Batch first = addDeferred("first", 3);
+        BatchDownload.Batch second = addDeferred("second", 3);
+        awaitTotalBytes(first, 1000);
+        awaitTotalBytes(second, 1000);
+        Thread.sleep(200);
+        assertEquals(1000, first.getProgress().getTotalBytes());
+        assertEquals(1000, second.getProgress().getTotalBytes());
+
+        device.setConnected(true);
+        TestDownloads.await(first);
+        TestDownloads.await(second);
+        assertEquals(3000, first.getProgress().getTotalBytes());
+        assertEquals(3000, second.getProgress().getTotalBytes());
+    }
+
+
+    // Adds a batch of count requests of 1000 bytes that can not start on an offline device
+    private BatchDownload.Batch addDeferred(String name, int count) {
+        ArrayList<BatchDownload.Request> requests = new ArrayList<BatchDownload.Request>();
+        for (int i = 0; i < count; i++) {
+            String path = "/" + name + i;
+            server.serve(path, TestServer.randomBytes(1000, i));
+            BatchDownload.Request request = new BatchDownload.Request(server.url(path), name + i + ".bin", folder);
+            request.setConstraints(new BatchDownload.Constraints.Builder().build());
+            requests.add(request);
+        }
+        return batchDownload.add(requests);
+    }
+
+
+    private static void awaitTotalBytes(BatchDownload.Batch batch, long bytes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (batch.getProgress().getTotalBytes() < bytes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(bytes, batch.getProgress().getTotalBytes());
+    }
+}
@@ -0,0 +1,94 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+// Takes buffers from a pool until it runs out and checks that acquire() waits for one to be released
+public class BufferPoolTest {
+    @Test
+    public void allocatesDirectBuffersUpToCapacity() throws InterruptedException {
+        BufferPool pool = new BufferPool(1024, 2);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        assertNotSame(first, second);
+        assertTrue(first.isDirect());
+        assertEquals(1024, first.capacity());
+        assertEquals(1024, pool.getBufferSize());
+    }
+
+
+    @Test
+    public void reusesReleasedBuffer() throws InterruptedException {
+        BufferPool pool = new BufferPool(1024, 1);
+        ByteBuffer buffer = pool.acquire();
+        buffer.put(new byte[100]).flip();
+        pool.release(buffer);
+
+        // A released buffer comes back cleared
+        ByteBuffer again = pool.acquire();
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(1024, again.limit());
+    }
+
+
+    @Test
+    public void waitsForReleaseWhenEmpty() throws Exception {
+        final BufferPool pool = new BufferPool(1024, 1);
+        ByteBuffer buffer = pool.acquire();
+
+        final AtomicReference<ByteBuffer> acquired = new AtomicReference<ByteBuffer>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquired.set(pool.acquire());
+                } catch (InterruptedException e) {
+                    // Not expected here
+                }
+                done.countDown();
+            }
+        });
+        waiter.start();
+        assertFalse("Acquired a buffer beyond capacity", done.await(200, TimeUnit.MILLISECONDS));
+
+        pool.release(buffer);
+        assertTrue("Did not wake up on release", done.await(5, TimeUnit.SECONDS));
+        assertSame(buffer, acquired.get());
+    }
+
+
+    @Test
+    public void interruptsWaitingAcquire() throws Exception {
+        final BufferPool pool = new BufferPool(1024, 1);
+        pool.acquire();
+
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pool.acquire();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(100);
+        waiter.interrupt();
+        assertTrue("Waiting acquire was not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,103 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+// Feeds the concurrency controller throughput samples two seconds apart and checks which way it moves
+public class ConcurrencyControllerTest {
+    private final static long INTERVAL = 2000000000L;
+
+    private ConcurrencyController controller;
+    private long now;
+    private long total;
+
+
+    @Before
+    public void setUp() {
+        controller = new ConcurrencyController(1, 8, 4);
+        now = 0;
+        total = 0;
+        assertEquals(4, controller.update(now, total));
+    }
+
+
+    @Test
+    public void growsWhileThroughputImproves() {
+        assertEquals(5, sample(1000));
+        assertEquals(6, sample(2000));
+        assertEquals(7, sample(3000));
+    }
+
+
+    @Test
+    public void shrinksWhenThroughputIsFlat() {
+        assertEquals(5, sample(1000));
+        assertEquals(4, sample(1000));
+        assertEquals(3, sample(1010));
+    }
+
+
+    @Test
+    public void reversesWhenThroughputDrops() {
+        assertEquals(5, sample(1000));
+        assertEquals(6, sample(2000));
+        assertEquals(5, sample(1500));
+    }
+
+
+    @Test
+    public void shrinksOnErrorsEvenIfThroughputImproves() {
+        assertEquals(5, sample(1000));
+        controller.recordError();
+        assertEquals(4, sample(2000));
+    }
+
+
+    @Test
+    public void forgetsErrorsOnReset() {
+        controller.recordError();
+        controller.reset();
+        assertEquals(4, controller.update(now, total));
+        assertEquals(5, sample(1000));
+    }
+
+
+    @Test
+    public void shrinksWhenLatencyClimbs() {
+        controller.recordLatency(10);
+        assertEquals(5, sample(1000));
+        controller.recordLatency(50);
+        assertEquals(4, sample(2000));
+    }
+
+
+    @Test
+    public void staysWithinLimits() {
+        controller = new ConcurrencyController(2, 3, 10);
+        assertEquals(3, controller.getConcurrency());
+        assertEquals(3, controller.update(now, total));
+        assertEquals(2, sample(1000));
+        assertEquals(3, sample(1000));
+        assertEquals(2, sample(1000));
+    }
+
+
+    @Test
+    public void waitsForWholeInterval() {
+        now += INTERVAL / 2;
+        total += 1000;
+        assertEquals(4, controller.update(now, total));
+        assertEquals(5, sample(1000));
+    }
+
+
+    // Downloads bytes over the next interval and returns the concurrency the controller picks
+    private int sample(long bytes) {
+        now += INTERVAL;
+        total += bytes;
+        return controller.update(now, total);
+    }
+}
@@ -0,0 +1,194 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+// Checks constraints against a fake device and defers downloads through the engine until the fake allows them
+public class ConstraintsTest {
+    private TestServer server;
+    private BatchDownload batchDownload;
+    private FakeDeviceState device;
+    private File folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server = TestServer.start();
+        batchDownload = TestDownloads.instance();
+        device = new FakeDeviceState();
+        batchDownload.setDeviceState(device);
+        folder = TestDownloads.newFolder();
+    }
+
+
+    @After
+    public void tearDown() {
+        batchDownload.setDeviceState(null);
+        server.stop();
+    }
+
+
+    @Test
+    public void checksNetwork() {
+        BatchDownload.Constraints unmetered = new BatchDownload.Constraints.Builder().setUnmeteredOnly(true).build();
+        assertTrue(unmetered.isMet(device, 0));
+        device.metered = true;
+        assertFalse(unmetered.isMet(device, 0));
+        device.metered = false;
+        device.connected = false;
+        assertFalse(new BatchDownload.Constraints.Builder().build().isMet(device, 0));
+    }
+
+
+    @Test
+    public void checksMeteredCap() {
+        BatchDownload.Constraints capped = new BatchDownload.Constraints.Builder().setMaxMeteredBytes(1000).build();
+        device.metered = true;
+        assertTrue(capped.isMet(device, 999));
+        assertFalse(capped.isMet(device, 1000));
+        device.metered = false;
+        assertTrue(capped.isMet(device, 5000));
+    }
+
+
+    @Test
+    public void checksPower() {
+        BatchDownload.Constraints charging = new BatchDownload.Constraints.Builder().setChargingOnly(true).build();
+        BatchDownload.Constraints battery = new BatchDownload.Constraints.Builder().setMinBatteryLevel(30).build();
+        device.charging = false;
+        device.batteryLevel = 20;
+        assertFalse(charging.isMet(device, 0));
+        assertFalse(battery.isMet(device, 0));
+
+        // A low battery does not matter while plugged in, and an unknown level does not hold anything back
+        device.charging = true;
+        assertTrue(charging.isMet(device, 0));
+        assertTrue(battery.isMet(device, 0));
+        device.charging = false;
+        device.batteryLevel = -1;
+        assertTrue(battery.isMet(device, 0));
+    }
+
+
+    @Test
+    public void rejectsInvalidConstraints() {
+        try {
+            new BatchDownload.Constraints.Builder().setMinBatteryLevel(101).build();
+            fail("Built a battery level over 100");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            new BatchDownload.Constraints.Builder().setMaxMeteredBytes(-2).build();
+            fail("Built a negative metered cap");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void defersUntilUnmetered() throws Exception {
+        byte[] body = TestServer.randomBytes(100000, 1);
+        server.serve("/wifi", body);
+        device.setMetered(true);
+
+        BatchDownload.Request request = new BatchDownload.Request(server.url("/wifi"), "wifi.bin", folder);
+        request.setConstraints(new BatchDownload.Constraints.Builder().setUnmeteredOnly(true).build());
+        BatchDownload.Batch batch = batchDownload.add(request);
+        TestDownloads.awaitDeferred(batchDownload, 1);
+        assertTrue(request.isDeferred());
+        assertEquals(1, batchDownload.getDeferredCount());
+        assertEquals(0, server.getRequestCount("/wifi"));
+        assertFalse(batch.isFinished());
+
+        device.setMetered(false);
+        TestDownloads.await(batch);
+        assertEquals(0, batchDownload.getDeferredCount());
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "wifi.bin")));
+    }
+
+
+    @Test
+    public void releasesDeferredRequestsTogether() throws Exception {
+        device.setCharging(false);
+        ArrayList<BatchDownload.Request> requests = new ArrayList<BatchDownload.Request>();
+        BatchDownload.Constraints charging = new BatchDownload.Constraints.Builder().setChargingOnly(true).build();
+        for (int i = 0; i < 5; i++) {
+            server.serve("/charging" + i, TestServer.randomBytes(1000, i));
+            BatchDownload.Request request = new BatchDownload.Request(server.url("/charging" + i), "charging" + i + ".bin", folder);
+            request.setConstraints(charging);
+            requests.add(request);
+        }
+        BatchDownload.Batch batch = batchDownload.add(requests);
+        TestDownloads.awaitDeferred(batchDownload, 5);
+
+        device.setCharging(true);
+        TestDownloads.await(batch);
+        assertEquals(0, batch.getProgress().getErrorCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1, server.getRequestCount("/charging" + i));
+            assertTrue(new File(folder, "charging" + i + ".bin").isFile());
+        }
+    }
+
+
+    @Test
+    public void defersOnceMeteredCapIsUsed() throws Exception {
+        server.serve("/capped", TestServer.randomBytes(1000, 2));
+        device.setMetered(true);
+
+        BatchDownload.Request request = new BatchDownload.Request(server.url("/capped"), "capped.bin", folder);
+        request.setConstraints(new BatchDownload.Constraints.Builder().setMaxMeteredBytes(0).build());
+        BatchDownload.Batch batch = batchDownload.add(request);
+        TestDownloads.awaitDeferred(batchDownload, 1);
+        assertTrue(request.isDeferred());
+        assertEquals(0, server.getRequestCount("/capped"));
+
+        device.setMetered(false);
+        TestDownloads.await(batch);
+        assertTrue(new File(folder, "capped.bin").isFile());
+    }
+
+
+    @Test
+    public void cancelsDeferredRequest() throws Exception {
+        server.serve("/cancelled", new byte[100]);
+        device.setConnected(false);
+
+        BatchDownload.Request request = new BatchDownload.Request(server.url("/cancelled"), "cancelled.bin", folder);
+        request.setConstraints(new BatchDownload.Constraints.Builder().build());
+        BatchDownload.Batch batch = batchDownload.add(request);
+        TestDownloads.awaitDeferred(batchDownload, 1);
+
+        batch.cancel();
+        TestDownloads.await(batch);
+        assertTrue(batch.isCancelled());
+        assertEquals(0, batchDownload.getDeferredCount());
+        assertEquals(0, server.getRequestCount("/cancelled"));
+    }
+
+
+    @Test
+    public void ignoresConstraintsWithoutDeviceState() throws Exception {
+        batchDownload.setDeviceState(null);
+        server.serve("/free", new byte[100]);
+
+        BatchDownload.Request request = new BatchDownload.Request(server.url("/free"), "free.bin", folder);
+        request.setConstraints(new BatchDownload.Constraints.Builder().setUnmeteredOnly(true).setChargingOnly(true).build());
+        TestDownloads.await(batchDownload.add(request));
+        assertEquals(1, server.getRequestCount("/free"));
+    }
+}
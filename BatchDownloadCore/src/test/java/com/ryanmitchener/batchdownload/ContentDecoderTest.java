@@ -0,0 +1,104 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+// Decodes compressed bodies back to exactly the bytes that were compressed, whatever their compressed size
+public class ContentDecoderTest {
+    @Test
+    public void recognisesEncodings() {
+        assertTrue(ContentDecoder.isEncoded("gzip"));
+        assertTrue(ContentDecoder.isEncoded(" Deflate "));
+        assertFalse(ContentDecoder.isEncoded(null));
+        assertFalse(ContentDecoder.isEncoded(""));
+        assertFalse(ContentDecoder.isEncoded("Identity"));
+    }
+
+
+    @Test
+    public void passesIdentityThrough() throws IOException {
+        InputStream in = new ByteArrayInputStream(new byte[10]);
+        assertSame(in, ContentDecoder.wrap(in, null));
+        assertSame(in, ContentDecoder.wrap(in, "identity"));
+    }
+
+
+    @Test
+    public void decodesGzipSmallerThanBody() throws IOException {
+        // Repeated bytes compress well, so the decoded file is far larger than the body
+        byte[] content = new byte[300000];
+        Arrays.fill(content, (byte) 'a');
+        assertArrayEquals(content, decode(gzip(content), "gzip"));
+    }
+
+
+    @Test
+    public void decodesGzipLargerThanBody() throws IOException {
+        // Random bytes grow when compressed, so the decoded file is smaller than the body
+        byte[] content = new byte[300000];
+        new Random(1).nextBytes(content);
+        byte[] body = gzip(content);
+        assertTrue(body.length > content.length);
+        assertArrayEquals(content, decode(body, "x-gzip"));
+    }
+
+
+    @Test
+    public void decodesDeflate() throws IOException {
+        byte[] content = new byte[100000];
+        new Random(2).nextBytes(content);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DeflaterOutputStream os = new DeflaterOutputStream(body);
+        os.write(content);
+        os.close();
+        assertArrayEquals(content, decode(body.toByteArray(), "deflate"));
+    }
+
+
+    @Test
+    public void rejectsUnknownEncoding() {
+        try {
+            ContentDecoder.wrap(new ByteArrayInputStream(new byte[10]), "br");
+            fail("Wrapped an unsupported encoding");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        GZIPOutputStream os = new GZIPOutputStream(body);
+        os.write(content);
+        os.close();
+        return body.toByteArray();
+    }
+
+
+    private static byte[] decode(byte[] body, String encoding) throws IOException {
+        InputStream in = ContentDecoder.wrap(new ByteArrayInputStream(body), encoding);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            decoded.write(buffer, 0, read);
+        }
+        ContentDecoder.release(in);
+        return decoded.toByteArray();
+    }
+}
@@ -0,0 +1,149 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+// Stores and looks up finished downloads, on one instance and after loading the cache again from disk
+public class DownloadCacheTest {
+    private final static String URL = "http://example.com/file.bin";
+
+    private File directory;
+    private File folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        directory = TestDownloads.newTempFolder();
+        folder = TestDownloads.newTempFolder();
+    }
+
+
+    @Test
+    public void getsWhatWasPut() throws Exception {
+        File destination = write(new File(folder, "file.bin"), TestServer.randomBytes(1000, 1));
+        DownloadCache cache = new DownloadCache(directory, 0);
+        cache.put(URL, "\"v1\"", "Mon, 02 Jan 2017 00:00:00 GMT", destination);
+
+        DownloadCache.Entry entry = cache.get(URL, destination);
+        assertNotNull(entry);
+        assertEquals(1000, entry.getLength());
+        HashMap<String, String> headers = new HashMap<String, String>();
+        entry.addConditionalHeaders(headers);
+        assertEquals("\"v1\"", headers.get("If-None-Match"));
+        assertEquals("Mon, 02 Jan 2017 00:00:00 GMT", headers.get("If-Modified-Since"));
+    }
+
+
+    @Test
+    public void getsWhatWasPutAfterReload() throws Exception {
+        File destination = write(new File(folder, "file.bin"), TestServer.randomBytes(1000, 2));
+        new DownloadCache(directory, 0).put(URL, "\"v1\"", null, destination);
+
+        DownloadCache reloaded = new DownloadCache(directory, 0);
+        assertNotNull(reloaded.get(URL, destination));
+        assertNull(reloaded.get("http://example.com/other.bin", destination));
+    }
+
+
+    @Test
+    public void skipsResponsesWithoutValidator() throws Exception {
+        File destination = write(new File(folder, "file.bin"), new byte[10]);
+        DownloadCache cache = new DownloadCache(directory, 1024);
+        cache.put(URL, null, null, destination);
+        assertNull(cache.get(URL, destination));
+    }
+
+
+    @Test
+    public void restoresDeletedDestinationFromCopy() throws Exception {
+        byte[] content = TestServer.randomBytes(1000, 3);
+        File destination = write(new File(folder, "file.bin"), content);
+        new DownloadCache(directory, 1024 * 1024).put(URL, "\"v1\"", null, destination);
+        destination.delete();
+
+        DownloadCache cache = new DownloadCache(directory, 1024 * 1024);
+        DownloadCache.Entry entry = cache.get(URL, destination);
+        assertNotNull(entry);
+        assertTrue(cache.copyTo(entry, destination));
+        assertArrayEquals(content, TestDownloads.read(destination));
+    }
+
+
+    @Test
+    public void forgetsModifiedDestinationWithoutCopy() throws Exception {
+        File destination = write(new File(folder, "file.bin"), new byte[1000]);
+        DownloadCache cache = new DownloadCache(directory, 0);
+        cache.put(URL, "\"v1\"", null, destination);
+        write(destination, new byte[500]);
+        assertNull(cache.get(URL, destination));
+    }
+
+
+    @Test
+    public void evictsLeastRecentlyUsedCopy() throws Exception {
+        File first = write(new File(folder, "first.bin"), TestServer.randomBytes(600, 4));
+        File second = write(new File(folder, "second.bin"), TestServer.randomBytes(600, 5));
+        DownloadCache cache = new DownloadCache(directory, 1000);
+        cache.put("http://example.com/first.bin", "\"1\"", null, first);
+        cache.put("http://example.com/second.bin", "\"2\"", null, second);
+        first.delete();
+        second.delete();
+
+        assertNull(cache.get("http://example.com/first.bin", first));
+        assertNotNull(cache.get("http://example.com/second.bin", second));
+    }
+
+
+    @Test
+    public void revalidatesThroughEngine() throws Exception {
+        TestServer server = TestServer.start();
+        try {
+            BatchDownload batchDownload = TestDownloads.instance();
+            batchDownload.setConfig(new BatchDownload.Config.Builder().setRetry(1, 0, 0).setCacheSize(1024 * 1024).build());
+            File downloads = TestDownloads.newFolder();
+            byte[] body = TestServer.randomBytes(50000, 6);
+            server.serve("/cached", body);
+            File destination = new File(downloads, "cached.bin");
+
+            TestDownloads.await(batchDownload.add(new BatchDownload.Request(server.url("/cached"), "cached.bin", downloads)));
+            assertArrayEquals(body, TestDownloads.read(destination));
+            assertNull(server.getLastRequestHeader("/cached", "If-None-Match"));
+
+            // The second batch sends a conditional request and restores the deleted file from the copy on a 304
+            assertTrue(destination.delete());
+            BatchDownload.Batch batch = batchDownload.add(new BatchDownload.Request(server.url("/cached"), "cached.bin", downloads));
+            TestDownloads.await(batch);
+            assertEquals(TestServer.etagOf(body), server.getLastRequestHeader("/cached", "If-None-Match"));
+            assertEquals(0, batch.getProgress().getErrorCount());
+            assertEquals(2, server.getRequestCount("/cached"));
+            assertArrayEquals(body, TestDownloads.read(destination));
+            assertFalse(new File(downloads, "cached-1.bin").exists());
+        } finally {
+            server.stop();
+        }
+    }
+
+
+    private static File write(File file, byte[] content) throws IOException {
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+        return file;
+    }
+}
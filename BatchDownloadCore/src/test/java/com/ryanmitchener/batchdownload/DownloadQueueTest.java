@@ -0,0 +1,211 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+// Queues tasks for several hosts and priorities and checks the order the download pool would take them in
+public class DownloadQueueTest {
+    private DownloadQueue queue;
+
+
+    @Before
+    public void setUp() {
+        queue = new DownloadQueue();
+    }
+
+
+    @Test
+    public void takesTasksOfOneHostInOrder() {
+        NamedTask a1 = offer("a", "a1");
+        NamedTask a2 = offer("a", "a2");
+        NamedTask a3 = offer("a", "a3");
+        assertSame(a1, queue.poll());
+        assertSame(a2, queue.poll());
+        assertSame(a3, queue.poll());
+        assertNull(queue.poll());
+    }
+
+
+    @Test
+    public void rotatesAcrossHosts() {
+        offer("a", "a1");
+        offer("a", "a2");
+        offer("a", "a3");
+        offer("b", "b1");
+        offer("b", "b2");
+        offer("c", "c1");
+        assertEquals("a1 b1 c1 a2 b2 a3", takeAll());
+    }
+
+
+    @Test
+    public void limitsTasksPerHost() {
+        queue.setMaxPerHost(1);
+        NamedTask a1 = offer("a", "a1");
+        offer("a", "a2");
+        NamedTask b1 = offer("b", "b1");
+        assertSame(a1, queue.poll());
+        assertSame(b1, queue.poll());
+
+        // Both hosts are busy so nothing is handed out until a slot is released
+        assertNull(queue.poll());
+        assertEquals(1, queue.size());
+        queue.release(a1);
+        assertEquals("a2", ((NamedTask) queue.poll()).name);
+    }
+
+
+    @Test
+    public void waitsForFreeSlot() throws InterruptedException {
+        queue.setMaxPerHost(1);
+        final NamedTask a1 = offer("a", "a1");
+        offer("a", "a2");
+        assertSame(a1, queue.poll());
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.release(a1);
+            }
+        }).start();
+        assertEquals("a2", ((NamedTask) queue.poll(5, TimeUnit.SECONDS)).name);
+    }
+
+
+    @Test
+    public void removesCancelledTask() {
+        offer("a", "a1");
+        NamedTask a2 = offer("a", "a2");
+        NamedTask b1 = offer("b", "b1");
+        assertTrue(queue.remove(a2));
+        assertTrue(queue.remove(b1));
+        assertFalse(queue.remove(b1));
+        assertEquals(1, queue.size());
+        assertEquals("a1", takeAll());
+        assertEquals(0, queue.size());
+    }
+
+
+    @Test
+    public void drainsEveryHostRegardlessOfLimits() {
+        queue.setMaxPerHost(1);
+        offer("a", "a1");
+        offer("a", "a2");
+        offer("b", "b1");
+        queue.poll();
+        ArrayList<Runnable> drained = new ArrayList<Runnable>();
+        assertEquals(2, queue.drainTo(drained));
+        assertEquals(0, queue.size());
+        assertNull(queue.peek());
+    }
+
+
+    @Test
+    public void takesHigherPriorityFirst() {
+        offer("a", "low", 0, -1);
+        offer("a", "high", 5, -1);
+        offer("a", "middle", 2, -1);
+        offer("a", "high2", 5, -1);
+        assertEquals("high high2 middle low", takeAll());
+    }
+
+
+    @Test
+    public void prefersUrgentHostOverRotation() {
+        offer("a", "a1", 0, -1);
+        offer("a", "a2", 0, -1);
+        offer("b", "b1", 1, -1);
+        offer("b", "b2", 1, -1);
+        assertEquals("b1 b2 a1 a2", takeAll());
+    }
+
+
+    @Test
+    public void reordersUpdatedTask() {
+        offer("a", "a1", 0, -1);
+        NamedTask a2 = offer("a", "a2", 0, -1);
+        assertTrue(queue.update(a2, 3, -1));
+        assertSame(a2, queue.peek());
+        assertEquals("a2 a1", takeAll());
+
+        // A task that already left the queue is not queued again
+        assertFalse(queue.update(a2, 4, -1));
+        assertEquals(0, queue.size());
+    }
+
+
+    @Test
+    public void takesSmallestFirstWhenEnabled() {
+        offer("a", "unknown", 0, -1);
+        offer("a", "large", 0, 3000);
+        offer("a", "small", 0, 10);
+        offer("a", "urgent", 1, 5000);
+        queue.setSmallestFirst(true);
+        assertEquals("urgent small large unknown", takeAll());
+    }
+
+
+    @Test
+    public void keepsQueueOrderWhenSmallestFirstIsDisabled() {
+        offer("a", "large", 0, 3000);
+        offer("a", "small", 0, 10);
+        assertEquals("large small", takeAll());
+    }
+
+
+    private NamedTask offer(String host, String name) {
+        return offer(host, name, 0, -1);
+    }
+
+
+    private NamedTask offer(String host, String name, int priority, long size) {
+        NamedTask task = new NamedTask(host, name, priority, size);
+        queue.offer(task);
+        return task;
+    }
+
+
+    // Takes every task that can be taken right now and lists their names in order
+    private String takeAll() {
+        StringBuilder names = new StringBuilder();
+        Runnable task;
+        while ((task = queue.poll()) != null) {
+            if (names.length() > 0) {
+                names.append(' ');
+            }
+            names.append(((NamedTask) task).name);
+        }
+        return names.toString();
+    }
+
+
+    private static class NamedTask extends DownloadQueue.Task {
+        private final String name;
+
+        NamedTask(String host, String name, int priority, long size) {
+            super(host, priority, size);
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            // Never run, only queued
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+// Posts events to listeners through their own executors and checks where, when and in which order they arrive
+public class EventDispatcherTest {
+    private ScheduledExecutorService scheduler;
+    private EventDispatcher dispatcher;
+
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        dispatcher = new EventDispatcher(null, scheduler);
+    }
+
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+
+    @Test
+    public void runsListenerOnItsExecutor() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "listener-thread");
+            }
+        });
+        try {
+            RecordingListener listener = new RecordingListener(3);
+            dispatcher.addListener(listener, executor, 0);
+            for (int i = 0; i < 3; i++) {
+                dispatcher.post(event(i));
+            }
+            assertTrue(listener.await());
+            assertEquals(Collections.singleton("listener-thread"), listener.threads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void deliversEventsInOrder() throws InterruptedException {
+        // A slow listener on a pool keeps events arriving while a delivery runs, which another thread could pick up
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            RecordingListener listener = new RecordingListener(200);
+            listener.delay = 2;
+            dispatcher.addListener(listener, executor, 0);
+            for (int i = 0; i < 200; i++) {
+                dispatcher.post(event(i));
+                Thread.sleep(0, 200000);
+            }
+            assertTrue(listener.await());
+            assertFalse("Deliveries overlapped", listener.overlapped);
+            for (int i = 0; i < 200; i++) {
+                assertEquals(url(i), listener.urls.get(i));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void joinsEventsWhileDeliveryWaits() {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener(3);
+        dispatcher.addListener(listener, executor, 0);
+        dispatcher.post(event(0));
+        dispatcher.post(event(1));
+        dispatcher.post(event(2));
+
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(1, listener.deliveries);
+        assertEquals(3, listener.urls.size());
+    }
+
+
+    @Test
+    public void waitsOutInterval() throws InterruptedException {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener(2);
+        dispatcher.addListener(listener, executor, 300);
+        dispatcher.post(event(0));
+        executor.runAll();
+        assertEquals(1, listener.deliveries);
+
+        // The next delivery is handed over by the scheduler once the interval has passed
+        long start = System.nanoTime();
+        dispatcher.post(event(1));
+        assertEquals(0, executor.tasks.size());
+        while (executor.tasks.isEmpty() && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+            Thread.sleep(10);
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(250));
+        executor.runAll();
+        assertEquals(2, listener.deliveries);
+        assertEquals(url(1), listener.urls.get(1));
+    }
+
+
+    @Test
+    public void dropsDeliveryOfRemovedListener() {
+        ManualExecutor executor = new ManualExecutor();
+        RecordingListener listener = new RecordingListener(1);
+        dispatcher.addListener(listener, executor, 0);
+        dispatcher.post(event(0));
+        dispatcher.removeListener(listener);
+        executor.runAll();
+        assertEquals(0, listener.deliveries);
+        assertEquals(-1, dispatcher.getMinInterval());
+    }
+
+
+    @Test
+    public void keepsEventsOfRejectedDelivery() {
+        ManualExecutor executor = new ManualExecutor();
+        executor.rejecting = true;
+        RecordingListener listener = new RecordingListener(2);
+        dispatcher.addListener(listener, executor, 0);
+        dispatcher.post(event(0));
+
+        executor.rejecting = false;
+        dispatcher.post(event(1));
+        executor.runAll();
+        assertEquals(1, listener.deliveries);
+        assertEquals(url(0), listener.urls.get(0));
+        assertEquals(url(1), listener.urls.get(1));
+    }
+
+
+    private static DownloadEvent event(int index) {
+        return DownloadEvent.fileDownloaded(1, url(index), null);
+    }
+
+
+    private static String url(int index) {
+        return "http://localhost/" + index;
+    }
+
+
+    // Records the urls and threads of the events it gets
+    private static class RecordingListener implements DownloadListener {
+        private final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+        private final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        private final CountDownLatch received;
+        private final AtomicInteger running = new AtomicInteger();
+        private volatile int deliveries = 0;
+        private volatile boolean overlapped = false;
+
+        // Milliseconds every delivery takes
+        private volatile long delay = 0;
+
+        RecordingListener(int events) {
+            received = new CountDownLatch(events);
+        }
+
+        @Override
+        public void onProgress(BatchDownload.Progress progress) {
+            // Progress is not posted in these tests
+        }
+
+        @Override
+        public void onEvents(List<DownloadEvent> events) {
+            if (running.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            deliveries++;
+            threads.add(Thread.currentThread().getName());
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // The test is over
+            }
+            for (DownloadEvent event : events) {
+                urls.add(event.getUrl());
+                received.countDown();
+            }
+            running.decrementAndGet();
+        }
+
+        boolean await() throws InterruptedException {
+            return received.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+
+    // Holds submitted tasks until the test runs them, or rejects them
+    private static class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = Collections.synchronizedList(new ArrayList<Runnable>());
+        private volatile boolean rejecting = false;
+
+        @Override
+        public void execute(Runnable task) {
+            if (rejecting) {
+                throw new RejectedExecutionException();
+            }
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.ryanmitchener.batchdownload;
+
+
+// Device whose state the tests set, telling the engine the way a real one would
+final class FakeDeviceState implements DeviceState {
+    volatile boolean connected = true;
+    volatile boolean metered = false;
+    volatile boolean charging = false;
+    volatile int batteryLevel = 100;
+    private volatile Listener listener = null;
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean isMetered() {
+        return metered;
+    }
+
+    @Override
+    public boolean isCharging() {
+        return charging;
+    }
+
+    @Override
+    public int getBatteryLevel() {
+        return batteryLevel;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    void setConnected(boolean connected) {
+        this.connected = connected;
+        changed();
+    }
+
+    void setMetered(boolean metered) {
+        this.metered = metered;
+        changed();
+    }
+
+    void setCharging(boolean charging) {
+        this.charging = charging;
+        changed();
+    }
+
+    private void changed() {
+        Listener listener = this.listener;
+        if (listener != null) {
+            listener.onDeviceStateChanged();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.InputStream;
+
+
+// Response that only has the headers a partial download keeps
+class HeaderResponse implements Transport.Response {
+    private final String etag;
+    private final long length;
+
+    HeaderResponse(String etag, long length) {
+        this.etag = etag;
+        this.length = length;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return 200;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        if ("ETag".equals(name)) {
+            return etag;
+        }
+        return "Content-Length".equals(name) ? String.valueOf(length) : null;
+    }
+
+    @Override
+    public InputStream getBody() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void abort() {
+    }
+}
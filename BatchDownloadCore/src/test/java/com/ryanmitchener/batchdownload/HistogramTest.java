@@ -0,0 +1,145 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+// Records known values into a histogram and checks the percentiles, mean and max of its snapshot, and that every
+// bucket stays within 12.5% of the values it holds
+public class HistogramTest {
+    @Test
+    public void reportsNothingWhenEmpty() {
+        DownloadMetrics.Distribution distribution = new Histogram().snapshot();
+        assertEquals(0, distribution.getCount());
+        assertEquals(0, distribution.getMean());
+        assertEquals(0, distribution.getMax());
+        assertEquals(0, distribution.getPercentile(50));
+    }
+
+
+    @Test
+    public void keepsSmallValuesExactly() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        DownloadMetrics.Distribution distribution = histogram.snapshot();
+        assertEquals(8, distribution.getCount());
+        assertEquals(3, distribution.getMean());
+        assertEquals(0, distribution.getPercentile(0));
+        assertEquals(3, distribution.getPercentile(50));
+        assertEquals(6, distribution.getPercentile(80));
+        assertEquals(7, distribution.getPercentile(100));
+    }
+
+
+    @Test
+    public void findsPercentilesOfUniformValues() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        DownloadMetrics.Distribution distribution = histogram.snapshot();
+        assertEquals(1000, distribution.getCount());
+        assertEquals(500, distribution.getMean());
+        assertEquals(1000, distribution.getMax());
+        assertClose(500, distribution.getPercentile(50));
+        assertClose(900, distribution.getPercentile(90));
+        assertClose(990, distribution.getPercentile(99));
+        assertEquals(1000, distribution.getPercentile(100));
+    }
+
+
+    @Test
+    public void findsPercentilesOfSkewedValues() {
+        // 90 fast responses of 10ms and 10 slow ones of 2s
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(10);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(2000);
+        }
+        DownloadMetrics.Distribution distribution = histogram.snapshot();
+        assertClose(10, distribution.getPercentile(50));
+        assertClose(10, distribution.getPercentile(90));
+        assertClose(2000, distribution.getPercentile(91));
+        assertClose(2000, distribution.getPercentile(99));
+        assertEquals(209, distribution.getMean());
+    }
+
+
+    @Test
+    public void neverReportsMoreThanMax() {
+        Histogram histogram = new Histogram();
+        histogram.record(1000);
+        DownloadMetrics.Distribution distribution = histogram.snapshot();
+        assertTrue(distribution.getPercentile(50) <= 1000);
+        assertClose(1000, distribution.getPercentile(50));
+    }
+
+
+    @Test
+    public void countsNegativeValuesAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        DownloadMetrics.Distribution distribution = histogram.snapshot();
+        assertEquals(1, distribution.getCount());
+        assertEquals(0, distribution.getMax());
+        assertEquals(0, distribution.getPercentile(50));
+    }
+
+
+    @Test
+    public void keepsEveryValueWithinItsBucket() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 100, 1000, 123456, 1L << 40, (1L << 40) + 12345, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        int previous = -1;
+        for (long value : values) {
+            int index = Histogram.index(value);
+            assertTrue(index >= previous && index < Histogram.BUCKETS);
+            previous = index;
+
+            long lower = Histogram.lowerBound(index);
+            assertTrue(value + " below its bucket", lower <= value);
+            if (index + 1 < Histogram.BUCKETS) {
+                long upper = Histogram.lowerBound(index + 1);
+                assertTrue(value + " above its bucket", value < upper);
+                assertTrue(value + " in a bucket wider than 12.5%", (upper - lower) <= Math.max(1, lower / 8));
+            }
+        }
+    }
+
+
+    @Test
+    public void countsEveryRecordFromManyThreads() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final long value = (i + 1) * 100;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        DownloadMetrics.Distribution distribution = histogram.snapshot();
+        assertEquals(80000, distribution.getCount());
+        assertEquals(450, distribution.getMean());
+        assertEquals(800, distribution.getMax());
+    }
+
+
+    // Checks a reported value is within the 12.5% a bucket may be off by
+    private static void assertClose(long expected, long actual) {
+        assertTrue("Expected about " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 8);
+    }
+}
@@ -0,0 +1,190 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+// Writes journals and replays them the way a restarted process would, with a new Journal on the same file
+public class JournalTest {
+    private File file;
+
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("journal", "");
+        file.delete();
+    }
+
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+
+    @Test
+    public void replaysUnfinishedRequests() throws Exception {
+        Journal journal = new Journal(file);
+        long first = journal.add("http://example.com/a", "a.bin", "/downloads", 0);
+        long second = journal.add("http://example.com/b", null, null, 5);
+        long third = journal.add("http://example.com/c", "c.zip", null, 0);
+        journal.verification(second, 1234, Checksum.SHA256, "abcd");
+        journal.extraction(third, "/extracted");
+        journal.constraints(third, true, false, 20, 5000);
+        journal.progress(second, 100);
+        journal.progress(second, 600);
+        journal.done(first);
+        journal.sync();
+
+        List<Journal.Entry> entries = new Journal(file).restore();
+        assertEquals(2, entries.size());
+
+        Journal.Entry b = entries.get(0);
+        assertEquals(second, b.id);
+        assertEquals("http://example.com/b", b.url);
+        assertNull(b.filename);
+        assertNull(b.downloadFolder);
+        assertEquals(5, b.priority);
+        assertEquals(600, b.bytesCompleted);
+        assertEquals(1234, b.expectedSize);
+        assertEquals(Checksum.SHA256, b.checksumAlgorithm);
+        assertEquals("abcd", b.expectedChecksum);
+        assertFalse(b.constrained);
+
+        Journal.Entry c = entries.get(1);
+        assertEquals("c.zip", c.filename);
+        assertEquals(0, c.bytesCompleted);
+        assertEquals(-1, c.expectedSize);
+        assertEquals("/extracted", c.extractFolder);
+        assertTrue(c.constrained);
+        assertTrue(c.unmeteredOnly);
+        assertFalse(c.chargingOnly);
+        assertEquals(20, c.minBatteryLevel);
+        assertEquals(5000, c.maxMeteredBytes);
+    }
+
+
+    @Test
+    public void compactsOnRestore() throws Exception {
+        Journal journal = new Journal(file);
+        long id = journal.add("http://example.com/a", "a.bin", null, 0);
+        for (int i = 1; i <= 1000; i++) {
+            journal.progress(id, i);
+        }
+        journal.sync();
+        long length = file.length();
+
+        List<Journal.Entry> entries = new Journal(file).restore();
+        assertEquals(1, entries.size());
+        assertEquals(1000, entries.get(0).bytesCompleted);
+        assertTrue(file.length() < length / 10);
+
+        // The compacted journal replays to the same state
+        assertEquals(1000, new Journal(file).restore().get(0).bytesCompleted);
+    }
+
+
+    @Test
+    public void compactsWhileRunning() throws Exception {
+        Journal journal = new Journal(file, 4096);
+        long live = journal.add("http://example.com/live", "live.bin", null, 0);
+        journal.verification(live, 5000, null, null);
+        long last = live;
+        for (int i = 1; i <= 1000; i++) {
+            last = journal.add("http://example.com/" + i, null, null, 0);
+            journal.progress(last, i);
+            journal.done(last);
+            journal.progress(live, i);
+            journal.sync();
+            assertTrue(file.length() <= 8192);
+        }
+        assertEquals(1001, last);
+        assertEquals(1002, journal.add("http://example.com/next", null, null, 0));
+        journal.sync();
+
+        List<Journal.Entry> entries = new Journal(file).restore();
+        assertEquals(2, entries.size());
+        assertEquals(live, entries.get(0).id);
+        assertEquals(1000, entries.get(0).bytesCompleted);
+        assertEquals(5000, entries.get(0).expectedSize);
+        assertEquals(1002, entries.get(1).id);
+    }
+
+
+    @Test
+    public void stopsAtTornRecord() throws Exception {
+        Journal journal = new Journal(file);
+        journal.add("http://example.com/a", "a.bin", null, 0);
+        journal.add("http://example.com/b", "b.bin", null, 0);
+        journal.sync();
+
+        // Half a record, as a crash during a write would leave
+        FileOutputStream os = new FileOutputStream(file, true);
+        os.write(new byte[] {0, 0, 0, 40, 1, 2, 3});
+        os.close();
+
+        assertEquals(2, new Journal(file).restore().size());
+    }
+
+
+    @Test
+    public void newRequestsDoNotReuseIdsOfEarlierProcess() throws Exception {
+        Journal earlier = new Journal(file);
+        HashSet<Long> ids = new HashSet<Long>();
+        ids.add(earlier.add("http://example.com/a", "a.bin", null, 0));
+        ids.add(earlier.add("http://example.com/b", "b.bin", null, 0));
+        earlier.sync();
+
+        // A new batch runs to completion before the interrupted one is restored
+        Journal journal = new Journal(file);
+        long id = journal.add("http://example.com/c", "c.bin", null, 0);
+        assertFalse(ids.contains(id));
+        journal.done(id);
+        journal.clear();
+
+        assertTrue(file.exists());
+        List<Journal.Entry> entries = journal.restore();
+        assertEquals(2, entries.size());
+        assertEquals("http://example.com/a", entries.get(0).url);
+        assertEquals("http://example.com/b", entries.get(1).url);
+    }
+
+
+    @Test
+    public void restoreReturnsOnlyEarlierRequests() throws Exception {
+        Journal earlier = new Journal(file);
+        earlier.add("http://example.com/a", "a.bin", null, 0);
+        earlier.sync();
+
+        Journal journal = new Journal(file);
+        journal.add("http://example.com/b", "b.bin", null, 0);
+        List<Journal.Entry> entries = journal.restore();
+        assertEquals(1, entries.size());
+        assertEquals("http://example.com/a", entries.get(0).url);
+
+        // Restored requests are running again, so they are not handed out twice
+        assertTrue(journal.restore().isEmpty());
+    }
+
+
+    @Test
+    public void clearDeletesJournalOnceEverythingIsRestored() throws Exception {
+        Journal journal = new Journal(file);
+        long id = journal.add("http://example.com/a", "a.bin", null, 0);
+        journal.failed(id);
+        journal.clear();
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,225 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+// Reads manifests of plain urls and JSON lines, including malformed lines, and adds one to the engine
+public class ManifestReaderTest {
+    private File folder;
+
+
+    @Before
+    public void setUp() throws IOException {
+        folder = TestDownloads.newTempFolder();
+    }
+
+
+    @Test
+    public void readsUrlsAndSkipsBlankAndCommentLines() throws IOException {
+        ManifestReader reader = read("http://localhost/a.zip", "", "   ", "# comment", "  http://localhost/b.zip  ");
+        BatchDownload.Request first = reader.next();
+        assertEquals("http://localhost/a.zip", first.getUrl());
+        assertEquals(folder, first.getDownloadFolder());
+        assertEquals("http://localhost/b.zip", reader.next().getUrl());
+        assertFalse(reader.hasNext());
+        try {
+            reader.next();
+            fail("Read past the end of the manifest");
+        } catch (NoSuchElementException e) {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void readsEveryField() throws IOException {
+        ManifestReader reader = read("{\"url\": \"http://localhost/a.zip\", \"filename\": \"a\", \"folder\": \"/tmp/a\", \"priority\": 3, "
+                + "\"size\": 1024, \"md5\": \"abc\", \"extract\": \"/tmp/a/unpacked\"}");
+        BatchDownload.Request request = reader.next();
+        assertEquals("http://localhost/a.zip", request.getUrl());
+        assertEquals("a", request.getFilename());
+        assertEquals(new File("/tmp/a"), request.getDownloadFolder());
+        assertEquals(3, request.getPriority());
+        assertEquals(1024, request.getExpectedSize());
+        assertEquals(BatchDownload.Request.CHECKSUM_MD5, request.getChecksumAlgorithm());
+        assertEquals("abc", request.getExpectedChecksum());
+        assertEquals(new File("/tmp/a/unpacked"), request.getExtractFolder());
+    }
+
+
+    @Test
+    public void decodesEscapes() {
+        Map<String, String> fields = ManifestReader.parseObject("{\"a\": \"q\\\"b\\\\s\\/n\\nt\\tr\\rb\\bf\\f\", \"u\": \"\\u00e9\\u4e2d\\u0041\"}");
+        assertEquals("q\"b\\s/n\nt\tr\rb\bf\f", fields.get("a"));
+        assertEquals("\u00e9\u4e2dA", fields.get("u"));
+    }
+
+
+    @Test
+    public void rejectsBrokenUnicodeEscapes() {
+        assertMalformed("{\"url\": \"\\u00\"}");
+        assertMalformed("{\"url\": \"\\u00zz\"}");
+    }
+
+
+    @Test
+    public void readsNullsNumbersAndBooleans() {
+        Map<String, String> fields = ManifestReader.parseObject("{\"a\": null, \"b\": -12, \"c\": 1.5e3, \"d\": true, \"e\": false}");
+        assertFalse(fields.containsKey("a"));
+        assertEquals("-12", fields.get("b"));
+        assertEquals("1.5e3", fields.get("c"));
+        assertEquals("true", fields.get("d"));
+        assertEquals("false", fields.get("e"));
+        assertTrue(ManifestReader.parseObject(" { } ").isEmpty());
+    }
+
+
+    @Test
+    public void rejectsTrailingText() {
+        assertMalformed("{\"url\": \"http://localhost/a.zip\"} extra");
+        assertMalformed("{\"url\": \"http://localhost/a.zip\"}}");
+    }
+
+
+    @Test
+    public void rejectsMalformedObjects() {
+        assertMalformed("{\"url\": \"http://localhost/a.zip\"");
+        assertMalformed("{\"url\" \"http://localhost/a.zip\"}");
+        assertMalformed("{\"url\": \"http://localhost/a.zip\" \"b\": 1}");
+        assertMalformed("{\"url\": [1]}");
+        assertMalformed("{\"url\": \"unterminated}");
+    }
+
+
+    @Test
+    public void goesOnAfterMalformedLine() throws IOException {
+        ManifestReader reader = read("{\"url\": \"http://localhost/a.zip\", \"priority\": \"high\"}", "{broken", "{\"filename\": \"c\"}", "{\"url\": \"http://localhost/d.zip\"}");
+
+        // A line that parsed keeps its url, one that did not only has its number
+        ManifestReader.MalformedLineException first = nextMalformed(reader);
+        assertEquals(1, first.getLineNumber());
+        assertEquals("http://localhost/a.zip", first.getUrl());
+        assertTrue(first.getMessage().contains("\"priority\": \"high\""));
+        ManifestReader.MalformedLineException second = nextMalformed(reader);
+        assertEquals(2, second.getLineNumber());
+        assertNull(second.getUrl());
+        assertTrue(second.getMessage().contains("{broken"));
+        assertNull(nextMalformed(reader).getUrl());
+
+        assertEquals("http://localhost/d.zip", reader.next().getUrl());
+        assertFalse(reader.hasNext());
+    }
+
+
+    @Test
+    public void reportsMalformedLineByUrlOrLineNumber() throws Exception {
+        TestServer server = TestServer.start();
+        BatchDownload batchDownload = TestDownloads.instance();
+        final List<DownloadEvent> errors = Collections.synchronizedList(new ArrayList<DownloadEvent>());
+        DownloadListener listener = new DownloadListener() {
+            @Override
+            public void onProgress(BatchDownload.Progress progress) {
+                // Only the errors are checked
+            }
+
+            @Override
+            public void onEvents(List<DownloadEvent> events) {
+                for (DownloadEvent event : events) {
+                    if (BatchDownload.ACTION_ERROR.equals(event.getType())) {
+                        errors.add(event);
+                    }
+                }
+            }
+        };
+        batchDownload.addListener(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, 0);
+        try {
+            byte[] body = TestServer.randomBytes(1000, 1);
+            server.serve("/good", body);
+            File manifest = write("{\"url\": \"" + server.url("/bad") + "\", \"size\": \"big\"}", "{oops", "{\"url\": \"" + server.url("/good") + "\", \"filename\": \"good\"}");
+
+            BatchDownload.Batch batch = batchDownload.addManifest(manifest, folder, 4);
+            TestDownloads.await(batch);
+            assertEquals(2, batch.getProgress().getErrorCount());
+            assertArrayEquals(body, TestDownloads.read(new File(folder, "good")));
+
+            // Errors are delivered on their own, after the batch may already count as finished
+            long deadline = System.currentTimeMillis() + 5000;
+            while (errors.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, errors.size());
+            assertEquals(server.url("/bad"), errors.get(0).getUrl());
+            assertEquals("line 2", errors.get(1).getUrl());
+            assertTrue(errors.get(1).getError().getMessage().contains("{oops"));
+        } finally {
+            batchDownload.removeListener(listener);
+            server.stop();
+        }
+    }
+
+
+    private ManifestReader read(String... lines) throws IOException {
+        return new ManifestReader(write(lines), folder);
+    }
+
+
+    private File write(String... lines) throws IOException {
+        File manifest = new File(folder, "manifest.txt");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(manifest), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        return manifest;
+    }
+
+
+    private static ManifestReader.MalformedLineException nextMalformed(ManifestReader reader) {
+        try {
+            reader.next();
+        } catch (ManifestReader.MalformedLineException e) {
+            return e;
+        }
+        fail("Read a malformed line");
+        return null;
+    }
+
+
+    private static void assertMalformed(String json) {
+        try {
+            ManifestReader.parseObject(json);
+            fail("Parsed " + json);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+
+// Opens partial downloads of one url for different files and slots and checks they never share or delete each
+// other's data
+public class PartialDownloadTest {
+    private final static String URL = "http://localhost/file.bin";
+
+    private File cache;
+    private File first;
+    private File second;
+
+
+    @Before
+    public void setUp() throws IOException {
+        cache = TestDownloads.newTempFolder();
+        first = TestDownloads.newTempFolder();
+        second = TestDownloads.newTempFolder();
+    }
+
+
+    @Test
+    public void resumesFromStoredOffset() throws IOException {
+        write(PartialDownload.open(cache, new File(first, "file.bin"), URL, 0), 100);
+
+        PartialDownload partial = PartialDownload.open(cache, new File(first, "file.bin"), URL, 0);
+        assertTrue(partial.isResumable());
+        assertEquals(100, partial.getOffset());
+        assertEquals(1000, partial.getTotalLength());
+    }
+
+
+    @Test
+    public void keepsPartialOfEachFolder() throws IOException {
+        PartialDownload inFirst = PartialDownload.open(cache, new File(first, "file.bin"), URL, 0);
+        write(inFirst, 100);
+        PartialDownload inSecond = PartialDownload.open(cache, new File(second, "file.bin"), URL, 0);
+        write(inSecond, 200);
+        assertNotEquals(inFirst.getDataFile().getName(), inSecond.getDataFile().getName());
+
+        // Opening the url for one folder leaves the data of the other alone
+        assertEquals(100, PartialDownload.open(cache, new File(first, "file.bin"), URL, 0).getOffset());
+        assertEquals(200, PartialDownload.open(cache, new File(second, "file.bin"), URL, 0).getOffset());
+        assertTrue(inFirst.getDataFile().exists());
+        assertTrue(inSecond.getDataFile().exists());
+    }
+
+
+    @Test
+    public void keepsPartialOfEachFileName() throws IOException {
+        PartialDownload one = PartialDownload.open(cache, new File(first, "one.bin"), URL, 0);
+        PartialDownload two = PartialDownload.open(cache, new File(first, "two.bin"), URL, 0);
+        assertNotEquals(one.getDataFile(), two.getDataFile());
+    }
+
+
+    @Test
+    public void givesEverySlotItsOwnData() throws IOException {
+        File destination = new File(first, "file.bin");
+        PartialDownload slot0 = PartialDownload.open(cache, destination, URL, 0);
+        PartialDownload slot1 = PartialDownload.open(cache, destination, URL, 1);
+        assertNotEquals(slot0.getDataFile(), slot1.getDataFile());
+        assertEquals(first, slot1.getDataFile().getParentFile());
+
+        write(slot0, 100);
+        slot1.reset();
+        assertEquals(100, PartialDownload.open(cache, destination, URL, 0).getOffset());
+        assertFalse(PartialDownload.open(cache, destination, URL, 1).isResumable());
+    }
+
+
+    // Leaves bytes of a resumable response on disk as an interrupted attempt would
+    private static void write(PartialDownload partial, int bytes) throws IOException {
+        partial.update(new HeaderResponse("\"v1\"", 1000), 0);
+        FileOutputStream os = new FileOutputStream(partial.getDataFile());
+        try {
+            os.write(new byte[bytes]);
+        } finally {
+            os.close();
+        }
+    }
+}
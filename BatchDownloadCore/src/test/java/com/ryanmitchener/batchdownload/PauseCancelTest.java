@@ -0,0 +1,174 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+// Pauses and cancels downloads while the local server holds them partway through their body. The pooled transport is
+// used because closing its socket breaks a blocked read at once, so a stopped task gives up without waiting for a timeout.
+public class PauseCancelTest {
+    private final static int STALL = 200000;
+
+    private TestServer server;
+    private BatchDownload batchDownload;
+    private File folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server = TestServer.start();
+        batchDownload = TestDownloads.instance();
+        folder = TestDownloads.newFolder();
+        batchDownload.setTransport(new PooledTransport());
+    }
+
+
+    @After
+    public void tearDown() {
+        batchDownload.setTransport(new UrlConnectionTransport(15000, 30000));
+        server.stop();
+    }
+
+
+    @Test
+    public void cancelRemovesPartialFile() throws Exception {
+        server.serve("/cancelled", TestServer.randomBytes(1000000, 1));
+        server.stall("/cancelled", STALL);
+        String url = server.url("/cancelled");
+
+        BatchDownload.Batch batch = batchDownload.add(new BatchDownload.Request(url, "cancelled.bin", folder));
+        TestDownloads.awaitDownloaded(batch, STALL);
+        assertNotNull(findPartialFile());
+
+        long start = System.currentTimeMillis();
+        batch.cancel();
+        assertTrue("Cancelling waited for the task to stop", System.currentTimeMillis() - start < 1000);
+        TestDownloads.await(batch);
+        assertTrue(batch.isCancelled());
+        assertEquals(0, folder.listFiles().length);
+        assertFalse(hasMetadata(url));
+    }
+
+
+    @Test
+    public void cancelsOneRequestAndKeepsTheOther() throws Exception {
+        byte[] kept = TestServer.randomBytes(50000, 2);
+        server.serve("/kept", kept);
+        server.serve("/dropped", TestServer.randomBytes(1000000, 3));
+        server.stall("/dropped", STALL);
+
+        BatchDownload.Request dropped = new BatchDownload.Request(server.url("/dropped"), "dropped.bin", folder);
+        BatchDownload.Batch batch = batchDownload.add(dropped);
+        TestDownloads.awaitDownloaded(batch, STALL);
+        assertTrue(batchDownload.cancel(dropped));
+
+        BatchDownload.Batch other = batchDownload.add(new BatchDownload.Request(server.url("/kept"), "kept.bin", folder));
+        TestDownloads.await(batch);
+        TestDownloads.await(other);
+        assertTrue(dropped.isCancelled());
+        assertFalse(new File(folder, "dropped.bin").exists());
+        assertArrayEquals(kept, TestDownloads.read(new File(folder, "kept.bin")));
+        assertEquals(1, folder.listFiles().length);
+    }
+
+
+    @Test
+    public void resumesFromStoredOffset() throws Exception {
+        byte[] body = TestServer.randomBytes(1000000, 4);
+        server.serve("/paused", body);
+        server.stall("/paused", STALL);
+
+        BatchDownload.Batch batch = batchDownload.add(new BatchDownload.Request(server.url("/paused"), "paused.bin", folder));
+        TestDownloads.awaitDownloaded(batch, STALL);
+        batch.pause();
+        assertTrue(batch.isPaused());
+
+        // The request is taken out of the progress once its task has stopped, keeping the bytes on disk
+        long deadline = System.currentTimeMillis() + 30000;
+        while (!batch.getProgress().getRequests().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(batch.getProgress().getRequests().isEmpty());
+        assertFalse(batch.isFinished());
+        File partial = findPartialFile();
+        assertNotNull(partial);
+        assertEquals(STALL, partial.length());
+        server.resume("/paused");
+
+        batch.resume();
+        TestDownloads.await(batch);
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertEquals(2, server.getRequestCount("/paused"));
+        assertEquals("bytes=" + STALL + "-", server.getLastRequestHeader("/paused", "Range"));
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "paused.bin")));
+    }
+
+
+    @Test
+    public void cancelDoesNotWaitForBlockedRead() throws Exception {
+        // Closing a url connection that is blocked in a read waits for the read to return
+        batchDownload.setTransport(new UrlConnectionTransport(15000, 30000));
+        server.serve("/blocked", TestServer.randomBytes(1000000, 5));
+        server.stall("/blocked", STALL);
+
+        BatchDownload.Batch batch = batchDownload.add(new BatchDownload.Request(server.url("/blocked"), "blocked.bin", folder));
+        TestDownloads.awaitDownloaded(batch, STALL);
+        long start = System.currentTimeMillis();
+        batch.cancel();
+        assertTrue("Cancelling waited for the blocked read", System.currentTimeMillis() - start < 1000);
+
+        server.resume("/blocked");
+        TestDownloads.await(batch);
+        assertTrue(batch.isCancelled());
+        assertFalse(new File(folder, "blocked.bin").exists());
+    }
+
+
+    // Returns the hidden file a download is written to before it is moved into place, or null if there is none
+    private File findPartialFile() {
+        File[] files = folder.listFiles();
+        for (File file : files) {
+            if (file.getName().endsWith(PartialDownload.DATA_EXTENSION)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+
+    // Checks if the cache folder holds the metadata of a partial download of url
+    private static boolean hasMetadata(String url) throws IOException {
+        File[] files = TestDownloads.cacheFolder().listFiles();
+        if (files == null) {
+            return false;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(PartialDownload.META_EXTENSION)) {
+                continue;
+            }
+            Properties properties = new Properties();
+            FileInputStream is = new FileInputStream(file);
+            try {
+                properties.load(is);
+            } finally {
+                is.close();
+            }
+            if (url.equals(properties.getProperty("url"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,149 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.util.HashMap;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocketFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+// Sends requests through PooledTransport to a local HTTP or HTTPS server
+public class PooledTransportTest {
+    private TestServer server;
+    private PooledTransport transport;
+
+
+    @After
+    public void tearDown() {
+        if (transport != null) {
+            transport.shutdown();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+
+    @Test
+    public void reusesConnectionOverHttp() throws Exception {
+        server = TestServer.start();
+        byte[] body = TestServer.randomBytes(100000, 1);
+        server.serve("/file", body);
+        transport = new PooledTransport();
+
+        assertArrayEquals(body, get(server.url("/file")));
+        assertArrayEquals(body, get(server.url("/file")));
+        assertEquals(2, transport.getStats().getRequests());
+        assertEquals(1, transport.getStats().getConnectionsOpened());
+    }
+
+
+    @Test
+    public void verifiesHostnameOverHttps() throws Exception {
+        server = TestServer.startHttps();
+        byte[] body = TestServer.randomBytes(50000, 2);
+        server.serve("/file", body);
+        transport = new PooledTransport(15000, 30000, 5, 30000, trustingTestCertificate());
+
+        assertArrayEquals(body, get(server.url("/file")));
+    }
+
+
+    @Test
+    public void rejectsCertificateForAnotherHost() throws Exception {
+        server = TestServer.startHttps();
+        server.serve("/file", new byte[10]);
+        transport = new PooledTransport(15000, 30000, 5, 30000, trustingTestCertificate());
+
+        // The certificate is only valid for localhost
+        try {
+            get(server.url("127.0.0.1", "/file"));
+            fail("Connected to a host the certificate does not name");
+        } catch (SSLException e) {
+            assertEquals(0, server.getRequestCount("/file"));
+        }
+    }
+
+
+    @Test
+    public void followsRedirect() throws Exception {
+        server = TestServer.start();
+        byte[] body = TestServer.randomBytes(1000, 3);
+        server.serve("/file", body);
+        server.redirect("/moved", 301, "/temporary");
+        server.redirect("/temporary", 307, server.url("/file"));
+        transport = new PooledTransport();
+
+        assertArrayEquals(body, get(server.url("/moved")));
+    }
+
+
+    @Test
+    public void returnsRedirectThatIsNotFollowed() throws Exception {
+        server = TestServer.start();
+        server.serve("/file", new byte[10]);
+        server.redirect("/choices", 300, "/file");
+        transport = new PooledTransport();
+
+        Transport.Response response = transport.execute("GET", server.url("/choices"), new HashMap<String, String>());
+        assertEquals(300, response.getResponseCode());
+        response.close();
+        assertEquals(0, server.getRequestCount("/file"));
+    }
+
+
+    @Test
+    public void refusesRedirectFromHttpsToHttp() throws Exception {
+        TestServer plain = TestServer.start();
+        try {
+            plain.serve("/file", new byte[10]);
+            server = TestServer.startHttps();
+            server.redirect("/moved", 302, plain.url("/file"));
+            transport = new PooledTransport(15000, 30000, 5, 30000, trustingTestCertificate());
+
+            try {
+                get(server.url("/moved"));
+                fail("Followed a redirect from https to http");
+            } catch (ProtocolException e) {
+                assertEquals(0, plain.getRequestCount("/file"));
+            }
+        } finally {
+            plain.stop();
+        }
+    }
+
+
+    // Returns a socket factory that trusts the certificate of the test server
+    private static SSLSocketFactory trustingTestCertificate() throws Exception {
+        return TestServer.sslContext().getSocketFactory();
+    }
+
+
+    // Reads the whole body of a GET response
+    private byte[] get(String url) throws IOException {
+        Transport.Response response = transport.execute("GET", url, new HashMap<String, String>());
+        try {
+            assertEquals(200, response.getResponseCode());
+            InputStream is = response.getBody();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                body.write(buffer, 0, bytesRead);
+            }
+            return body.toByteArray();
+        } finally {
+            response.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+// Reserves bytes from a rate limiter on a made up clock, and on the real one from several threads, and checks the
+// throughput never passes the rate
+public class RateLimiterTest {
+    private final static long NANOS_PER_SECOND = 1000000000L;
+
+
+    @Test
+    public void neverWaitsWhenUnlimited() {
+        RateLimiter limiter = new RateLimiter(0);
+        assertEquals(0, limiter.reserve(1000000, 0));
+        assertEquals(0, limiter.reserve(1000000, 0));
+    }
+
+
+    @Test
+    public void waitsOffDebt() {
+        RateLimiter limiter = new RateLimiter(1000);
+        assertEquals(NANOS_PER_SECOND / 2, limiter.reserve(500, 0));
+        assertEquals(NANOS_PER_SECOND, limiter.reserve(500, 0));
+    }
+
+
+    @Test
+    public void burstsAtMostOneSecondAfterIdle() {
+        RateLimiter limiter = new RateLimiter(1000);
+        assertEquals(NANOS_PER_SECOND, limiter.reserve(1000, 0));
+
+        // Ten idle seconds only fill the bucket up to one second of tokens
+        assertEquals(0, limiter.reserve(1000, 10 * NANOS_PER_SECOND));
+        assertEquals(NANOS_PER_SECOND / 2, limiter.reserve(500, 10 * NANOS_PER_SECOND));
+    }
+
+
+    @Test
+    public void keepsSteadyReadsWithinRate() {
+        long rate = 64000;
+        RateLimiter limiter = new RateLimiter(rate);
+        long now = 0;
+        long bytes = 0;
+        for (int i = 0; i < 1000; i++) {
+            now += limiter.reserve(8192, now);
+            bytes += 8192;
+
+            // Reading the next buffer takes a little time too
+            now += 1000;
+            assertTrue("Passed the rate after " + bytes + " bytes", bytes * NANOS_PER_SECOND / now <= rate);
+        }
+        assertEquals(rate, bytes * NANOS_PER_SECOND / now, rate / 100);
+    }
+
+
+    @Test
+    public void lowersTokensWithRate() {
+        RateLimiter limiter = new RateLimiter(1000);
+        limiter.reserve(0, 0);
+        limiter.reserve(0, 10 * NANOS_PER_SECOND);
+        limiter.setRate(100);
+        assertEquals(100, limiter.getRate());
+        assertEquals(NANOS_PER_SECOND, limiter.reserve(200, 10 * NANOS_PER_SECOND));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeRate() {
+        new RateLimiter(-1);
+    }
+
+
+    @Test
+    public void sharesRateAcrossThreads() throws InterruptedException {
+        final long rate = 400000;
+        final int threadCount = 4;
+        final int chunks = 25;
+        final int chunk = 4000;
+        final RateLimiter limiter = new RateLimiter(rate);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < chunks; j++) {
+                            RateLimiter.sleep(limiter.reserve(chunk, System.nanoTime()));
+                        }
+                    } catch (InterruptedException e) {
+                        // Not expected here
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        // The bucket starts empty, so every byte is paid for and the threads together need a second
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        long bytes = (long) threadCount * chunks * chunk;
+        assertTrue("Read " + bytes + " bytes in " + elapsed + "ns", bytes * NANOS_PER_SECOND / elapsed <= rate);
+        assertTrue("Took " + elapsed + "ns", elapsed < 5 * NANOS_PER_SECOND);
+    }
+}
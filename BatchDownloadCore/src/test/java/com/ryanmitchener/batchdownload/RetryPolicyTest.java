@@ -0,0 +1,125 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+// Classifies failures as transient or permanent and checks the backoff, then retries through the engine
+public class RetryPolicyTest {
+    @Test
+    public void retriesTransientResponses() {
+        assertTrue(RetryPolicy.isRetryable(-1));
+        assertTrue(RetryPolicy.isRetryable(408));
+        assertTrue(RetryPolicy.isRetryable(429));
+        assertTrue(RetryPolicy.isRetryable(500));
+        assertTrue(RetryPolicy.isRetryable(502));
+        assertTrue(RetryPolicy.isRetryable(503));
+        assertTrue(RetryPolicy.isRetryable(504));
+    }
+
+
+    @Test
+    public void failsPermanentResponses() {
+        assertFalse(RetryPolicy.isRetryable(400));
+        assertFalse(RetryPolicy.isRetryable(403));
+        assertFalse(RetryPolicy.isRetryable(404));
+        assertFalse(RetryPolicy.isRetryable(416));
+        assertFalse(RetryPolicy.isRetryable(501));
+        assertFalse(RetryPolicy.isRetryable(505));
+    }
+
+
+    @Test
+    public void retriesNetworkFailures() {
+        assertTrue(RetryPolicy.isRetryable(new IOException("Connection reset")));
+        assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+        assertTrue(RetryPolicy.isRetryable(new ConnectException()));
+        assertTrue(RetryPolicy.isRetryable(new UnknownHostException()));
+        assertTrue(RetryPolicy.isRetryable(new EOFException()));
+    }
+
+
+    @Test
+    public void failsCertificateErrors() {
+        assertFalse(RetryPolicy.isRetryable(new SSLHandshakeException("PKIX path building failed")));
+        assertFalse(RetryPolicy.isRetryable(new SSLPeerUnverifiedException("Hostname not verified")));
+    }
+
+
+    @Test
+    public void failsLocalFileErrors() {
+        assertFalse(RetryPolicy.isRetryable(new LocalIOException(new IOException("No space left on device"))));
+        assertFalse(RetryPolicy.isRetryable(new FileNotFoundException()));
+    }
+
+
+    @Test
+    public void failsBadRequestsAndOtherExceptions() {
+        assertFalse(RetryPolicy.isRetryable(new MalformedURLException()));
+        assertFalse(RetryPolicy.isRetryable(new ProtocolException()));
+        assertFalse(RetryPolicy.isRetryable(new IllegalStateException()));
+    }
+
+
+    @Test
+    public void backsOffExponentiallyUpToMax() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int attempts = 1; attempts < 10; attempts++) {
+            long backoff = Math.min(1000, 100L << (attempts - 1));
+            long delay = policy.getDelay(attempts, 0);
+            assertTrue(delay >= backoff / 2 && delay <= backoff);
+        }
+        assertEquals(-1, policy.getDelay(10, 0));
+    }
+
+
+    @Test
+    public void honoursRetryAfter() {
+        RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+        assertEquals(5000, policy.getDelay(1, 5000));
+        assertEquals(5000, RetryPolicy.parseRetryAfter("5", 0));
+        assertEquals(60000, RetryPolicy.parseRetryAfter("Thu, 01 Jan 1970 00:01:00 GMT", 0));
+        assertEquals(0, RetryPolicy.parseRetryAfter("soon", 0));
+    }
+
+
+    @Test
+    public void retriesServerErrorsThroughEngine() throws Exception {
+        TestServer server = TestServer.start();
+        try {
+            BatchDownload batchDownload = TestDownloads.instance();
+            batchDownload.setConfig(new BatchDownload.Config.Builder().setRetry(3, 10, 20).build());
+            File folder = TestDownloads.newFolder();
+            server.serveStatus("/unavailable", 503);
+            server.serveStatus("/missing", 404);
+
+            BatchDownload.Batch unavailable = batchDownload.add(new BatchDownload.Request(server.url("/unavailable"), "unavailable", folder));
+            TestDownloads.await(unavailable);
+            assertEquals(3, server.getRequestCount("/unavailable"));
+            assertEquals(1, unavailable.getProgress().getErrorCount());
+
+            BatchDownload.Batch missing = batchDownload.add(new BatchDownload.Request(server.url("/missing"), "missing", folder));
+            TestDownloads.await(missing);
+            assertEquals(1, server.getRequestCount("/missing"));
+            assertEquals(1, missing.getProgress().getErrorCount());
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+// Downloads large files in segments through the engine against the local server
+public class SegmentedDownloadTest {
+    private final static int SEGMENT = 1024 * 1024;
+
+    private TestServer server;
+    private BatchDownload batchDownload;
+    private FakeDeviceState device;
+    private File folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server = TestServer.start();
+        batchDownload = TestDownloads.instance();
+        device = new FakeDeviceState();
+        batchDownload.setDeviceState(device);
+        folder = TestDownloads.newFolder();
+    }
+
+
+    @After
+    public void tearDown() {
+        batchDownload.setSegmentedDownloads(0, 4);
+        batchDownload.setDeviceState(null);
+        server.stop();
+    }
+
+
+    @Test
+    public void splitsLargeFileIntoRanges() throws Exception {
+        byte[] body = TestServer.randomBytes(4 * SEGMENT, 1);
+        server.serve("/large", body);
+        batchDownload.setSegmentedDownloads(SEGMENT, 4);
+
+        BatchDownload.Batch batch = addOnceSized(new BatchDownload.Request(server.url("/large"), "large.bin", folder), body.length);
+        TestDownloads.await(batch);
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "large.bin")));
+
+        List<String> ranges = server.getRanges("/large");
+        Collections.sort(ranges);
+        assertEquals(Arrays.asList("bytes=0-1048575", "bytes=1048576-2097151", "bytes=2097152-3145727", "bytes=3145728-4194303"), ranges);
+    }
+
+
+    @Test
+    public void downloadsSmallFileWhole() throws Exception {
+        byte[] body = TestServer.randomBytes(2 * SEGMENT, 2);
+        server.serve("/small", body);
+        batchDownload.setSegmentedDownloads(4 * SEGMENT, 4);
+
+        BatchDownload.Batch batch = addOnceSized(new BatchDownload.Request(server.url("/small"), "small.bin", folder), body.length);
+        TestDownloads.await(batch);
+        assertEquals(1, server.getRequestCount("/small"));
+        assertNull(server.getLastRequestHeader("/small", "Range"));
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "small.bin")));
+    }
+
+
+    @Test
+    public void failsWhenSegmentBreaksPartway() throws Exception {
+        byte[] body = TestServer.randomBytes(4 * SEGMENT, 3);
+        server.serve("/broken", body);
+        server.truncateRange("/broken", 2 * SEGMENT, 1000);
+        batchDownload.setSegmentedDownloads(SEGMENT, 4);
+
+        BatchDownload.Batch batch = addOnceSized(new BatchDownload.Request(server.url("/broken"), "broken.bin", folder), body.length);
+        TestDownloads.await(batch);
+        assertEquals(1, batch.getProgress().getErrorCount());
+        assertFalse(new File(folder, "broken.bin").exists());
+
+        // Segments that had not started yet when the broken one failed are skipped
+        assertTrue(server.getRanges("/broken").contains("bytes=2097152-3145727"));
+        assertTrue(server.getRequestCount("/broken") <= 4);
+    }
+
+
+    @Test
+    public void retriesWhenSegmentBreaksPartway() throws Exception {
+        batchDownload.setConfig(new BatchDownload.Config.Builder().setRetry(2, 0, 0).build());
+        byte[] body = TestServer.randomBytes(4 * SEGMENT, 4);
+        server.serve("/retried", body);
+        server.truncateRange("/retried", 3 * SEGMENT, 1000);
+        batchDownload.setSegmentedDownloads(SEGMENT, 4);
+
+        BatchDownload.Batch batch = addOnceSized(new BatchDownload.Request(server.url("/retried"), "retried.bin", folder), body.length);
+        TestDownloads.await(batch);
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertTrue(server.getRequestCount("/retried") <= 8);
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "retried.bin")));
+    }
+
+
+    @Test
+    public void checksSizeBeforeMovingSegmentedFile() throws Exception {
+        byte[] body = TestServer.randomBytes(4 * SEGMENT, 5);
+        server.serve("/sized", body);
+        batchDownload.setSegmentedDownloads(SEGMENT, 4);
+
+        BatchDownload.Request request = new BatchDownload.Request(server.url("/sized"), "sized.bin", folder);
+        request.setExpectedSize(body.length + 1);
+        BatchDownload.Batch batch = addOnceSized(request, body.length);
+        TestDownloads.await(batch);
+        assertEquals(1, batch.getProgress().getErrorCount());
+        assertEquals(4, server.getRanges("/sized").size());
+        assertEquals(0, folder.listFiles().length);
+    }
+
+
+    // Holds the request back on an offline device until its HEAD response is in, since only a request whose size
+    // is known can be split
+    private BatchDownload.Batch addOnceSized(BatchDownload.Request request, long length) throws InterruptedException {
+        device.setConnected(false);
+        request.setConstraints(new BatchDownload.Constraints.Builder().build());
+        BatchDownload.Batch batch = batchDownload.add(request);
+        TestDownloads.awaitDeferred(batchDownload, 1);
+        long deadline = System.currentTimeMillis() + 30000;
+        while (batch.getProgress().getTotalBytes() != length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(length, batch.getProgress().getTotalBytes());
+        device.setConnected(true);
+        return batch;
+    }
+}
@@ -0,0 +1,98 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+// Downloads one url, or one file name, from several batches at once while the local server holds the first download
+// partway through its body
+public class SharedDestinationTest {
+    private final static int STALL = 100000;
+
+    private TestServer server;
+    private BatchDownload batchDownload;
+    private File folder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server = TestServer.start();
+        batchDownload = TestDownloads.instance();
+        folder = TestDownloads.newFolder();
+    }
+
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+
+    @Test
+    public void downloadsSameUrlInTwoBatches() throws Exception {
+        byte[] body = TestServer.randomBytes(500000, 1);
+        server.serve("/shared", body);
+        server.stall("/shared", STALL);
+
+        BatchDownload.Batch first = batchDownload.add(new BatchDownload.Request(server.url("/shared"), "shared.bin", folder));
+        TestDownloads.awaitDownloaded(first, STALL);
+        BatchDownload.Batch second = batchDownload.add(new BatchDownload.Request(server.url("/shared"), "shared.bin", folder));
+        TestDownloads.await(second);
+        server.resume("/shared");
+        TestDownloads.await(first);
+
+        assertEquals(0, first.getProgress().getErrorCount());
+        assertEquals(0, second.getProgress().getErrorCount());
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "shared.bin")));
+        assertEquals(1, folder.listFiles().length);
+    }
+
+
+    @Test
+    public void downloadsSameUrlIntoTwoFolders() throws Exception {
+        byte[] body = TestServer.randomBytes(500000, 2);
+        server.serve("/copied", body);
+        server.stall("/copied", STALL);
+        File other = TestDownloads.newFolder();
+
+        BatchDownload.Batch first = batchDownload.add(new BatchDownload.Request(server.url("/copied"), "copied.bin", folder));
+        TestDownloads.awaitDownloaded(first, STALL);
+        BatchDownload.Batch second = batchDownload.add(new BatchDownload.Request(server.url("/copied"), "copied.bin", other));
+        TestDownloads.await(second);
+        server.resume("/copied");
+        TestDownloads.await(first);
+
+        assertEquals(0, first.getProgress().getErrorCount());
+        assertEquals(0, second.getProgress().getErrorCount());
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "copied.bin")));
+        assertArrayEquals(body, TestDownloads.read(new File(other, "copied.bin")));
+    }
+
+
+    @Test
+    public void numbersNameTakenByOtherUrl() throws Exception {
+        byte[] one = TestServer.randomBytes(500000, 3);
+        byte[] two = TestServer.randomBytes(50000, 4);
+        server.serve("/one", one);
+        server.serve("/two", two);
+        server.stall("/one", STALL);
+
+        BatchDownload.Batch first = batchDownload.add(new BatchDownload.Request(server.url("/one"), "same", folder));
+        TestDownloads.awaitDownloaded(first, STALL);
+        BatchDownload.Batch second = batchDownload.add(new BatchDownload.Request(server.url("/two"), "same", folder));
+        TestDownloads.await(second);
+        server.resume("/one");
+        TestDownloads.await(first);
+
+        assertEquals(0, first.getProgress().getErrorCount());
+        assertEquals(0, second.getProgress().getErrorCount());
+        assertArrayEquals(one, TestDownloads.read(new File(folder, "same")));
+        assertArrayEquals(two, TestDownloads.read(new File(folder, "same-1")));
+    }
+}
@@ -0,0 +1,83 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+// Adds to a striped counter from one and from many threads and checks the sum
+public class StripedCounterTest {
+    @Test
+    public void sumsAdds() {
+        StripedCounter counter = new StripedCounter();
+        assertEquals(0, counter.sum());
+        counter.add(5);
+        counter.add(10);
+        counter.add(-3);
+        assertEquals(12, counter.sum());
+    }
+
+
+    @Test
+    public void resetsEveryCell() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    counter.add(7);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(56, counter.sum());
+        counter.reset();
+        assertEquals(0, counter.sum());
+    }
+
+
+    @Test
+    public void countsEveryAddFromManyThreads() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        final int threadCount = 16;
+        final int adds = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < adds; j++) {
+                        counter.add(1);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        // Sums read while the threads add never go down and never pass the final total
+        start.countDown();
+        long previous = 0;
+        for (int i = 0; i < 1000; i++) {
+            long sum = counter.sum();
+            assertTrue(sum >= previous && sum <= (long) threadCount * adds);
+            previous = sum;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals((long) threadCount * adds, counter.sum());
+    }
+}
@@ -0,0 +1,98 @@
+package com.ryanmitchener.batchdownload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+// Shared setup for the tests that download through BatchDownload. The engine is a singleton that keeps the folder it
+// was first created with, so every test class uses the same one and makes its own folders in it.
+final class TestDownloads {
+    private final static long TIMEOUT = 30000;
+    private static File root = null;
+
+    private TestDownloads() {}
+
+
+    // Returns the engine with its default configuration
+    static synchronized BatchDownload instance() throws IOException {
+        if (root == null) {
+            root = createFolder(null);
+        }
+        BatchDownload batchDownload = BatchDownload.getInstance(root);
+        batchDownload.setConfig(new BatchDownload.Config.Builder().setRetry(1, 0, 0).build());
+        batchDownload.setDeviceState(null);
+        return batchDownload;
+    }
+
+
+    // Returns the folder the engine keeps the metadata of partial downloads in
+    static File cacheFolder() {
+        return new File(root, "com.ryanmitchener.batchdownload.cache");
+    }
+
+
+    // Creates an empty folder to download into
+    static File newFolder() throws IOException {
+        return createFolder(root);
+    }
+
+
+    // Creates an empty folder outside the engine's folder, for tests that do not download
+    static File newTempFolder() throws IOException {
+        return createFolder(null);
+    }
+
+
+    private static File createFolder(File parent) throws IOException {
+        File folder = File.createTempFile("downloads", "", parent);
+        folder.delete();
+        folder.mkdirs();
+        return folder;
+    }
+
+
+    // Waits for every request of a batch to finish
+    static void await(BatchDownload.Batch batch) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!batch.isFinished() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Batch did not finish", batch.isFinished());
+    }
+
+
+    // Waits until a batch has downloaded the given number of bytes, for example up to where the server stalls
+    static void awaitDownloaded(BatchDownload.Batch batch, long bytes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (batch.getProgress().getBytesDownloaded() < bytes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(bytes, batch.getProgress().getBytesDownloaded());
+    }
+
+
+    // Waits until the given number of requests are deferred for their constraints
+    static void awaitDeferred(BatchDownload batchDownload, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (batchDownload.getDeferredCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Requests were not deferred", count, batchDownload.getDeferredCount());
+    }
+
+
+    static byte[] read(File file) throws IOException {
+        RandomAccessFile is = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) is.length()];
+            is.readFully(bytes);
+            return bytes;
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.ryanmitchener.batchdownload;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+
+// Local HTTP or HTTPS server that stands in for real servers in the tests. Each path serves a fixed body with an ETag
+// and a Last-Modified date, and answers Range, If-Range and If-None-Match the way real servers do. Other paths answer
+// with a fixed status or a redirect.
+final class TestServer {
+    private final static String LAST_MODIFIED = "Mon, 02 Jan 2017 00:00:00 GMT";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String host;
+    private final Map<String, Resource> resources = new ConcurrentHashMap<String, Resource>();
+
+
+    private TestServer(HttpServer server, String host) {
+        this.server = server;
+        this.host = host;
+        this.executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new Handler());
+        server.start();
+    }
+
+
+    // Starts a plain HTTP server on a free port of the loopback interface
+    static TestServer start() throws IOException {
+        return new TestServer(HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0), "127.0.0.1");
+    }
+
+
+    // Starts an HTTPS server for localhost with the certificate from sslContext()
+    static TestServer startHttps() throws Exception {
+        HttpsServer server = HttpsServer.create(new InetSocketAddress(InetAddress.getByName("localhost"), 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext()));
+        return new TestServer(server, "localhost");
+    }
+
+
+    // Returns a context holding the self-signed localhost certificate as both the key and the only trusted root
+    static SSLContext sslContext() throws Exception {
+        char[] password = "password".toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        InputStream is = TestServer.class.getResourceAsStream("/localhost.p12");
+        try {
+            keyStore.load(is, password);
+        } finally {
+            is.close();
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+
+    // Serves body at path
+    void serve(String path, byte[] body) {
+        resources.put(path, new Resource(body, false, 0, null));
+    }
+
+
+    // Serves body at path gzip compressed whenever the client accepts gzip
+    void serveGzip(String path, byte[] body) {
+        resources.put(path, new Resource(body, true, 0, null));
+    }
+
+
+    // Answers every request for path with a status code and no body
+    void serveStatus(String path, int code) {
+        resources.put(path, new Resource(null, false, code, null));
+    }
+
+
+    // Answers every request for path with a redirect to location
+    void redirect(String path, int code, String location) {
+        resources.put(path, new Resource(null, false, code, location));
+    }
+
+
+    // Makes the next response to a Range request for path that starts at start send only bytes bytes of its body
+    // before the connection drops
+    void truncateRange(String path, int start, int bytes) {
+        Resource resource = resources.get(path);
+        synchronized (resource) {
+            resource.truncateStart = start;
+            resource.truncateBytes = bytes;
+        }
+    }
+
+
+    // Makes the next GET response for path stop after bytes bytes of its body until resume() is called
+    void stall(String path, int bytes) {
+        Resource resource = resources.get(path);
+        synchronized (resource) {
+            resource.stallBytes = bytes;
+            resource.stalled = new CountDownLatch(1);
+        }
+    }
+
+
+    // Lets a stalled response for path send the rest of its body
+    void resume(String path) {
+        Resource resource = resources.get(path);
+        synchronized (resource) {
+            if (resource.stalled != null) {
+                resource.stalled.countDown();
+            }
+        }
+    }
+
+
+    String url(String path) {
+        return url(host, path);
+    }
+
+
+    // Returns the url of path with another name for the server, such as its address instead of localhost
+    String url(String host, String path) {
+        String scheme = (server instanceof HttpsServer) ? "https" : "http";
+        return scheme + "://" + host + ":" + server.getAddress().getPort() + path;
+    }
+
+
+    // Returns the number of GET requests made for path
+    int getRequestCount(String path) {
+        Resource resource = resources.get(path);
+        return (resource != null) ? resource.requests.get() : 0;
+    }
+
+
+    // Returns a header of the last GET request made for path
+    String getLastRequestHeader(String path, String name) {
+        Resource resource = resources.get(path);
+        return (resource != null && resource.lastHeaders != null) ? resource.lastHeaders.getFirst(name) : null;
+    }
+
+
+    // Returns the Range headers of the GET requests made for path, in the order they arrived
+    List<String> getRanges(String path) {
+        Resource resource = resources.get(path);
+        if (resource == null) {
+            return new ArrayList<String>();
+        }
+        synchronized (resource.ranges) {
+            return new ArrayList<String>(resource.ranges);
+        }
+    }
+
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    // Returns the ETag a body is served with
+    static String etagOf(byte[] body) {
+        return "\"" + ((body != null) ? Integer.toHexString(Arrays.hashCode(body)) : "0") + "\"";
+    }
+
+
+    // Returns count bytes that do not compress, so a gzip body is larger than the decoded one
+    static byte[] randomBytes(int count, long seed) {
+        byte[] bytes = new byte[count];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+
+    // Compresses bytes with gzip
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream os = new GZIPOutputStream(compressed);
+        os.write(bytes);
+        os.close();
+        return compressed.toByteArray();
+    }
+
+
+    private static class Resource {
+        private final byte[] body;
+        private final boolean gzip;
+        private final int status;
+        private final String location;
+        private final String etag;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile Headers lastHeaders = null;
+        private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+        private int truncateStart = -1;
+        private int truncateBytes = 0;
+        private int stallBytes = -1;
+        private CountDownLatch stalled = null;
+
+        Resource(byte[] body, boolean gzip, int status, String location) {
+            this.body = body;
+            this.gzip = gzip;
+            this.status = status;
+            this.location = location;
+            this.etag = etagOf(body);
+        }
+
+        // Returns the number of bytes to send before waiting for resume(), or -1 to send the body without stopping. A
+        // stall applies once.
+        synchronized int takeStall() {
+            int bytes = stallBytes;
+            stallBytes = -1;
+            return bytes;
+        }
+
+        // Returns the number of bytes to send of a range starting at start, or -1 to send it whole. A truncation
+        // applies once.
+        synchronized int takeTruncation(int start) {
+            if (start != truncateStart) {
+                return -1;
+            }
+            truncateStart = -1;
+            return truncateBytes;
+        }
+    }
+
+
+    private class Handler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                serve(exchange);
+            } catch (IOException e) {
+                // The client went away
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            Resource resource = resources.get(exchange.getRequestURI().getPath());
+            if (resource == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+            Headers requestHeaders = exchange.getRequestHeaders();
+            if (!head) {
+                resource.requests.incrementAndGet();
+                resource.lastHeaders = requestHeaders;
+                if (requestHeaders.getFirst("Range") != null) {
+                    resource.ranges.add(requestHeaders.getFirst("Range"));
+                }
+            }
+            if (resource.status != 0) {
+                if (resource.location != null) {
+                    exchange.getResponseHeaders().set("Location", resource.location);
+                }
+                exchange.sendResponseHeaders(resource.status, -1);
+                return;
+            }
+
+            int truncate = -1;
+            Headers responseHeaders = exchange.getResponseHeaders();
+            responseHeaders.set("ETag", resource.etag);
+            responseHeaders.set("Last-Modified", LAST_MODIFIED);
+            if (resource.etag.equals(requestHeaders.getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            // Compressed bodies are sent whole, the way servers that compress on the fly answer a Range request
+            String acceptEncoding = requestHeaders.getFirst("Accept-Encoding");
+            byte[] body = resource.body;
+            int code = 200;
+            if (resource.gzip && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                body = gzip(body);
+                responseHeaders.set("Content-Encoding", "gzip");
+            } else {
+                responseHeaders.set("Accept-Ranges", "bytes");
+                String range = requestHeaders.getFirst("Range");
+                String ifRange = requestHeaders.getFirst("If-Range");
+                if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(resource.etag))) {
+                    String[] bounds = range.substring(6).split("-", -1);
+                    int start = Integer.parseInt(bounds[0]);
+                    int end = (bounds.length > 1 && bounds[1].length() > 0) ? Math.min(body.length - 1, Integer.parseInt(bounds[1])) : body.length - 1;
+                    if (start > end) {
+                        responseHeaders.set("Content-Range", "bytes */" + body.length);
+                        exchange.sendResponseHeaders(416, -1);
+                        return;
+                    }
+                    responseHeaders.set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+                    body = Arrays.copyOfRange(body, start, end + 1);
+                    code = 206;
+                    if (!head) {
+                        truncate = resource.takeTruncation(start);
+                    }
+                }
+            }
+
+            if (head) {
+                responseHeaders.set("Content-Length", String.valueOf(body.length));
+                exchange.sendResponseHeaders(code, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(code, (body.length > 0) ? body.length : -1);
+            OutputStream os = exchange.getResponseBody();
+            int stall = resource.takeStall();
+            if (stall >= 0) {
+                os.write(body, 0, stall);
+                os.flush();
+                try {
+                    resource.stalled.await();
+                } catch (InterruptedException e) {
+                    // The server is stopping
+                    return;
+                }
+                body = Arrays.copyOfRange(body, stall, body.length);
+            }
+            if (truncate >= 0) {
+                // Closing the exchange before the promised length was written drops the connection
+                os.write(body, 0, Math.min(truncate, body.length));
+                os.flush();
+                return;
+            }
+            os.write(body);
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.util.HashMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+
+// Follows redirects through UrlConnectionTransport between local HTTP and HTTPS servers. HttpsURLConnection only takes
+// its socket factory from a global default, so the default trusts the test certificate while a test runs.
+public class UrlConnectionTransportTest {
+    private SSLSocketFactory defaultSocketFactory;
+    private UrlConnectionTransport transport;
+    private TestServer plain;
+    private TestServer secure;
+
+
+    @Before
+    public void setUp() throws Exception {
+        defaultSocketFactory = HttpsURLConnection.getDefaultSSLSocketFactory();
+        HttpsURLConnection.setDefaultSSLSocketFactory(TestServer.sslContext().getSocketFactory());
+        transport = new UrlConnectionTransport(15000, 30000);
+        plain = TestServer.start();
+        secure = TestServer.startHttps();
+    }
+
+
+    @After
+    public void tearDown() {
+        HttpsURLConnection.setDefaultSSLSocketFactory(defaultSocketFactory);
+        plain.stop();
+        secure.stop();
+    }
+
+
+    @Test
+    public void followsRedirect() throws Exception {
+        byte[] body = TestServer.randomBytes(1000, 1);
+        plain.serve("/file", body);
+        plain.redirect("/moved", 301, "/temporary");
+        plain.redirect("/temporary", 307, plain.url("/file"));
+
+        assertArrayEquals(body, get(plain.url("/moved")));
+    }
+
+
+    @Test
+    public void followsRedirectFromHttpToHttps() throws Exception {
+        byte[] body = TestServer.randomBytes(1000, 2);
+        secure.serve("/file", body);
+        plain.redirect("/moved", 302, secure.url("/file"));
+
+        assertArrayEquals(body, get(plain.url("/moved")));
+    }
+
+
+    @Test
+    public void returnsRedirectThatIsNotFollowed() throws Exception {
+        plain.serve("/file", new byte[10]);
+        plain.redirect("/choices", 300, "/file");
+
+        Transport.Response response = transport.execute("GET", plain.url("/choices"), new HashMap<String, String>());
+        assertEquals(300, response.getResponseCode());
+        response.close();
+        assertEquals(0, plain.getRequestCount("/file"));
+    }
+
+
+    @Test
+    public void refusesRedirectFromHttpsToHttp() throws Exception {
+        plain.serve("/file", new byte[10]);
+        secure.redirect("/moved", 302, plain.url("/file"));
+
+        try {
+            get(secure.url("/moved"));
+            fail("Followed a redirect from https to http");
+        } catch (ProtocolException e) {
+            assertEquals(0, plain.getRequestCount("/file"));
+        }
+    }
+
+
+    // Reads the whole body of a GET response
+    private byte[] get(String url) throws IOException {
+        Transport.Response response = transport.execute("GET", url, new HashMap<String, String>());
+        try {
+            assertEquals(200, response.getResponseCode());
+            InputStream is = response.getBody();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                body.write(buffer, 0, bytesRead);
+            }
+            return body.toByteArray();
+        } finally {
+            response.close();
+        }
+    }
+}
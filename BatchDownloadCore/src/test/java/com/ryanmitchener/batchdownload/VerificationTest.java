@@ -0,0 +1,129 @@
+package com.ryanmitchener.batchdownload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+// Downloads files with an expected checksum or size from the local server and checks that only a match is kept
+public class VerificationTest {
+    private TestServer server;
+    private BatchDownload batchDownload;
+    private File folder;
+    private byte[] body;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server = TestServer.start();
+        batchDownload = TestDownloads.instance();
+        folder = TestDownloads.newFolder();
+        body = TestServer.randomBytes(100000, 1);
+        server.serve("/file", body);
+    }
+
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+
+    @Test
+    public void computesKnownCrc32c() {
+        Checksum checksum = Checksum.create(Checksum.CRC32C);
+        checksum.update(ByteBuffer.wrap("123456789".getBytes()));
+        assertEquals("e3069283", checksum.toHex());
+    }
+
+
+    @Test
+    public void keepsFileWithMatchingChecksums() throws Exception {
+        assertKept(BatchDownload.Request.CHECKSUM_CRC32C, crc32c(body));
+        assertKept(BatchDownload.Request.CHECKSUM_MD5, digest("MD5", body));
+        assertKept(BatchDownload.Request.CHECKSUM_SHA256, digest("SHA-256", body).toUpperCase());
+    }
+
+
+    @Test
+    public void rejectsCrc32cMismatch() throws Exception {
+        assertRejected(checksummed(BatchDownload.Request.CHECKSUM_CRC32C, crc32c(TestServer.randomBytes(100000, 2))));
+    }
+
+
+    @Test
+    public void rejectsMd5Mismatch() throws Exception {
+        assertRejected(checksummed(BatchDownload.Request.CHECKSUM_MD5, digest("MD5", TestServer.randomBytes(100000, 2))));
+    }
+
+
+    @Test
+    public void rejectsSha256Mismatch() throws Exception {
+        assertRejected(checksummed(BatchDownload.Request.CHECKSUM_SHA256, digest("SHA-256", TestServer.randomBytes(100000, 2))));
+    }
+
+
+    @Test
+    public void rejectsSizeMismatch() throws Exception {
+        BatchDownload.Request request = new BatchDownload.Request(server.url("/file"), "file.bin", folder);
+        request.setExpectedSize(body.length - 1);
+        assertRejected(request);
+
+        request = new BatchDownload.Request(server.url("/file"), "file.bin", folder);
+        request.setExpectedSize(body.length);
+        BatchDownload.Batch batch = batchDownload.add(request);
+        TestDownloads.await(batch);
+        assertEquals(0, batch.getProgress().getErrorCount());
+        assertArrayEquals(body, TestDownloads.read(new File(folder, "file.bin")));
+    }
+
+
+    private BatchDownload.Request checksummed(String algorithm, String hex) {
+        BatchDownload.Request request = new BatchDownload.Request(server.url("/file"), "file.bin", folder);
+        request.setExpectedChecksum(algorithm, hex);
+        return request;
+    }
+
+
+    // Downloads with a matching checksum and removes the file again for the next algorithm
+    private void assertKept(String algorithm, String hex) throws Exception {
+        BatchDownload.Batch batch = batchDownload.add(checksummed(algorithm, hex));
+        TestDownloads.await(batch);
+        assertEquals(algorithm, 0, batch.getProgress().getErrorCount());
+        File file = new File(folder, "file.bin");
+        assertArrayEquals(body, TestDownloads.read(file));
+        file.delete();
+    }
+
+
+    // Downloads a request that does not match and checks nothing is left in the folder
+    private void assertRejected(BatchDownload.Request request) throws Exception {
+        BatchDownload.Batch batch = batchDownload.add(request);
+        TestDownloads.await(batch);
+        assertEquals(1, batch.getProgress().getErrorCount());
+        assertEquals(0, folder.listFiles().length);
+    }
+
+
+    private static String crc32c(byte[] bytes) {
+        Checksum checksum = Checksum.create(Checksum.CRC32C);
+        checksum.update(ByteBuffer.wrap(bytes));
+        return checksum.toHex();
+    }
+
+
+    private static String digest(String algorithm, byte[] bytes) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance(algorithm).digest(bytes)) {
+            hex.append(String.format("%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+}
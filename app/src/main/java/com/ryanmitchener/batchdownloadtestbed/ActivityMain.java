@@ -12,6 +12,7 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.TextView;
 
+import com.ryanmitchener.batchdownload.AndroidBatchDownload;
 import com.ryanmitchener.batchdownload.BatchDownload;
 import com.ryanmitchener.batchdownload.BatchDownload.Request;
 
@@ -71,7 +72,7 @@ public class ActivityMain extends Activity {
         broadcastFilter.addAction(BatchDownload.ACTION_COMPLETE);
         LocalBroadcastManager.getInstance(this).registerReceiver(callback, broadcastFilter);
 
-        bd = BatchDownload.getInstance(this);
+        bd = AndroidBatchDownload.getInstance(this);
 //        bd.add(requests);
 
         findViewById(R.id.add_url).setOnClickListener(new View.OnClickListener() {
@@ -0,0 +1,225 @@
+package com.ryanmitchener.batchdownload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Time to download a whole batch through the engine: scheduling, retries, placement and events included. Each
+// operation adds a batch of files served by the local server and waits for ACTION_BATCH_COMPLETE. Sample mode
+// reports the percentiles for every combination of workload, thread kind, transport and metrics. Virtual threads
+// fall back to platform threads on JVMs older than 21, so run the virtual combinations on a newer JVM.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class BatchThroughputBenchmark {
+    private final static int PLATFORM_THREADS = 16;
+    private final static int VIRTUAL_THREADS = 1024;
+
+    // small: 2000 files of 16KB, large: 4 files of 32MB, slow: 256 files of 256KB with a delay per chunk,
+    // lossy: 64 files of 1MB with a fifth of responses cut off
+    @Param({"small", "large", "slow", "lossy"})
+    public String workload;
+
+    // platform: a pool of 16 platform threads, virtual: a pool of 1024 virtual threads
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"urlconnection", "pooled"})
+    public String transport;
+
+    // Shows what recording the metrics costs
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    // BatchDownload keeps the folder of the first getInstance() call for the life of the JVM, so every trial of a
+    // fork shares one
+    private static File root;
+
+    private LocalHttpServer server;
+    private BatchDownload batchDownload;
+    private File folder;
+    private int files;
+    private long size;
+    private String query;
+    private final Listener listener = new Listener();
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = LocalHttpServer.start();
+        if (root == null) {
+            root = File.createTempFile("batch", "");
+            root.delete();
+            root.mkdirs();
+        }
+        folder = new File(root, "downloads");
+
+        if (workload.equals("small")) {
+            files = 2000;
+            size = 16 * 1024;
+        } else if (workload.equals("large")) {
+            files = 4;
+            size = 32L * 1024 * 1024;
+        } else if (workload.equals("slow")) {
+            files = 256;
+            size = 256 * 1024;
+            query = "delay=2";
+        } else {
+            files = 64;
+            size = 1024 * 1024;
+            query = "drop=20";
+        }
+
+        boolean virtual = threads.equals("virtual");
+        int poolSize = virtual ? VIRTUAL_THREADS : PLATFORM_THREADS;
+        batchDownload = BatchDownload.getInstance(root);
+        batchDownload.setConfig(new BatchDownload.Config.Builder()
+                .setCorePoolSize(poolSize)
+                .setMaxPoolSize(poolSize)
+                .setJournal(false)
+                .setRetry(50, 0, 0)
+                .setVirtualThreads(virtual)
+                .build());
+        batchDownload.setMetricsEnabled(metrics);
+        if (transport.equals("pooled")) {
+            batchDownload.setTransport(new PooledTransport());
+        } else {
+            batchDownload.setTransport(new UrlConnectionTransport(15000, 30000));
+        }
+        batchDownload.addListener(listener, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, 16);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        batchDownload.removeListener(listener);
+        batchDownload.cancel();
+        server.stop();
+        delete(folder);
+    }
+
+
+    @TearDown(Level.Invocation)
+    public void clean() {
+        delete(folder);
+    }
+
+
+    @Benchmark
+    public int download() throws Exception {
+        folder.mkdirs();
+        ArrayList<BatchDownload.Request> requests = new ArrayList<BatchDownload.Request>(files);
+        for (int i = 0; i < files; i++) {
+            // A distinct url per file so none of them are merged into one download
+            String url = server.url(size, (query != null) ? query + "&n=" + i : "n=" + i);
+            requests.add(new BatchDownload.Request(url, "file" + i, folder));
+        }
+        listener.reset();
+        batchDownload.add(requests);
+        listener.await();
+        if (listener.downloaded.get() != files) {
+            throw new IllegalStateException("Only " + listener.downloaded.get() + " of " + files + " files downloaded.");
+        }
+        return files;
+    }
+
+
+    // Deletes a file or a folder with everything in it
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+
+    /**
+     * Listener
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Counts the files of the running batch and releases the benchmark thread once the batch is done. Only one
+    // batch runs at a time so any batch event belongs to it.
+    private static class Listener implements DownloadListener {
+        final AtomicInteger downloaded = new AtomicInteger();
+        private volatile CountDownLatch done;
+
+        void reset() {
+            downloaded.set(0);
+            done = new CountDownLatch(1);
+        }
+
+        void await() throws InterruptedException {
+            done.await();
+        }
+
+        @Override
+        public void onProgress(BatchDownload.Progress progress) {
+        }
+
+        @Override
+        public void onEvents(List<DownloadEvent> events) {
+            for (DownloadEvent event : events) {
+                String type = event.getType();
+                if (type.equals(BatchDownload.ACTION_FILE_DOWNLOADED)) {
+                    downloaded.incrementAndGet();
+                } else if (type.equals(BatchDownload.ACTION_BATCH_COMPLETE) || type.equals(BatchDownload.ACTION_BATCH_CANCELLED)) {
+                    done.countDown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.ryanmitchener.batchdownload;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// HTTP server on the loopback interface that stands in for real servers in the benchmarks. Files are synthetic and
+// described by their path, so nothing is stored: /file/<bytes> serves that many bytes of a repeating pseudo random
+// pattern. Query parameters shape the response:
+//   delay=<ms>      sleeps before every chunk, for slow links
+//   drop=<percent>  cuts that share of responses off part way through, for lossy links
+//   gzip=1          compresses the body when the client accepts gzip
+// Range and If-Range are supported so interrupted transfers resume the way they do against real servers.
+final class LocalHttpServer {
+    private final static int CHUNK_SIZE = 64 * 1024;
+    private final static byte[] PATTERN = new byte[CHUNK_SIZE];
+
+    static {
+        new Random(42).nextBytes(PATTERN);
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+
+    /**
+     * Constructor
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    private LocalHttpServer(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+
+    // Starts a server on a free port
+    static LocalHttpServer start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/file/", new FileHandler());
+        server.start();
+        return new LocalHttpServer(server, executor);
+    }
+
+
+    /**
+     * Misc Methods
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    // Returns the url of a synthetic file. query may be null or something like "delay=5&drop=10".
+    String url(long size, String query) {
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file/" + size;
+        return (query != null && query.length() > 0) ? url + "?" + query : url;
+    }
+
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    // Returns the byte at a position of every synthetic file
+    static byte byteAt(long position) {
+        return PATTERN[(int) (position % CHUNK_SIZE)];
+    }
+
+
+    /**
+     * Handler
+     * ---------------------------------------------------------------------------------------------
+     */
+
+    private static class FileHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                serve(exchange);
+            } catch (IOException e) {
+                // The client went away or the response was cut off on purpose
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            long size;
+            try {
+                size = Long.parseLong(exchange.getRequestURI().getPath().substring("/file/".length()));
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            long delay = parseLong(query.get("delay"), 0);
+            int drop = (int) parseLong(query.get("drop"), 0);
+            boolean gzip = "1".equals(query.get("gzip"));
+
+            // The size doubles as a strong validator since the content never changes
+            String etag = "\"" + size + "\"";
+            Headers requestHeaders = exchange.getRequestHeaders();
+            Headers responseHeaders = exchange.getResponseHeaders();
+            responseHeaders.set("ETag", etag);
+            responseHeaders.set("Accept-Ranges", "bytes");
+
+            // Serve a range if one was asked for and the validator still matches
+            long start = 0;
+            long end = size - 1;
+            int code = 200;
+            String range = requestHeaders.getFirst("Range");
+            String ifRange = requestHeaders.getFirst("If-Range");
+            if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(etag))) {
+                String[] bounds = range.substring(6).split("-", -1);
+                start = parseLong(bounds[0], 0);
+                if (bounds.length > 1 && bounds[1].length() > 0) {
+                    end = Math.min(end, parseLong(bounds[1], end));
+                }
+                if (start > end) {
+                    responseHeaders.set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                responseHeaders.set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+                code = 206;
+            }
+            long length = end - start + 1;
+
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                responseHeaders.set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(code, -1);
+                return;
+            }
+
+            // Pick where to cut the response off, if it is going to be
+            long cutoff = Long.MAX_VALUE;
+            if (drop > 0 && ThreadLocalRandom.current().nextInt(100) < drop) {
+                cutoff = start + (long) (ThreadLocalRandom.current().nextDouble() * length);
+            }
+
+            OutputStream body;
+            String acceptEncoding = requestHeaders.getFirst("Accept-Encoding");
+            if (gzip && code == 200 && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                responseHeaders.set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(code, 0);
+                body = new GZIPOutputStream(exchange.getResponseBody(), CHUNK_SIZE);
+            } else {
+                exchange.sendResponseHeaders(code, length);
+                body = exchange.getResponseBody();
+            }
+
+            long position = start;
+            while (position <= end) {
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                int offset = (int) (position % CHUNK_SIZE);
+                int count = (int) Math.min(CHUNK_SIZE - offset, end - position + 1);
+                if (position + count > cutoff) {
+                    // Send part of the chunk and drop the connection without finishing the body
+                    body.write(PATTERN, offset, (int) (cutoff - position));
+                    body.flush();
+                    throw new IOException("Dropped");
+                }
+                body.write(PATTERN, offset, count);
+                position += count;
+            }
+            body.close();
+        }
+    }
+
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<String, String>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        }
+        return params;
+    }
+
+
+    private static long parseLong(String value, long fallback) {
+        if (value == null) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
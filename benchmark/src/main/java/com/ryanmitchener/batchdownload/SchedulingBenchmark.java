@@ -0,0 +1,96 @@
+package com.ryanmitchener.batchdownload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Cost of handing out the next task from the download queue with thousands queued across many hosts. Each operation
+// takes the most urgent task, frees its host slot and queues it again, which is what a worker does per download.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulingBenchmark {
+    private final static int QUEUED = 10000;
+
+    @Param({"1", "16", "256"})
+    public int hosts;
+
+    @Param({"0", "4"})
+    public int maxPerHost;
+
+    @Param({"false", "true"})
+    public boolean smallestFirst;
+
+    private DownloadQueue queue;
+
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        queue = new DownloadQueue();
+        queue.setMaxPerHost(maxPerHost);
+        queue.setSmallestFirst(smallestFirst);
+        Random random = new Random(42);
+        for (int i = 0; i < QUEUED; i++) {
+            queue.offer(new QueuedTask("host" + (i % hosts), random.nextInt(3), random.nextInt(1 << 20)));
+        }
+    }
+
+
+    @Benchmark
+    public Runnable takeAndRequeue() {
+        Runnable task = queue.poll();
+        queue.release(task);
+        queue.offer(task);
+        return task;
+    }
+
+
+    // Task that only carries the scheduling fields
+    private static class QueuedTask extends DownloadQueue.Task {
+        QueuedTask(String host, int priority, long size) {
+            super(host, priority, size);
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+}
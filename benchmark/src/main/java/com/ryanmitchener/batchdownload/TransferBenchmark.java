@@ -0,0 +1,157 @@
+package com.ryanmitchener.batchdownload;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright (c) 2014 Ryan Mitchener
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+// Latency of downloading one file through the engine's read/write loop: a pooled transport, the content decoder, a
+// pooled direct buffer and positional writes to a file channel, with the checksum updated in the loop. The responses
+// go through BatchDownload.transfer() itself, so the wire and decoded counters and the stop checks are measured too.
+// Interrupted responses are resumed with a Range request like the engine does. Sample mode reports the percentiles
+// for every combination of workload and checksum.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransferBenchmark {
+    private final static int MAX_ATTEMPTS = 50;
+
+    // small: 16KB, large: 64MB, slow: 1MB with a delay per chunk, lossy: 8MB with a fifth of responses cut off,
+    // gzip: 8MB compressed on the wire
+    @Param({"small", "large", "slow", "lossy", "gzip"})
+    public String workload;
+
+    @Param({"none", "CRC32C", "SHA-256"})
+    public String checksum;
+
+    private LocalHttpServer server;
+    private PooledTransport transport;
+    private BatchDownload batchDownload;
+    private File root;
+    private File file;
+    private String url;
+    private long size;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = LocalHttpServer.start();
+        transport = new PooledTransport();
+        root = File.createTempFile("transfer", "");
+        root.delete();
+        root.mkdirs();
+        batchDownload = BatchDownload.getInstance(root);
+        file = new File(root, "transfer.bin");
+        if (workload.equals("small")) {
+            size = 16 * 1024;
+            url = server.url(size, null);
+        } else if (workload.equals("large")) {
+            size = 64L * 1024 * 1024;
+            url = server.url(size, null);
+        } else if (workload.equals("slow")) {
+            size = 1024 * 1024;
+            url = server.url(size, "delay=2");
+        } else if (workload.equals("lossy")) {
+            size = 8 * 1024 * 1024;
+            url = server.url(size, "drop=20");
+        } else {
+            size = 8 * 1024 * 1024;
+            url = server.url(size, "gzip=1");
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        transport.shutdown();
+        server.stop();
+        file.delete();
+    }
+
+
+    @Benchmark
+    public long download() throws Exception {
+        Checksum digest = checksum.equals("none") ? null : Checksum.create(checksum);
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        try {
+            output.setLength(0);
+            FileChannel channel = output.getChannel();
+            long position = 0;
+            for (int attempt = 1; position < size; attempt++) {
+                if (attempt > MAX_ATTEMPTS) {
+                    throw new IOException("Gave up after " + MAX_ATTEMPTS + " attempts.");
+                }
+                HashMap<String, String> headers = new HashMap<String, String>();
+                if (position > 0) {
+                    headers.put("Range", "bytes=" + position + "-");
+                    headers.put("If-Range", "\"" + size + "\"");
+                    headers.put("Accept-Encoding", ContentDecoder.IDENTITY);
+                } else {
+                    headers.put("Accept-Encoding", ContentDecoder.ACCEPT_ENCODING);
+                }
+                Transport.Response response = transport.execute("GET", url, headers);
+                try {
+                    long transferred = batchDownload.transfer(url, response, channel, position, digest);
+                    if (transferred < 0) {
+                        throw new IOException("Transfer was interrupted.");
+                    }
+                    position += transferred;
+                    response.close();
+                } catch (IOException e) {
+                    // Cut off part way through. What was written is kept and resumed from the length on disk, like the
+                    // engine resumes from the length of its data file.
+                    response.abort();
+                    position = channel.size();
+                }
+            }
+            if (digest != null) {
+                digest.toHex();
+            }
+            return position;
+        } finally {
+            output.close();
+        }
+    }
+}